@@ -0,0 +1,111 @@
+package org.music.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.music.model.Album;
+import org.music.model.SoundClip;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Album operations on a chain of depth albums below the root, where the
+ * deepest album holds albumSize clips, and so does every album above it.
+ * Adding a clip to the deepest album adds it to every album up to the root,
+ * and removing it from the root removes it from every album below.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AlbumBenchmark {
+
+    @Param({"1", "4", "16"})
+    public int depth;
+
+    @Param({"100", "10000"})
+    public int albumSize;
+
+    private Album root;
+    private Album deepest;
+    private Album sibling; // a child of the root outside the chain
+    private SoundClip inAlbum;
+    private SoundClip notInAlbum;
+    private SoundClip extra;
+
+    @Setup(Level.Trial)
+    public void createAlbums() {
+        root = new Album("All Sound Clips");
+        Album album = root;
+        for (int i = 0; i < depth; i++) {
+            Album child = new Album("Album " + i, album);
+            album.addChildAlbum(child);
+            album = child;
+        }
+        deepest = album;
+        sibling = new Album("Sibling", root);
+        root.addChildAlbum(sibling);
+
+        List<SoundClip> clips = new ArrayList<>();
+        for (int i = 0; i < albumSize; i++) {
+            clips.add(new SoundClip(new File("/bench/album/clip" + i + ".wav")));
+        }
+        deepest.addSoundClips(clips);
+        inAlbum = clips.get(albumSize / 2);
+        notInAlbum = new SoundClip(new File("/bench/album/missing.wav"));
+        extra = new SoundClip(new File("/bench/album/extra.wav"));
+    }
+
+    @Benchmark
+    public Album addThenRemoveSoundClip() {
+        deepest.addSoundClip(extra);
+        root.removeSoundClip(extra);
+        return root;
+    }
+
+    @Benchmark
+    public Album addSoundClipAlreadyThere() {
+        deepest.addSoundClip(inAlbum);
+        return deepest;
+    }
+
+    @Benchmark
+    public Album removeSoundClipNotThere() {
+        root.removeSoundClip(notInAlbum);
+        return root;
+    }
+
+    @Benchmark
+    public boolean containsSoundClip() {
+        return deepest.containsSoundClip(inAlbum);
+    }
+
+    @Benchmark
+    public boolean containsSoundClipMiss() {
+        return deepest.containsSoundClip(notInAlbum);
+    }
+
+    @Benchmark
+    public boolean containsAlbum() {
+        return root.containsAlbum(deepest);
+    }
+
+    @Benchmark
+    public boolean containsAlbumMiss() {
+        return sibling.containsAlbum(deepest);
+    }
+}
@@ -0,0 +1,122 @@
+package org.music.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.music.model.Album;
+import org.music.model.AlbumStore;
+import org.music.model.SoundClip;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to restore a saved album hierarchy of topAlbums albums with
+ * subAlbums albums each, where every sub album holds clipsPerAlbum clips of
+ * its own, from a snapshot and from a journal of the same changes. Albums are
+ * restored into a root album already holding every clip, as a scan leaves it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgs = { "-Xmx2g" })
+public class AlbumStoreBenchmark {
+
+    @Param({"100"})
+    public int topAlbums;
+
+    @Param({"99"})
+    public int subAlbums;
+
+    @Param({"100"})
+    public int clipsPerAlbum;
+
+    private static final Path LIBRARY = Path.of("/home/listener/Music");
+
+    private Path snapshotFolder;
+    private Path journalFolder;
+    private List<SoundClip> scanned; // every clip in the library
+    private Album scannedRoot; // holds the scanned clips, as the scan leaves it before restoring
+
+    @Setup(Level.Trial)
+    public void saveAlbums() throws IOException {
+        scanned = new ArrayList<>();
+        snapshotFolder = Files.createTempDirectory("album-store-snapshot");
+        journalFolder = Files.createTempDirectory("album-store-journal");
+        save(snapshotFolder, true);
+        save(journalFolder, false);
+    }
+
+    @Setup(Level.Invocation)
+    public void scanLibrary() {
+        scannedRoot = new Album("All Sound Clips");
+        scannedRoot.addSoundClips(scanned);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteAlbums() throws IOException {
+        LibraryTree.delete(snapshotFolder);
+        LibraryTree.delete(journalFolder);
+    }
+
+    @Benchmark
+    public Album restoreSnapshot() throws IOException {
+        return restore(snapshotFolder);
+    }
+
+    @Benchmark
+    public Album replayJournal() throws IOException {
+        return restore(journalFolder);
+    }
+
+    private Album restore(Path folder) throws IOException {
+        AlbumStore.open(folder, LIBRARY, scannedRoot, Integer.MAX_VALUE).close();
+        return scannedRoot;
+    }
+
+    private void save(Path folder, boolean snapshot) throws IOException {
+        Album root = new Album("All Sound Clips");
+        AlbumStore store = AlbumStore.open(folder, LIBRARY, root, Integer.MAX_VALUE);
+        int clip = 0;
+        for (int i = 0; i < topAlbums; i++) {
+            Album top = new Album("Artist " + i, root);
+            root.addChildAlbum(top);
+            store.albumAdded(top);
+            for (int j = 0; j < subAlbums; j++) {
+                Album sub = new Album("Album " + j, top);
+                top.addChildAlbum(sub);
+                store.albumAdded(sub);
+                List<SoundClip> clips = new ArrayList<>(clipsPerAlbum);
+                for (int k = 0; k < clipsPerAlbum; k++, clip++) {
+                    clips.add(new SoundClip(LIBRARY.resolve("Artist " + i + "/Album " + j
+                            + "/Track " + clip + ".wav").toFile()));
+                }
+                sub.addSoundClips(clips);
+                store.soundClipsAdded(sub, clips);
+                if (snapshot) {
+                    scanned.addAll(clips);
+                }
+            }
+        }
+        if (snapshot) {
+            store.snapshot();
+        }
+        store.close();
+    }
+}
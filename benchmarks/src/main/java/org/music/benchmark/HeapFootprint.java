@@ -0,0 +1,53 @@
+package org.music.benchmark;
+
+import java.io.File;
+
+import org.music.model.SoundClip;
+
+/**
+ * Measures the heap retained by sound clips for a generated library, to see
+ * what a clip costs in memory. Run with a fixed heap, for example
+ * <pre>
+ * java -Xms2g -Xmx2g -cp benchmarks.jar org.music.benchmark.HeapFootprint 1000000
+ * </pre>
+ * The library has 20 clips per album folder and 10 albums per artist folder,
+ * below a folder like a user's music folder.
+ */
+public final class HeapFootprint {
+
+    private HeapFootprint() {
+    }
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        SoundClip[] clips = new SoundClip[count];
+
+        long before = usedHeap();
+        for (int i = 0; i < count; i++) {
+            String path = "/home/listener/Music/Library/Artist " + (i / 200) + "/Album " + (i / 20 % 10)
+                    + "/" + String.format("%02d", i % 20 + 1) + " - Track title " + i + ".wav";
+            clips[i] = new SoundClip(new File(path));
+        }
+        long after = usedHeap();
+
+        long retained = after - before;
+        System.out.printf("%d clips retain %.1f MB, %.1f bytes per clip%n", count, retained / 1e6,
+                (double) retained / count);
+        System.out.println("Sample: " + clips[count / 2].getFile()); // keeps the clips reachable
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        // Collect until the used heap stops shrinking
+        for (int i = 0; i < 10; i++) {
+            System.gc();
+            long now = runtime.totalMemory() - runtime.freeMemory();
+            if (now >= used) {
+                break;
+            }
+            used = now;
+        }
+        return used;
+    }
+}
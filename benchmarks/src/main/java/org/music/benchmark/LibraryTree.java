@@ -0,0 +1,80 @@
+package org.music.benchmark;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+
+/**
+ * Generates a library folder tree of empty files for benchmarks.
+ */
+public final class LibraryTree {
+
+    private LibraryTree() {
+    }
+
+    /**
+     * Creates a tree below root where every folder down to depth has fanOut sub
+     * folders, and every folder holds wavFiles .wav files and otherFiles files of
+     * other types.
+     *
+     * @return the number of .wav files created.
+     */
+    public static int generate(Path root, int depth, int fanOut, int wavFiles, int otherFiles) throws IOException {
+        Files.createDirectories(root);
+        int created = 0;
+        for (int i = 0; i < wavFiles; i++) {
+            Files.createFile(root.resolve("clip" + i + ".wav"));
+            created++;
+        }
+        for (int i = 0; i < otherFiles; i++) {
+            Files.createFile(root.resolve("cover" + i + ".jpg"));
+        }
+        if (depth > 0) {
+            for (int i = 0; i < fanOut; i++) {
+                created += generate(root.resolve("folder" + i), depth - 1, fanOut, wavFiles, otherFiles);
+            }
+        }
+        return created;
+    }
+
+    /**
+     * Sets the modification time of every folder below root to an hour ago, so
+     * that a ScanCache trusts them.
+     */
+    public static void age(Path root) throws IOException {
+        FileTime hourAgo = FileTime.fromMillis(System.currentTimeMillis() - 3_600_000);
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                Files.setLastModifiedTime(dir, hourAgo);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Deletes root and everything below it.
+     */
+    public static void delete(Path root) throws IOException {
+        if (!Files.exists(root)) {
+            return;
+        }
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
@@ -0,0 +1,104 @@
+package org.music.benchmark;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.music.model.AudioMetadata;
+import org.music.model.SoundClip;
+import org.music.model.WavHeaderParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javafx.scene.media.Media;
+
+/**
+ * Per file cost of finding out the format of a WAV file: parsing its header,
+ * asking a SoundClip whose metadata is already loaded, and creating a JavaFX
+ * Media object, which is what the player had to do before. Each operation
+ * handles one file, cycling through seconds long clips of 16 bit stereo.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MetadataBenchmark {
+
+    @Param({"100"})
+    public int files;
+
+    @Param({"5"})
+    public int seconds;
+
+    private Path folder;
+    private Path[] paths;
+    private SoundClip[] loaded;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void createFiles() throws IOException {
+        folder = Files.createTempDirectory("metadata-benchmark");
+        paths = new Path[files];
+        loaded = new SoundClip[files];
+        for (int i = 0; i < files; i++) {
+            paths[i] = writeWav(folder.resolve("clip" + i + ".wav"), 44100 * 4 * seconds);
+            loaded[i] = new SoundClip(paths[i].toFile());
+            loaded[i].getMetadata();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFiles() throws IOException {
+        LibraryTree.delete(folder);
+    }
+
+    @Benchmark
+    public AudioMetadata parser() throws IOException {
+        return WavHeaderParser.parse(paths[nextIndex()]);
+    }
+
+    @Benchmark
+    public AudioMetadata cached() {
+        return loaded[nextIndex()].getMetadata();
+    }
+
+    @Benchmark
+    public Media media() {
+        return new Media(paths[nextIndex()].toUri().toString());
+    }
+
+    private int nextIndex() {
+        int i = next;
+        next = i + 1 == files ? 0 : i + 1;
+        return i;
+    }
+
+    // Writes a 44.1 kHz 16 bit stereo WAV file with dataLength bytes of silence.
+    private static Path writeWav(Path file, int dataLength) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(44).order(ByteOrder.LITTLE_ENDIAN);
+        header.put("RIFF".getBytes()).putInt(36 + dataLength).put("WAVE".getBytes());
+        header.put("fmt ".getBytes()).putInt(16).putShort((short) 1).putShort((short) 2).putInt(44100)
+                .putInt(44100 * 4).putShort((short) 4).putShort((short) 16);
+        header.put("data".getBytes()).putInt(dataLength);
+
+        byte[] bytes = new byte[44 + dataLength];
+        System.arraycopy(header.array(), 0, bytes, 0, 44);
+        return Files.write(file, bytes);
+    }
+}
@@ -0,0 +1,75 @@
+package org.music.benchmark;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.music.model.PcmCache;
+import org.music.model.SoundClipMixer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Mixing one block of SoundClipMixer.DEFAULT_BLOCK_FRAMES frames of 16 bit
+ * stereo with a number of voices playing, rendered to a buffer on the
+ * benchmark thread. A block is about 5.8 ms of audio at 44.1 kHz, so at a
+ * score of s blocks per ms, one core keeps up with voices * s * 5.8 voices.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MixerBenchmark {
+
+    private static final int CLIP_SECONDS = 10;
+
+    @Param({"1", "16", "64"})
+    public int voices;
+
+    private SoundClipMixer mixer;
+    private ByteBuffer[] clips;
+    private byte[] out;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void createMixer() {
+        PcmCache cache = new PcmCache();
+        mixer = new SoundClipMixer(cache, SoundClipMixer.DEFAULT_BLOCK_FRAMES, voices);
+        out = new byte[SoundClipMixer.DEFAULT_BLOCK_FRAMES * cache.getFormat().getFrameSize()];
+
+        // A few clips of noise, started at different times so that they don't all end at once
+        Random random = new Random(42);
+        clips = new ByteBuffer[8];
+        for (int i = 0; i < clips.length; i++) {
+            byte[] noise = new byte[CLIP_SECONDS * 44100 * cache.getFormat().getFrameSize()];
+            random.nextBytes(noise);
+            clips[i] = ByteBuffer.allocateDirect(noise.length).put(noise).flip();
+        }
+        byte[] skip = new byte[7 * out.length];
+        for (int i = 0; i < voices; i++) {
+            mixer.play(clips[next++ % clips.length], 0.5f);
+            mixer.render(skip, 0, 7 * SoundClipMixer.DEFAULT_BLOCK_FRAMES);
+        }
+    }
+
+    @Benchmark
+    public byte[] mixBlock() {
+        if (mixer.getVoiceCount() < voices) {
+            mixer.play(clips[next++ % clips.length], 0.5f);
+        }
+        mixer.render(out, 0, SoundClipMixer.DEFAULT_BLOCK_FRAMES);
+        return out;
+    }
+}
@@ -0,0 +1,112 @@
+package org.music.benchmark;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.music.model.SoundClip;
+import org.music.model.SoundClipBlockingQueue;
+import org.music.model.SoundClipHandoffQueue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of handing batches of clips from several producer threads to the
+ * one thread that plays them, through the old SoundClipBlockingQueue and
+ * through SoundClipHandoffQueue. A consumer thread takes batches for as long
+ * as the benchmark runs, one at a time from the old queue and all waiting ones
+ * at once from the new one. At most MAX_IN_FLIGHT batches may be waiting at a
+ * time, so the old queue can't grow without bounds when the producers are
+ * faster than the consumer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@SuppressWarnings("deprecation")
+public class QueueBenchmark {
+
+    private static final int MAX_IN_FLIGHT = 1024;
+
+    @Param({"blocking", "handoff"})
+    public String queueType;
+
+    private final List<SoundClip> batch = List.of(new SoundClip(new File("/bench/queue/clip.wav")));
+    private final Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+    private SoundClipBlockingQueue blockingQueue;
+    private SoundClipHandoffQueue handoffQueue;
+    private Thread consumer;
+
+    @Setup(Level.Trial)
+    public void startConsumer() {
+        if (queueType.equals("blocking")) {
+            blockingQueue = new SoundClipBlockingQueue();
+        } else {
+            handoffQueue = new SoundClipHandoffQueue(MAX_IN_FLIGHT, SoundClipHandoffQueue.BackpressurePolicy.BLOCK);
+        }
+        consumer = new Thread(() -> {
+            try {
+                while (true) {
+                    if (blockingQueue != null) {
+                        blockingQueue.dequeue();
+                        inFlight.release();
+                    } else {
+                        inFlight.release(handoffQueue.drain().size());
+                    }
+                }
+            } catch (InterruptedException e) {
+                // Benchmark finished
+            }
+        }, "consumer");
+        consumer.setDaemon(true);
+        consumer.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void stopConsumer() throws InterruptedException {
+        consumer.interrupt();
+        consumer.join();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void oneProducer() throws InterruptedException {
+        enqueue();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void fourProducers() throws InterruptedException {
+        enqueue();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void sixteenProducers() throws InterruptedException {
+        enqueue();
+    }
+
+    private void enqueue() throws InterruptedException {
+        inFlight.acquire();
+        if (blockingQueue != null) {
+            blockingQueue.enqueue(batch);
+        } else {
+            handoffQueue.put(batch);
+        }
+    }
+}
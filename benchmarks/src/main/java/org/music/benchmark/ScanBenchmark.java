@@ -0,0 +1,90 @@
+package org.music.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.music.model.ScanCache;
+import org.music.model.SoundClip;
+import org.music.model.SoundClipLoader;
+import org.music.model.SoundClipScanner;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares SoundClipLoader with SoundClipScanner on a generated library of
+ * fanOut^depth leaf folders, and a rescan of the unchanged library with a
+ * ScanCache. This measures a warm page cache; cold scans on network storage
+ * benefit more from parallelism.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScanBenchmark {
+
+    @Param({"4"})
+    public int depth;
+
+    @Param({"6"})
+    public int fanOut;
+
+    @Param({"20"})
+    public int wavFiles;
+
+    @Param({"1", "4", "8"})
+    public int parallelism;
+
+    private Path library;
+    private SoundClipScanner scanner;
+    private ScanCache cache;
+
+    @Setup(Level.Trial)
+    public void createLibrary() throws IOException {
+        library = Files.createTempDirectory("scan-benchmark");
+        LibraryTree.generate(library, depth, fanOut, wavFiles, 2);
+        LibraryTree.age(library);
+        scanner = new SoundClipScanner(parallelism);
+
+        cache = ScanCache.empty(library.toString());
+        scannerWithCache();
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteLibrary() throws IOException {
+        LibraryTree.delete(library);
+    }
+
+    @Benchmark
+    public Set<SoundClip> loader() {
+        return SoundClipLoader.loadSoundClips(library.toString());
+    }
+
+    @Benchmark
+    public Set<SoundClip> scanner() {
+        return scanner.scan(library.toString());
+    }
+
+    @Benchmark
+    public Set<SoundClip> scannerWithCache() {
+        Set<SoundClip> set = new HashSet<>();
+        scanner.scan(library.toString(), SoundClipScanner.DEFAULT_BATCH_SIZE, set::addAll, cache);
+        return set;
+    }
+}
@@ -0,0 +1,82 @@
+package org.music.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.music.model.Album;
+import org.music.model.SearchIndex;
+import org.music.model.SoundClip;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Query latency of a SearchIndex over a library of clipCount clips, spread
+ * over folders named after genres and artists. firstPage takes the first
+ * screenful of results, as the search field does while typing, and allMatches
+ * counts every match. The size of the index and the time to build it, one
+ * scanner batch at a time, are printed when the library is set up.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgs = { "-Xmx3g" })
+public class SearchBenchmark {
+
+    private static final String[] GENRES = { "Techno", "House", "Ambient", "Drum and Bass", "Hip Hop", "Jazz",
+            "Rock", "Orchestral", "Foley", "Vocals" };
+    private static final String[] WORDS = { "kick", "snare", "hihat", "clap", "bass", "pad", "lead", "pluck",
+            "loop", "fill", "riser", "impact", "vocal", "chord", "stab", "sweep", "crash", "ride", "tom", "perc" };
+
+    @Param({"1000000"})
+    public int clipCount;
+
+    @Param({"kick", "dr", "bass loop", "techno kick 12", "zzz"})
+    public String query;
+
+    private SearchIndex index;
+
+    @Setup(Level.Trial)
+    public void buildIndex() {
+        Album root = new Album("All Sound Clips");
+        index = new SearchIndex(root);
+
+        long start = System.nanoTime();
+        List<SoundClip> batch = new ArrayList<>();
+        for (int i = 0; i < clipCount; i++) {
+            String folder = "/bench/search/" + GENRES[i % GENRES.length] + "/Artist " + (i / 1000);
+            String name = WORDS[i % WORDS.length] + " " + WORDS[(i / 7) % WORDS.length] + " " + (i % 1000) + ".wav";
+            batch.add(new SoundClip(new File(folder, name)));
+            if (batch.size() == 1000) {
+                root.addSoundClips(batch);
+                batch = new ArrayList<>();
+            }
+        }
+        root.addSoundClips(batch);
+        System.out.printf("%nIndexed %d clips in %d ms, about %d bytes per clip%n", index.size(),
+                (System.nanoTime() - start) / 1_000_000, index.estimatedBytes() / Math.max(1, index.size()));
+    }
+
+    @Benchmark
+    public List<SoundClip> firstPage() {
+        return index.search(query, null, 100);
+    }
+
+    @Benchmark
+    public int allMatches() {
+        return index.search(query, null, SearchIndex.DEFAULT_BATCH_SIZE, soundClips -> true);
+    }
+}
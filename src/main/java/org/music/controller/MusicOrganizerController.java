@@ -1,48 +1,315 @@
 package org.music.controller;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.sound.sampled.LineUnavailableException;
+
+import org.music.metrics.Histogram;
+import org.music.metrics.Log;
+import org.music.metrics.Metrics;
+import org.music.metrics.MetricsSnapshot;
 
 import org.music.model.Album;
+import org.music.model.AlbumRegistry;
+import org.music.model.AlbumStore;
+import org.music.model.DuplicateFinder;
+import org.music.model.DuplicateIndex;
+import org.music.model.LibraryWatcher;
+import org.music.model.LineAudioSink;
+import org.music.model.PcmCache;
+import org.music.model.ScanCache;
+import org.music.model.ScanListener;
+import org.music.model.SearchIndex;
 import org.music.model.SoundClip;
-import org.music.model.SoundClipBlockingQueue;
-import org.music.model.SoundClipLoader;
+import org.music.model.SoundClipHandoffQueue;
+import org.music.model.SoundClipMixer;
 import org.music.model.SoundClipPlayer;
+import org.music.model.SoundClipScanner;
+import org.music.model.TriggerPlayer;
 import org.music.view.AlbumWindow;
 import org.music.view.MusicOrganizerWindow;
 
 public class MusicOrganizerController {
 
+    // Where the scanner remembers the library between runs
+    private static final Path SCAN_CACHE_FILE =
+            Paths.get(System.getProperty("user.home"), ".music-organizer", "scan-cache.bin");
+
+    // Where albums are saved between runs
+    private static final Path ALBUM_STORE_FOLDER = Paths.get(System.getProperty("user.home"), ".music-organizer");
+
+    // The histograms of the time spent in each stage of playing a clip, in order
+    private static final String[] LATENCY_HISTOGRAMS = { "playback.queued", "playback.opened", "playback.ready",
+            "playback.started", "playback.gap", "trigger.latency", "trigger.missLatency" };
+
     private MusicOrganizerWindow view;
-    private SoundClipBlockingQueue queue;
+    private SoundClipHandoffQueue queue;
+    private SoundClipPlayer player;
+    private PcmCache pcmCache;
+    private volatile TriggerPlayer triggerPlayer; // null unless in trigger mode
+    private volatile SoundClipMixer mixer; // null unless in mix mode
+    private SoundClipScanner scanner;
+    private LibraryWatcher watcher;
+    private volatile AlbumStore albumStore; // null if albums can't be saved, or until they are restored
+    private volatile boolean albumsRestored; // albums can't be changed before they are restored
+    private volatile SearchIndex searchIndex; // null until the library folder is known
+    private DuplicateFinder duplicateFinder;
+    private volatile DuplicateIndex duplicateIndex; // null until the library has been checked
+    private ExecutorService searchExecutor;
     private Album root;
+    private boolean shutDown; // guarded by this, nothing is started once it is set
 
     public MusicOrganizerController() {
         // Create the root album for all sound clips
         root = new Album("All Sound Clips");
+        Metrics.gauge("library.clips", root::getSoundClipCount);
+        Metrics.gauge("library.albums", () -> root.getRegistry().getAlbumCount());
 
-        // Create the blocking queue
-        queue = new SoundClipBlockingQueue();
+        // The clips of the root album are indexed for searching once the library is loaded
+        Metrics.gauge("search.indexBytes", () -> {
+            SearchIndex index = searchIndex;
+            return index == null ? 0 : index.estimatedBytes();
+        });
+        searchExecutor = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "search");
+            thread.setDaemon(true);
+            return thread;
+        });
 
-        // Create a separate thread for the sound clip player and start it
-        (new Thread(new SoundClipPlayer(queue))).start();
+        // Create the scanner used to find sound clips on disk, and the finder
+        // that looks for copies among them once they are found
+        scanner = new SoundClipScanner();
+        duplicateFinder = new DuplicateFinder();
+
+        // Create the queue to the player. The FX thread must never wait on it, so
+        // when it is full, the oldest waiting clips make way for the newest
+        queue = new SoundClipHandoffQueue(SoundClipHandoffQueue.DEFAULT_CAPACITY,
+                SoundClipHandoffQueue.BackpressurePolicy.DROP_OLDEST);
+
+        // Create the sound clip player and start its thread
+        player = new SoundClipPlayer(queue);
+        player.start();
+
+        // Keep the decoded audio of the clips played in trigger mode
+        pcmCache = new PcmCache();
+        Metrics.gauge("pcm.bytes", pcmCache::getBytes);
     }
 
     /**
      * Load the sound clips found in all subfolders of a path on disk. If path is not
-     * an actual folder on disk, has no effect.
+     * an actual folder on disk, has no effect. Saved albums are not restored, so
+     * albums can be changed right away.
      */
     public Set<SoundClip> loadSoundClips(String path) {
-        Set<SoundClip> clips = SoundClipLoader.loadSoundClips(path);
+        indexLibrary(path);
+        Set<SoundClip> clips = scanner.scan(path);
 
         // Add the loaded sound clips to the root album
-        for (SoundClip clip : clips) {
-            root.addSoundClip(clip);
-        }
+        root.addSoundClips(clips);
+        albumsRestored = true;
 
         return clips;
     }
 
+    /**
+     * Load the sound clips found in all subfolders of a path on disk on a background
+     * thread. Clips are added to the root album in batches as they are found, and the
+     * view is told about the progress. Folders that haven't changed since the last
+     * run are taken from the scan cache. Once the scan is done, the albums saved for
+     * the library by the last run are restored, the folder is watched, and changes
+     * to it, including those made during the scan, are applied to the root album. Then the clips are checked for
+     * duplicates in the background. If path is not an actual folder on disk, no
+     * clips are added.
+     *
+     * @return a future that completes when the scan is finished.
+     */
+    public CompletableFuture<Void> loadSoundClipsInBackground(String path) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+
+        indexLibrary(path);
+
+        ScanListener listener = new ScanListener() {
+            private int found = 0;
+
+            @Override
+            public void onSoundClipsFound(List<SoundClip> soundClips) {
+                root.addSoundClips(soundClips);
+                found += soundClips.size();
+                if (view != null) {
+                    view.onScanProgress(found);
+                }
+            }
+
+            @Override
+            public void onScanFinished(int soundClipCount, int folderCount) {
+                if (view != null) {
+                    view.onScanFinished(soundClipCount, folderCount);
+                }
+            }
+        };
+
+        Thread thread = new Thread(() -> {
+            try {
+                MetricsSnapshot before = Metrics.snapshot();
+                ScanCache cache = ScanCache.load(SCAN_CACHE_FILE, path);
+                scanner.scan(path, SoundClipScanner.DEFAULT_BATCH_SIZE, listener, cache);
+                MetricsSnapshot after = Metrics.snapshot();
+                Log.info("Scanned %d clips, %.0f per second, listing %d folders and reusing %d",
+                        after.get("scanner.files") - before.get("scanner.files"),
+                        after.ratePerSecond("scanner.files", before),
+                        after.get("scanner.foldersListed") - before.get("scanner.foldersListed"),
+                        after.get("scanner.foldersCached") - before.get("scanner.foldersCached"));
+                if (Files.isDirectory(Paths.get(path))) {
+                    saveScanCache(cache);
+                    restoreAlbums(Paths.get(path));
+                    watchLibrary(Paths.get(path));
+                    findDuplicates();
+                }
+                done.complete(null);
+            } catch (RuntimeException e) {
+                done.completeExceptionally(e);
+            } finally {
+                albumsRestored = true;
+            }
+        }, "sound-clip-scanner");
+        thread.setDaemon(true);
+        thread.start();
+        return done;
+    }
+
+    // Indexes the clips of the root album for searching, following changes to it.
+    // Only the folders below the library at path are worth searching by name.
+    private synchronized void indexLibrary(String path) {
+        if (shutDown) {
+            return;
+        }
+        SearchIndex previous = searchIndex;
+        searchIndex = new SearchIndex(root, new File(path));
+        if (previous != null) {
+            previous.close();
+        }
+    }
+
+    // Restores the albums saved for the library at path. Runs once the scan has put
+    // the clips of the library in the root album, so that clips deleted since the
+    // last run are dropped from the albums.
+    private synchronized void restoreAlbums(Path path) {
+        if (albumsRestored || shutDown) {
+            return;
+        }
+        try {
+            albumStore = AlbumStore.open(AlbumStore.folderFor(ALBUM_STORE_FOLDER, path), path, root,
+                    AlbumStore.DEFAULT_SNAPSHOT_INTERVAL);
+        } catch (IOException e) {
+            // Not fatal, albums just won't be saved this time
+            Log.error(e, "Could not restore albums");
+        }
+    }
+
+    private synchronized void watchLibrary(Path path) {
+        if (shutDown) {
+            return;
+        }
+        try {
+            if (watcher != null) {
+                watcher.close();
+            }
+            watcher = new LibraryWatcher(path, root, LibraryWatcher.DEFAULT_DEBOUNCE_MILLIS, (added, removed) -> {
+                if (view != null) {
+                    view.onLibraryChanged(added.size(), removed.size());
+                }
+            });
+            watcher.start();
+        } catch (IOException e) {
+            // Not fatal, the library just won't follow changes on disk
+            Log.warn("Could not watch %s: %s", path, e.getMessage());
+        }
+    }
+
+    // Looks for clips with identical files among those of the library. The files
+    // are only read on the finder's threads, so nothing waits for it.
+    private synchronized void findDuplicates() {
+        if (shutDown) {
+            return;
+        }
+        duplicateFinder.findInBackground(root.getSoundClips()).whenComplete((index, e) -> {
+            if (e != null) {
+                Log.error(e, "Could not look for duplicate sound clips");
+                return;
+            }
+            duplicateIndex = index;
+            Log.info("Found %d redundant copies among %d sound clips, reading %d files in full",
+                    index.getRedundantCount(), index.getCheckedCount(), index.getFullyReadCount());
+        });
+    }
+
+    private void saveScanCache(ScanCache cache) {
+        try {
+            cache.save(SCAN_CACHE_FILE);
+        } catch (IOException e) {
+            // Not fatal, the next start just scans everything again
+            Log.warn("Could not save scan cache: %s", e.getMessage());
+        }
+    }
+
+    /**
+     * Writes the albums to disk and stops watching the library. Call before exiting.
+     * A scan still running goes on, but the albums are no longer restored and the
+     * library is no longer watched once it is done.
+     */
+    public synchronized void shutdown() {
+        shutDown = true;
+        player.stop();
+        setTriggerMode(false);
+        setMixMode(false);
+        searchExecutor.shutdownNow();
+        if (searchIndex != null) {
+            searchIndex.close();
+        }
+        duplicateFinder.close();
+        try {
+            if (watcher != null) {
+                watcher.close();
+            }
+            if (albumStore != null) {
+                albumStore.close();
+            }
+        } catch (IOException e) {
+            Log.warn("Could not shut down cleanly: %s", e.getMessage());
+        }
+
+        Log.info("Playback latency this run:%n%s", getLatencyReport());
+        try {
+            Log.flush(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return the percentiles of the time spent in each stage of playing a
+     * sound clip so far, in ms, one stage to a line.
+     */
+    public String getLatencyReport() {
+        StringBuilder report = new StringBuilder();
+        for (String name : LATENCY_HISTOGRAMS) {
+            Histogram histogram = Metrics.histogram(name);
+            report.append(String.format("%-19s %7d clips  p50 %9.2f  p90 %9.2f  p99 %9.2f  max %9.2f%n", name,
+                    histogram.getCount(), histogram.getPercentile(50) / 1e6, histogram.getPercentile(90) / 1e6,
+                    histogram.getPercentile(99) / 1e6, histogram.getMax() / 1e6));
+        }
+        return report.toString();
+    }
+
     public void registerView(MusicOrganizerWindow view) {
         this.view = view;
     }
@@ -54,10 +321,45 @@ public class MusicOrganizerController {
         return root;
     }
 
+    /**
+     * @return the groups of clips with identical files found once the library was
+     * scanned, or null if the check hasn't finished yet.
+     */
+    public DuplicateIndex getDuplicateIndex() {
+        return duplicateIndex;
+    }
+
+    /**
+     * Returns the album with the given path, e.g. "All Sound Clips/Music/Classical",
+     * or null if there is no such album
+     */
+    public Album findAlbum(String path) {
+        return root.getRegistry().findAlbum(path);
+    }
+
+    /**
+     * Searches the clips of scope for query on a background thread, passing the
+     * results to listener in batches as they are found. Searches run one at a
+     * time in the order they were asked for, so a listener that stops a search it
+     * no longer needs lets the next one start right away. Nothing is found before
+     * a library has been loaded.
+     */
+    public void searchInBackground(String query, Album scope, SearchIndex.Listener listener) {
+        searchExecutor.execute(() -> {
+            SearchIndex index = searchIndex;
+            if (index != null) {
+                index.search(query, scope, SearchIndex.DEFAULT_BATCH_SIZE, listener);
+            }
+        });
+    }
+
     /**
      * Adds an album to the Music Organizer
      */
     public void addNewAlbum() {
+        if (!albumsRestored()) {
+            return;
+        }
         Album selectedAlbum = view.getSelectedAlbum();
         if (selectedAlbum == null) {
             view.displayMessage("Please select an album");
@@ -70,8 +372,21 @@ public class MusicOrganizerController {
             return;
         }
 
+        if (albumName.contains(AlbumRegistry.PATH_SEPARATOR)) {
+            view.displayMessage("Album name cannot contain " + AlbumRegistry.PATH_SEPARATOR);
+            return;
+        }
+
+        if (selectedAlbum.getChildAlbum(albumName) != null) {
+            view.displayMessage("Album " + selectedAlbum.getName() + " already contains an album named " + albumName);
+            return;
+        }
+
         Album newAlbum = new Album(albumName, selectedAlbum);
         selectedAlbum.addChildAlbum(newAlbum);
+        if (albumStore != null) {
+            albumStore.albumAdded(newAlbum);
+        }
 
         view.onAlbumAdded(newAlbum);
         view.displayMessage("Album " + albumName + " added");
@@ -81,6 +396,9 @@ public class MusicOrganizerController {
      * Removes an album from the Music Organizer
      */
     public void deleteAlbum() {
+        if (!albumsRestored()) {
+            return;
+        }
         Album selectedAlbum = view.getSelectedAlbum();
         if (selectedAlbum == null) {
             view.displayMessage("Please select an album");
@@ -94,6 +412,9 @@ public class MusicOrganizerController {
 
         Album parent = selectedAlbum.getParentAlbum();
         parent.removeChildAlbum(selectedAlbum);
+        if (albumStore != null) {
+            albumStore.albumRemoved(selectedAlbum);
+        }
 
         view.onAlbumRemoved();
         view.displayMessage("Album " + selectedAlbum.getName() + " removed");
@@ -103,6 +424,9 @@ public class MusicOrganizerController {
      * Adds sound clips to an album
      */
     public void addSoundClips() {
+        if (!albumsRestored()) {
+            return;
+        }
         Album selectedAlbum = view.getSelectedAlbum();
         if (selectedAlbum == null) {
             view.displayMessage("Select an album");
@@ -115,8 +439,9 @@ public class MusicOrganizerController {
             return;
         }
 
-        for (SoundClip clip : selectedClips) {
-            selectedAlbum.addSoundClip(clip);
+        selectedAlbum.addSoundClips(selectedClips);
+        if (albumStore != null) {
+            albumStore.soundClipsAdded(selectedAlbum, selectedClips);
         }
 
         view.onClipsUpdated();
@@ -127,6 +452,9 @@ public class MusicOrganizerController {
      * Removes sound clips from an album
      */
     public void removeSoundClips() {
+        if (!albumsRestored()) {
+            return;
+        }
         Album selectedAlbum = view.getSelectedAlbum();
         if (selectedAlbum == null) {
             view.displayMessage("Select an album");
@@ -139,16 +467,24 @@ public class MusicOrganizerController {
             return;
         }
 
-        for (SoundClip clip : selectedClips) {
-            if (selectedAlbum.containsSoundClip(clip)) {
-                selectedAlbum.removeSoundClip(clip);
-            }
+        selectedAlbum.removeSoundClips(selectedClips);
+        if (albumStore != null) {
+            albumStore.soundClipsRemoved(selectedAlbum, selectedClips);
         }
 
         view.onClipsUpdated();
         view.displayMessage("Removed sound clip(s) from album " + selectedAlbum.getName());
     }
 
+    // Changes made to the albums before the saved ones are restored would be lost,
+    // so they are turned down until then.
+    private boolean albumsRestored() {
+        if (!albumsRestored) {
+            view.displayMessage("Albums are still being restored, please wait");
+        }
+        return albumsRestored;
+    }
+
     /**
      * Puts the selected sound clips on the queue and lets
      * the sound clip player thread play them. Essentially, when
@@ -167,8 +503,35 @@ public class MusicOrganizerController {
         if (soundClips.isEmpty()) {
             return;
         }
-        
-        queue.enqueue(soundClips);
+
+        // In trigger mode, play the first clip right away instead
+        TriggerPlayer trigger = triggerPlayer;
+        if (trigger != null) {
+            trigger.trigger(soundClips.get(0));
+            if (view != null) {
+                view.displayMessage("Playing " + soundClips.get(0));
+            }
+            return;
+        }
+
+        // In mix mode, play all the clips at once, over the ones playing. Clips
+        // that aren't in the cache are decoded off the FX thread
+        SoundClipMixer mix = mixer;
+        if (mix != null) {
+            CompletableFuture.runAsync(() -> {
+                for (SoundClip soundClip : soundClips) {
+                    try {
+                        if (mix.play(soundClip, 1f) == null) {
+                            Log.warn("Too many sound clips playing, skipped %s", soundClip.getFile());
+                        }
+                    } catch (IOException e) {
+                        Log.error(e, "Could not decode %s", soundClip.getFile());
+                    }
+                }
+            });
+        } else {
+            queue.offer(soundClips);
+        }
 
         for (SoundClip soundClip : soundClips) {
             if (view != null) {
@@ -177,6 +540,111 @@ public class MusicOrganizerController {
         }
     }
     
+    /**
+     * Pauses the sound clip being played, or continues playing it if paused.
+     *
+     * @return true if the player is now paused.
+     */
+    public boolean togglePause() {
+        if (player.getState() == SoundClipPlayer.State.PAUSED) {
+            player.resume();
+            return false;
+        }
+        player.pause();
+        return true;
+    }
+
+    /**
+     * Skips to the next sound clip waiting to be played.
+     */
+    public void skipSoundClip() {
+        player.skip();
+    }
+
+    /**
+     * Stops playing and forgets the sound clips waiting to be played.
+     */
+    public void clearPlaylist() {
+        player.clear();
+        view.displayMessage("Stopped playing");
+    }
+
+    /**
+     * Turns gapless play back on or off. When on, the next sound clips are
+     * opened while the current one plays, and start as soon as it ends.
+     */
+    public void setGapless(boolean gapless) {
+        player.setGapMillis(gapless ? 0 : SoundClipPlayer.DEFAULT_GAP_MILLIS);
+        player.setPreloadCount(gapless ? SoundClipPlayer.MAX_PRELOAD_COUNT : 0);
+    }
+
+    /**
+     * Turns trigger mode on or off. In trigger mode, playing a sound clip plays
+     * it at once through a line kept open for it, cutting off the one playing,
+     * instead of queueing it.
+     *
+     * @return true if the mode is now as asked, false if there is no sound card to play on.
+     */
+    public synchronized boolean setTriggerMode(boolean on) {
+        if (on == (triggerPlayer != null)) {
+            return true;
+        }
+        if (!on) {
+            try {
+                triggerPlayer.close();
+            } catch (IOException e) {
+                Log.warn("Could not close the trigger line: %s", e.getMessage());
+            }
+            triggerPlayer = null;
+            return true;
+        }
+        try {
+            TriggerPlayer trigger = new TriggerPlayer(pcmCache, new LineAudioSink(pcmCache.getFormat()));
+            trigger.start();
+            triggerPlayer = trigger;
+            return true;
+        } catch (LineUnavailableException e) {
+            Log.error(e, "Could not open a line for trigger mode");
+            if (view != null) {
+                view.displayMessage("No sound card for trigger mode");
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Turns mix mode on or off. In mix mode, sound clips played from any window
+     * play at once, mixed together, instead of one after the other.
+     *
+     * @return true if the mode is now as asked, false if there is no sound card to play on.
+     */
+    public synchronized boolean setMixMode(boolean on) {
+        if (on == (mixer != null)) {
+            return true;
+        }
+        if (!on) {
+            try {
+                mixer.close();
+            } catch (IOException e) {
+                Log.warn("Could not close the mixer line: %s", e.getMessage());
+            }
+            mixer = null;
+            return true;
+        }
+        try {
+            SoundClipMixer mix = new SoundClipMixer(pcmCache);
+            mix.start(new LineAudioSink(pcmCache.getFormat()));
+            mixer = mix;
+            return true;
+        } catch (LineUnavailableException e) {
+            Log.error(e, "Could not open a line for mix mode");
+            if (view != null) {
+                view.displayMessage("No sound card for mix mode");
+            }
+            return false;
+        }
+    }
+
     /**
      * Opens a new window for the selected album.
      */
@@ -0,0 +1,318 @@
+package org.music.metrics;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Log writes messages on a background thread, so that the thread logging never
+ * waits for the console. Messages below the current level are dropped before
+ * anything is formatted or allocated, so a disabled message with up to three
+ * arguments only costs a level check.
+ * Messages use String.format syntax, and are formatted on the log thread.
+ * <p>
+ * If messages arrive faster than they can be written, and the queue fills up,
+ * new messages are dropped and counted as "log.dropped" rather than slowing
+ * down the program.
+ */
+public final class Log {
+
+    public enum Level {
+        ERROR, WARN, INFO, DEBUG
+    }
+
+    /**
+     * Where log messages end up. Only called from the log thread.
+     */
+    public interface Sink {
+        void write(Level level, String message, Throwable thrown);
+    }
+
+    /**
+     * Writes messages to standard error.
+     */
+    public static final Sink CONSOLE = (level, message, thrown) -> {
+        System.err.println("[" + level + "] " + message);
+        if (thrown != null) {
+            thrown.printStackTrace();
+        }
+    };
+
+    private static final int QUEUE_CAPACITY = 8192;
+    private static final Object[] NO_ARGS = new Object[0];
+
+    private static final BlockingQueue<Entry> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private static final Counter dropped = Metrics.counter("log.dropped");
+
+    private static volatile Level level = Level.INFO;
+    private static volatile Sink sink = CONSOLE;
+    private static Thread thread; // started by the first message
+
+    private Log() {
+    }
+
+    public static Level getLevel() {
+        return level;
+    }
+
+    /**
+     * Only messages at level or more severe are written from now on.
+     */
+    public static void setLevel(Level level) {
+        Log.level = level;
+    }
+
+    public static void setSink(Sink sink) {
+        Log.sink = sink;
+    }
+
+    /**
+     * @return true if messages at level are written. Check this before logging
+     * in a loop if working out the arguments costs something.
+     */
+    public static boolean isEnabled(Level level) {
+        return level.compareTo(Log.level) <= 0;
+    }
+
+    // The methods below with up to three arguments check the level before making
+    // an argument array, so a disabled message allocates nothing unless a caller
+    // boxes a primitive argument. Check isEnabled first where that matters.
+
+    public static void error(String format) {
+        if (isEnabled(Level.ERROR)) {
+            enqueue(new Entry(Level.ERROR, null, format, NO_ARGS));
+        }
+    }
+
+    public static void error(String format, Object arg) {
+        if (isEnabled(Level.ERROR)) {
+            enqueue(new Entry(Level.ERROR, null, format, new Object[] { arg }));
+        }
+    }
+
+    public static void error(String format, Object arg1, Object arg2) {
+        if (isEnabled(Level.ERROR)) {
+            enqueue(new Entry(Level.ERROR, null, format, new Object[] { arg1, arg2 }));
+        }
+    }
+
+    public static void error(String format, Object arg1, Object arg2, Object arg3) {
+        if (isEnabled(Level.ERROR)) {
+            enqueue(new Entry(Level.ERROR, null, format, new Object[] { arg1, arg2, arg3 }));
+        }
+    }
+
+    public static void error(String format, Object... args) {
+        log(Level.ERROR, null, format, args);
+    }
+
+    public static void error(Throwable thrown, String format) {
+        if (isEnabled(Level.ERROR)) {
+            enqueue(new Entry(Level.ERROR, thrown, format, NO_ARGS));
+        }
+    }
+
+    public static void error(Throwable thrown, String format, Object arg) {
+        if (isEnabled(Level.ERROR)) {
+            enqueue(new Entry(Level.ERROR, thrown, format, new Object[] { arg }));
+        }
+    }
+
+    public static void error(Throwable thrown, String format, Object arg1, Object arg2) {
+        if (isEnabled(Level.ERROR)) {
+            enqueue(new Entry(Level.ERROR, thrown, format, new Object[] { arg1, arg2 }));
+        }
+    }
+
+    public static void error(Throwable thrown, String format, Object arg1, Object arg2, Object arg3) {
+        if (isEnabled(Level.ERROR)) {
+            enqueue(new Entry(Level.ERROR, thrown, format, new Object[] { arg1, arg2, arg3 }));
+        }
+    }
+
+    public static void error(Throwable thrown, String format, Object... args) {
+        log(Level.ERROR, thrown, format, args);
+    }
+
+    public static void warn(String format) {
+        if (isEnabled(Level.WARN)) {
+            enqueue(new Entry(Level.WARN, null, format, NO_ARGS));
+        }
+    }
+
+    public static void warn(String format, Object arg) {
+        if (isEnabled(Level.WARN)) {
+            enqueue(new Entry(Level.WARN, null, format, new Object[] { arg }));
+        }
+    }
+
+    public static void warn(String format, Object arg1, Object arg2) {
+        if (isEnabled(Level.WARN)) {
+            enqueue(new Entry(Level.WARN, null, format, new Object[] { arg1, arg2 }));
+        }
+    }
+
+    public static void warn(String format, Object arg1, Object arg2, Object arg3) {
+        if (isEnabled(Level.WARN)) {
+            enqueue(new Entry(Level.WARN, null, format, new Object[] { arg1, arg2, arg3 }));
+        }
+    }
+
+    public static void warn(String format, Object... args) {
+        log(Level.WARN, null, format, args);
+    }
+
+    public static void info(String format) {
+        if (isEnabled(Level.INFO)) {
+            enqueue(new Entry(Level.INFO, null, format, NO_ARGS));
+        }
+    }
+
+    public static void info(String format, Object arg) {
+        if (isEnabled(Level.INFO)) {
+            enqueue(new Entry(Level.INFO, null, format, new Object[] { arg }));
+        }
+    }
+
+    public static void info(String format, Object arg1, Object arg2) {
+        if (isEnabled(Level.INFO)) {
+            enqueue(new Entry(Level.INFO, null, format, new Object[] { arg1, arg2 }));
+        }
+    }
+
+    public static void info(String format, Object arg1, Object arg2, Object arg3) {
+        if (isEnabled(Level.INFO)) {
+            enqueue(new Entry(Level.INFO, null, format, new Object[] { arg1, arg2, arg3 }));
+        }
+    }
+
+    public static void info(String format, Object... args) {
+        log(Level.INFO, null, format, args);
+    }
+
+    public static void debug(String format) {
+        if (isEnabled(Level.DEBUG)) {
+            enqueue(new Entry(Level.DEBUG, null, format, NO_ARGS));
+        }
+    }
+
+    public static void debug(String format, Object arg) {
+        if (isEnabled(Level.DEBUG)) {
+            enqueue(new Entry(Level.DEBUG, null, format, new Object[] { arg }));
+        }
+    }
+
+    public static void debug(String format, Object arg1, Object arg2) {
+        if (isEnabled(Level.DEBUG)) {
+            enqueue(new Entry(Level.DEBUG, null, format, new Object[] { arg1, arg2 }));
+        }
+    }
+
+    public static void debug(String format, Object arg1, Object arg2, Object arg3) {
+        if (isEnabled(Level.DEBUG)) {
+            enqueue(new Entry(Level.DEBUG, null, format, new Object[] { arg1, arg2, arg3 }));
+        }
+    }
+
+    public static void debug(String format, Object... args) {
+        log(Level.DEBUG, null, format, args);
+    }
+
+    public static void log(Level level, Throwable thrown, String format, Object... args) {
+        if (isEnabled(level)) {
+            enqueue(new Entry(level, thrown, format, args));
+        }
+    }
+
+    /**
+     * Waits until the messages logged so far have been written, or timeout
+     * milliseconds have passed.
+     *
+     * @return true if all messages were written.
+     */
+    public static boolean flush(long timeoutMillis) throws InterruptedException {
+        CountDownLatch written = new CountDownLatch(1);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (!queue.offer(new Entry(written))) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            Thread.sleep(1);
+        }
+        startThread();
+        return written.await(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    private static void enqueue(Entry entry) {
+        if (!queue.offer(entry)) {
+            dropped.increment();
+            return;
+        }
+        startThread();
+    }
+
+    private static synchronized void startThread() {
+        if (thread != null) {
+            return;
+        }
+        thread = new Thread(Log::run, "log");
+        thread.setDaemon(true);
+        thread.start();
+
+        // Write what is left when the program exits
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                flush(1000);
+            } catch (InterruptedException e) {
+                // Exiting anyway
+            }
+        }, "log-flush"));
+    }
+
+    private static void run() {
+        while (true) {
+            Entry entry;
+            try {
+                entry = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (entry.flushed != null) {
+                entry.flushed.countDown();
+                continue;
+            }
+            try {
+                String message = entry.args.length == 0 ? entry.format : String.format(entry.format, entry.args);
+                sink.write(entry.level, message, entry.thrown);
+            } catch (RuntimeException e) {
+                // A broken message or sink must not stop the log thread
+                dropped.increment();
+            }
+        }
+    }
+
+    private static final class Entry {
+        final Level level;
+        final Throwable thrown;
+        final String format;
+        final Object[] args;
+        final CountDownLatch flushed; // set for flush markers only
+
+        Entry(Level level, Throwable thrown, String format, Object[] args) {
+            this.level = level;
+            this.thrown = thrown;
+            this.format = format;
+            this.args = args;
+            this.flushed = null;
+        }
+
+        Entry(CountDownLatch flushed) {
+            this.level = null;
+            this.thrown = null;
+            this.format = null;
+            this.args = null;
+            this.flushed = flushed;
+        }
+    }
+}
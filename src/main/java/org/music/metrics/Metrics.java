@@ -0,0 +1,88 @@
+package org.music.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Metrics holds the counters, gauges, timers and histograms of the program by name.
+ * Names are dotted, starting with the part of the program they measure, such
+ * as "scanner.files". Code that updates a metric often should look it up once
+ * and keep it in a field.
+ * <p>
+ * All metrics can be read at once with snapshot().
+ */
+public final class Metrics {
+
+    private static final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private static final Map<String, Timer> timers = new ConcurrentHashMap<>();
+    private static final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+    private static final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+    private Metrics() {
+    }
+
+    /**
+     * @return the counter with the given name, created the first time it is asked for.
+     */
+    public static Counter counter(String name) {
+        return counters.computeIfAbsent(name, n -> new Counter());
+    }
+
+    /**
+     * @return the timer with the given name, created the first time it is asked for.
+     */
+    public static Timer timer(String name) {
+        return timers.computeIfAbsent(name, n -> new Timer());
+    }
+
+    /**
+     * @return the histogram with the given name, created the first time it is asked for.
+     */
+    public static Histogram histogram(String name) {
+        return histograms.computeIfAbsent(name, n -> new Histogram());
+    }
+
+    /**
+     * Registers a gauge, a value that is read when a snapshot is taken, such as
+     * the number of clips in the library. Replaces any gauge with the same name.
+     */
+    public static void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    public static void removeGauge(String name) {
+        gauges.remove(name);
+    }
+
+    /**
+     * @return the current value of every metric. A timer is reported as
+     * name.count, name.totalNanos and name.maxNanos, and a histogram as
+     * name.count, name.p50, name.p90, name.p99 and name.max.
+     */
+    public static MetricsSnapshot snapshot() {
+        Map<String, Long> values = new TreeMap<>();
+        for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().get());
+        }
+        for (Map.Entry<String, Timer> entry : timers.entrySet()) {
+            Timer timer = entry.getValue();
+            values.put(entry.getKey() + ".count", timer.getCount());
+            values.put(entry.getKey() + ".totalNanos", timer.getTotalNanos());
+            values.put(entry.getKey() + ".maxNanos", timer.getMaxNanos());
+        }
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            Histogram histogram = entry.getValue();
+            values.put(entry.getKey() + ".count", histogram.getCount());
+            values.put(entry.getKey() + ".p50", histogram.getPercentile(50));
+            values.put(entry.getKey() + ".p90", histogram.getPercentile(90));
+            values.put(entry.getKey() + ".p99", histogram.getPercentile(99));
+            values.put(entry.getKey() + ".max", histogram.getMax());
+        }
+        for (Map.Entry<String, LongSupplier> entry : gauges.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().getAsLong());
+        }
+        return new MetricsSnapshot(System.nanoTime(), values);
+    }
+}
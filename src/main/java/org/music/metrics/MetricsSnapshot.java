@@ -0,0 +1,57 @@
+package org.music.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * The values of all metrics at one point in time. Rates, such as files
+ * scanned per second, are found by comparing two snapshots.
+ */
+public final class MetricsSnapshot {
+
+    private final long timeNanos;
+    private final Map<String, Long> values;
+
+    MetricsSnapshot(long timeNanos, Map<String, Long> values) {
+        this.timeNanos = timeNanos;
+        this.values = Collections.unmodifiableMap(values);
+    }
+
+    /**
+     * @return when the snapshot was taken, in System.nanoTime() terms.
+     */
+    public long getTimeNanos() {
+        return timeNanos;
+    }
+
+    /**
+     * @return the value of the named metric, or 0 if there is no such metric.
+     */
+    public long get(String name) {
+        return values.getOrDefault(name, 0L);
+    }
+
+    /**
+     * @return all values by name, sorted by name.
+     */
+    public Map<String, Long> getValues() {
+        return values;
+    }
+
+    /**
+     * @return how much the named counter grew per second between earlier and this snapshot.
+     */
+    public double ratePerSecond(String name, MetricsSnapshot earlier) {
+        long nanos = timeNanos - earlier.timeNanos;
+        return nanos <= 0 ? 0 : (get(name) - earlier.get(name)) * 1e9 / nanos;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, Long> entry : values.entrySet()) {
+            builder.append(entry.getKey()).append(" = ").append(entry.getValue()).append('\n');
+        }
+        return builder.toString();
+    }
+}
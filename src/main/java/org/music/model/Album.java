@@ -1,40 +1,126 @@
 package org.music.model;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.Lock;
 
+import org.music.metrics.Counter;
+import org.music.metrics.Metrics;
+import org.music.metrics.Timer;
+
+/**
+ * An album of sound clips, part of a hierarchy of albums.
+ * <p>
+ * Albums are thread safe. All albums in a hierarchy share one read/write lock
+ * held by their AlbumRegistry. Changes take the write lock, and observers are
+ * notified after it has been released, in the order the changes were made.
+ * When another thread is busy notifying, that thread delivers the notifications,
+ * so a change may return before its observers have heard about it. getSoundClips and getChildAlbums return
+ * immutable snapshots that are cached until the album changes, so repeated
+ * reads don't take any lock at all.
+ */
 public class Album {
 
+    private static final Counter mutations = Metrics.counter("album.mutations");
+    private static final Counter clipsAdded = Metrics.counter("album.clipsAdded");
+    private static final Counter clipsRemoved = Metrics.counter("album.clipsRemoved");
+    private static final Timer observerDispatch = Metrics.timer("album.observerDispatch");
+
+    private final long id;
     private final String name;
-    private Album parentAlbum;
-    private final List<Album> childAlbums;
-    private final List<SoundClip> soundClips;
-    private final List<AlbumObserver> observers;
+    private final AlbumRegistry registry;
+    private volatile Album parentAlbum;
+    private final Map<String, Album> childAlbums; // keyed by name, in insertion order
+    private final Map<SoundClip, Integer> soundClips; // insertion-ordered, each clip with its slot in positions
+    private final PositionIndex positions; // finds the position of a clip from its slot
+    private final CopyOnWriteArrayList<AlbumObserver> observers;
+
+    // Immutable copies of childAlbums and soundClips, or null when they need rebuilding
+    private volatile List<Album> childAlbumSnapshot;
+    private volatile List<SoundClip> soundClipSnapshot;
 
     /**
      * Constructor for creating a root album.
      */
     public Album(String name) {
         this.name = name;
+        this.registry = new AlbumRegistry(this);
+        this.id = registry.nextId();
         this.parentAlbum = null;
-        this.childAlbums = new ArrayList<>();
-        this.soundClips = new ArrayList<>();
-        this.observers = new ArrayList<>();
+        this.childAlbums = new LinkedHashMap<>();
+        this.soundClips = new LinkedHashMap<>();
+        this.positions = new PositionIndex();
+        this.observers = new CopyOnWriteArrayList<>();
+        registry.register(this); // no lock needed, the registry isn't shared yet
     }
 
     /**
-     * Constructor for creating a child album.
+     * Constructor for creating a child album. The album belongs to the same
+     * hierarchy as parentAlbum, but is not attached until it is added with
+     * addChildAlbum.
+     * Requires parentAlbum != null
      */
     public Album(String name, Album parentAlbum) {
-        this(name);
+        this(name, parentAlbum, parentAlbum.registry.nextId());
+    }
+
+    // Creates a child album with a given id, when restoring a saved hierarchy.
+    // Requires no other album in the hierarchy to have that id.
+    Album(String name, Album parentAlbum, long id) {
+        assert parentAlbum != null;
+        this.name = name;
+        this.registry = parentAlbum.registry;
+        this.id = id;
+        registry.reserveId(id);
         this.parentAlbum = parentAlbum;
+        this.childAlbums = new LinkedHashMap<>();
+        this.soundClips = new LinkedHashMap<>();
+        this.positions = new PositionIndex();
+        this.observers = new CopyOnWriteArrayList<>();
+    }
+
+    /**
+     * @return an id that identifies this album within its hierarchy.
+     */
+    public long getId() {
+        return id;
     }
 
     public String getName() {
         return name;
     }
 
+    /**
+     * @return the names of this album and all its ancestors, starting from the root
+     * and separated by AlbumRegistry.PATH_SEPARATOR.
+     */
+    public String getPath() {
+        Lock lock = registry.readLock();
+        lock.lock();
+        try {
+            Album parent = parentAlbum;
+            if (parent == null) {
+                return name;
+            }
+            return parent.getPath() + AlbumRegistry.PATH_SEPARATOR + name;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the registry of the hierarchy this album belongs to.
+     */
+    public AlbumRegistry getRegistry() {
+        return registry;
+    }
+
     public Album getParentAlbum() {
         return parentAlbum;
     }
@@ -43,7 +129,52 @@ public class Album {
      * @return a list of all child albums.
      */
     public List<Album> getChildAlbums() {
-        return Collections.unmodifiableList(childAlbums);
+        List<Album> snapshot = childAlbumSnapshot;
+        if (snapshot != null) {
+            return snapshot;
+        }
+
+        Lock lock = registry.readLock();
+        lock.lock();
+        try {
+            snapshot = List.copyOf(childAlbums.values());
+            childAlbumSnapshot = snapshot;
+            return snapshot;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of child albums, without copying them.
+     */
+    public int getChildAlbumCount() {
+        Lock lock = registry.readLock();
+        lock.lock();
+        try {
+            return childAlbums.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the child album with the given name, or null if there is none.
+     */
+    public Album getChildAlbum(String name) {
+        Lock lock = registry.readLock();
+        lock.lock();
+        try {
+            return childAlbums.get(name);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Live view of the child albums, for walking the hierarchy without copying.
+    // Requires the lock to be held.
+    Collection<Album> children() {
+        return childAlbums.values();
     }
 
     public boolean isRoot() {
@@ -54,8 +185,29 @@ public class Album {
      * Add an observer to this album.
      */
     public void addObserver(AlbumObserver observer) {
-        if (!observers.contains(observer)) {
-            observers.add(observer);
+        Lock lock = registry.writeLock();
+        lock.lock();
+        try {
+            observers.addIfAbsent(observer);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Add an observer to this album and return the album's sound clips at the
+     * same moment. The observer is told about every change made after that
+     * list was taken, and no earlier ones, so it can keep a copy of the list
+     * up to date by applying the changes in order.
+     */
+    public List<SoundClip> subscribe(AlbumObserver observer) {
+        Lock lock = registry.writeLock();
+        lock.lock();
+        try {
+            observers.addIfAbsent(observer);
+            return getSoundClips();
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -67,117 +219,429 @@ public class Album {
     }
 
     /**
-     * Notify all observers that the sound clips have changed.
+     * Notify the observers that were registered when a change was made.
      */
-    private void notifySoundClipsChanged() {
-        for (AlbumObserver observer : observers) {
-            observer.onSoundClipsChanged(this);
+    private void notifySoundClipsChanged(SoundClipChange change, AlbumObserver[] targets) {
+        for (AlbumObserver observer : targets) {
+            observer.onSoundClipsChanged(this, change);
+        }
+    }
+
+    // Captures a change together with the observers registered at the time it was
+    // made, so that observers never hear about changes from before they registered.
+    // Requires the write lock to be held.
+    private PendingChange pendingChange(SoundClipChange change) {
+        return new PendingChange(this, change, observers.toArray(new AlbumObserver[0]));
+    }
+
+    // Queues the changes for delivery after those made before them.
+    // Requires the write lock to be held.
+    private void queueNotification(List<PendingChange> pendingChanges) {
+        if (!pendingChanges.isEmpty()) {
+            registry.queueNotification(() -> notifyAll(pendingChanges));
+        }
+    }
+
+    private static void notifyAll(List<PendingChange> pendingChanges) {
+        long start = observerDispatch.start();
+        for (PendingChange pending : pendingChanges) {
+            pending.album.notifySoundClipsChanged(pending.change, pending.observers);
         }
+        observerDispatch.stop(start);
     }
 
     /**
-     * Notify all observers that this album has been deleted.
+     * Notify the observers that were registered when this album was deleted.
      */
-    private void notifyAlbumDeleted() {
-        for (AlbumObserver observer : new ArrayList<>(observers)) {
+    private void notifyAlbumDeleted(AlbumObserver[] targets) {
+        for (AlbumObserver observer : targets) {
             observer.onAlbumDeleted(this);
         }
     }
 
     /**
      * Add a child album.
-     * Requires album != null and not already a child.
+     * Requires album != null, album belongs to the same hierarchy, is not already
+     * attached to it, and no other child album has the same name.
      */
     public void addChildAlbum(Album album) {
         assert album != null;
 
-        if (containsAlbum(album)) {
-            throw new IllegalArgumentException("Album already contains child album");
+        if (album.registry != registry) {
+            throw new IllegalArgumentException("Album belongs to a different album hierarchy");
         }
 
-        this.childAlbums.add(album);
-        album.parentAlbum = this;
+        Lock lock = registry.writeLock();
+        lock.lock();
+        try {
+            if (registry.getAlbum(album.id) == album) {
+                throw new IllegalArgumentException("Album already contains child album");
+            }
+            if (album == this || album.containsAlbum(this)) {
+                throw new IllegalArgumentException("Album cannot contain itself");
+            }
+            if (childAlbums.containsKey(album.name)) {
+                throw new IllegalArgumentException("Album already contains a child album named " + album.name);
+            }
+
+            mutations.increment();
+            this.childAlbums.put(album.name, album);
+            this.childAlbumSnapshot = null;
+            album.parentAlbum = this;
+            if (isAttached()) {
+                registry.register(album);
+            }
+            AlbumObserver[] targets = observers.toArray(new AlbumObserver[0]);
+            if (targets.length > 0) {
+                registry.queueNotification(() -> {
+                    long start = observerDispatch.start();
+                    for (AlbumObserver observer : targets) {
+                        observer.onChildAlbumAdded(this, album);
+                    }
+                    observerDispatch.stop(start);
+                });
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        registry.deliverNotifications();
+    }
+
+    /**
+     * @return true if this album can be reached from the root of its hierarchy.
+     */
+    public boolean isAttached() {
+        return registry.getAlbum(id) == this;
     }
 
     /**
      * Removes a child album.
-     * Requires album != null
+     * Requires album != null and album is a child of this album.
      */
     public void removeChildAlbum(Album album) {
         assert album != null;
 
-        if (!containsAlbum(album)) {
-            throw new IllegalArgumentException("Album doesn't contain child album");
+        Lock lock = registry.writeLock();
+        lock.lock();
+        try {
+            if (childAlbums.get(album.name) != album) {
+                throw new IllegalArgumentException("Album doesn't contain child album");
+            }
+
+            mutations.increment();
+            this.childAlbums.remove(album.name);
+            this.childAlbumSnapshot = null;
+            album.parentAlbum = null;
+            registry.unregister(album);
+            AlbumObserver[] targets = observers.toArray(new AlbumObserver[0]);
+            AlbumObserver[] albumTargets = album.observers.toArray(new AlbumObserver[0]);
+            registry.queueNotification(() -> {
+                long start = observerDispatch.start();
+                album.notifyAlbumDeleted(albumTargets);
+                for (AlbumObserver observer : targets) {
+                    observer.onChildAlbumRemoved(this, album);
+                }
+                observerDispatch.stop(start);
+            });
+        } finally {
+            lock.unlock();
         }
 
-        this.childAlbums.remove(album);
-        album.parentAlbum = null;
-        album.notifyAlbumDeleted();
+        registry.deliverNotifications();
     }
 
     /**
-     * Recursively checks if album contains a specific album.
+     * Checks if album is a descendant of this album, by walking up
+     * from album. Takes time proportional to the depth of album.
      */
     public boolean containsAlbum(Album album) {
-        if (childAlbums.contains(album)) {
-            return true;
-        }
+        assert album != null;
 
-        for (Album childAlbum : childAlbums) {
-            if (childAlbum.containsAlbum(album)) {
-                return true;
+        Lock lock = registry.readLock();
+        lock.lock();
+        try {
+            for (Album a = album; a.parentAlbum != null; a = a.parentAlbum) {
+                // An album made with the child constructor knows its parent
+                // before it is attached, so check the parent really holds it
+                if (a.parentAlbum.childAlbums.get(a.name) != a) {
+                    return false;
+                }
+                if (a.parentAlbum == this) {
+                    return true;
+                }
             }
+            return false;
+        } finally {
+            lock.unlock();
         }
-
-        return false;
     }
 
     /**
-     * @return a list of all sound clips in this album.
+     * @return a list of all sound clips in this album, in the order they were first added.
      */
     public List<SoundClip> getSoundClips() {
-        return Collections.unmodifiableList(soundClips);
+        List<SoundClip> snapshot = soundClipSnapshot;
+        if (snapshot != null) {
+            return snapshot;
+        }
+
+        Lock lock = registry.readLock();
+        lock.lock();
+        try {
+            snapshot = List.copyOf(soundClips.keySet());
+            soundClipSnapshot = snapshot;
+            return snapshot;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of sound clips in this album.
+     */
+    public int getSoundClipCount() {
+        List<SoundClip> snapshot = soundClipSnapshot;
+        if (snapshot != null) {
+            return snapshot.size();
+        }
+
+        Lock lock = registry.readLock();
+        lock.lock();
+        try {
+            return soundClips.size();
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
-     * Add a sound clip.
+     * Add a sound clip. Adding a clip the album already contains has no effect
+     * on this album, and the clip keeps its original position.
      * Requires soundClip != null
      */
     public void addSoundClip(SoundClip soundClip) {
         assert soundClip != null;
 
-        soundClips.add(soundClip);
-        notifySoundClipsChanged();
+        addSoundClips(Collections.singletonList(soundClip));
+    }
+
+    /**
+     * Add several sound clips to this album and all of its ancestors.
+     * Each album is visited once per call and notifies its observers at most once.
+     * Requires soundClips != null and contains no null elements
+     */
+    public void addSoundClips(Collection<SoundClip> soundClips) {
+        assert soundClips != null;
 
-        if (parentAlbum != null) {
-            parentAlbum.addSoundClip(soundClip);
+        if (soundClips.isEmpty()) {
+            return;
         }
+
+        mutations.increment();
+        List<PendingChange> pendingChanges = new ArrayList<>();
+        Lock lock = registry.writeLock();
+        lock.lock();
+        try {
+            for (Album album = this; album != null; album = album.parentAlbum) {
+                boolean indexed = registry.isIndexed(album);
+                int from = album.soundClips.size();
+                // Only keep track of what was added if someone is going to be told
+                List<SoundClip> added = album.observers.isEmpty() ? null : new ArrayList<>();
+                for (SoundClip soundClip : soundClips) {
+                    if (!album.soundClips.containsKey(soundClip)) {
+                        album.soundClips.put(soundClip, album.positions.append());
+                        if (added != null) {
+                            added.add(soundClip);
+                        }
+                        if (indexed) {
+                            registry.clipAdded(album, soundClip);
+                        }
+                    }
+                }
+                if (album.soundClips.size() != from) {
+                    clipsAdded.add(album.soundClips.size() - from);
+                    album.soundClipSnapshot = null;
+                    if (added != null) {
+                        pendingChanges.add(album.pendingChange(SoundClipChange.added(from, added)));
+                    }
+                }
+            }
+            queueNotification(pendingChanges);
+        } finally {
+            lock.unlock();
+        }
+
+        registry.deliverNotifications();
     }
 
     /**
-     * Remove a sound clip.
+     * Remove a sound clip from this album and all of its descendants.
      * Requires soundClip != null
      */
     public void removeSoundClip(SoundClip soundClip) {
         assert soundClip != null;
 
-        soundClips.remove(soundClip);
-        notifySoundClipsChanged();
+        removeSoundClips(Collections.singletonList(soundClip));
+    }
+
+    /**
+     * Remove several sound clips from this album and all of its descendants.
+     * Each album is visited once per call and notifies its observers at most once.
+     * Only descendants that actually contain one of the clips are visited.
+     * Requires soundClips != null
+     */
+    public void removeSoundClips(Collection<SoundClip> soundClips) {
+        assert soundClips != null;
+
+        mutations.increment();
+        List<PendingChange> pendingChanges = new ArrayList<>();
+        Lock lock = registry.writeLock();
+        lock.lock();
+        try {
+            removeSoundClips(soundClips, pendingChanges);
+            queueNotification(pendingChanges);
+        } finally {
+            lock.unlock();
+        }
+
+        registry.deliverNotifications();
+    }
+
+    // Removes clips from this album and its descendants, and collects the changes.
+    // Requires the write lock to be held.
+    private void removeSoundClips(Collection<SoundClip> soundClips, List<PendingChange> pendingChanges) {
+        List<SoundClip> removed = removeOwnSoundClips(soundClips, pendingChanges);
+
+        // A child album only holds clips its parent holds, so there is nothing
+        // more to do below this album if none of the clips were here
+        if (removed.isEmpty()) {
+            return;
+        }
+
+        if (!isAttached()) {
+            // Albums outside the hierarchy aren't indexed, so search the children
+            for (Album childAlbum : childAlbums.values()) {
+                childAlbum.removeSoundClips(removed, pendingChanges);
+            }
+            return;
+        }
+
+        // Use the reverse index to find the descendants that hold each clip
+        Map<Album, List<SoundClip>> removedByAlbum = new LinkedHashMap<>();
+        for (SoundClip soundClip : removed) {
+            for (Album album : registry.indexedAlbumsContaining(soundClip)) {
+                if (containsAlbum(album)) {
+                    removedByAlbum.computeIfAbsent(album, a -> new ArrayList<>()).add(soundClip);
+                }
+            }
+        }
+
+        for (Map.Entry<Album, List<SoundClip>> entry : removedByAlbum.entrySet()) {
+            entry.getKey().removeOwnSoundClips(entry.getValue(), pendingChanges);
+        }
+    }
+
+    // Removes clips from this album only, and returns the ones it contained.
+    // Requires the write lock to be held.
+    private List<SoundClip> removeOwnSoundClips(Collection<SoundClip> soundClips,
+            List<PendingChange> pendingChanges) {
+        boolean indexed = registry.isIndexed(this);
+        List<SoundClip> removed = new ArrayList<>();
+        int[] slots = new int[soundClips.size()];
+        for (SoundClip soundClip : soundClips) {
+            Integer slot = this.soundClips.remove(soundClip);
+            if (slot != null) {
+                slots[removed.size()] = slot;
+                removed.add(soundClip);
+            }
+        }
+        if (removed.isEmpty()) {
+            return removed;
+        }
 
-        for (Album childAlbum : childAlbums) {
-            childAlbum.removeSoundClip(soundClip);
+        SoundClipChange change = observers.isEmpty() ? null : removalChange(removed, slots);
+        for (int i = 0; i < removed.size(); i++) {
+            positions.remove(slots[i]);
+            if (indexed) {
+                registry.clipRemoved(this, removed.get(i));
+            }
+        }
+        if (positions.needsCompacting()) {
+            compactPositions();
+        }
+        clipsRemoved.add(removed.size());
+        soundClipSnapshot = null;
+        if (change != null) {
+            pendingChanges.add(pendingChange(change));
         }
+        return removed;
+    }
+
+    // Describes the removal of clips with the given slots, which must not have
+    // been freed yet, with their positions in album order. Takes O(k log n) for
+    // k clips in an album of n. Requires the lock to be held.
+    private SoundClipChange removalChange(List<SoundClip> removed, int[] slots) {
+        // Slots increase in album order, so sorting by slot sorts by position
+        long[] order = new long[removed.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = (long) slots[i] << 32 | i;
+        }
+        Arrays.sort(order);
+
+        List<SoundClip> clips = new ArrayList<>(order.length);
+        int[] clipPositions = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            int slot = (int) (order[i] >>> 32);
+            clipPositions[i] = positions.position(slot);
+            clips.add(removed.get((int) order[i]));
+        }
+        return SoundClipChange.removed(clips, clipPositions);
+    }
+
+    // Gives the clips consecutive slots again once removals have left too many
+    // unused ones. Requires the write lock to be held.
+    private void compactPositions() {
+        int slot = 0;
+        for (Map.Entry<SoundClip, Integer> entry : soundClips.entrySet()) {
+            entry.setValue(slot++);
+        }
+        positions.reset(slot);
+    }
+
+    // Live view of the sound clips, for indexing without copying.
+    // Requires the lock to be held.
+    Collection<SoundClip> clips() {
+        return soundClips.keySet();
     }
 
     /**
      * Checks if album contains a specific sound clip.
      */
     public boolean containsSoundClip(SoundClip soundClip) {
-        return soundClips.contains(soundClip);
+        Lock lock = registry.readLock();
+        lock.lock();
+        try {
+            return soundClips.containsKey(soundClip);
+        } finally {
+            lock.unlock();
+        }
     }
 
     @Override
     public String toString() {
         return name;
     }
+
+    private static class PendingChange {
+        final Album album;
+        final SoundClipChange change;
+        final AlbumObserver[] observers;
+
+        PendingChange(Album album, SoundClipChange change, AlbumObserver[] observers) {
+            this.album = album;
+            this.change = change;
+            this.observers = observers;
+        }
+    }
 }
@@ -1,13 +1,40 @@
 package org.music.model;
 
+/**
+ * Observes an album. The observers of a hierarchy of albums are notified one
+ * at a time, in the order the changes were made, on the thread that made the
+ * change or on another thread that changed the hierarchy at the same time.
+ */
 public interface AlbumObserver {
     /**
      * Called when sound clips are added to or deleted from the observed album
      */
     void onSoundClipsChanged(Album album);
 
+    /**
+     * Called when sound clips are added to or deleted from the observed album,
+     * with a description of what changed. Changes are reported in the order they
+     * were made. By default this calls onSoundClipsChanged(album).
+     */
+    default void onSoundClipsChanged(Album album, SoundClipChange change) {
+        onSoundClipsChanged(album);
+    }
+
     /**
      * Called when the observed album is deleted
      */
     void onAlbumDeleted(Album album);
+
+    /**
+     * Called when childAlbum has been added to the observed album. Does nothing by default.
+     */
+    default void onChildAlbumAdded(Album album, Album childAlbum) {
+    }
+
+    /**
+     * Called when childAlbum has been removed from the observed album, after
+     * childAlbum's own observers were told it was deleted. Does nothing by default.
+     */
+    default void onChildAlbumRemoved(Album album, Album childAlbum) {
+    }
 }
@@ -0,0 +1,238 @@
+package org.music.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * AlbumRegistry keeps track of all albums attached to one album hierarchy,
+ * so that albums can be looked up by id or by path without walking the tree.
+ * It also keeps a reverse index from sound clips to the albums that contain them.
+ * <p>
+ * The registry owns the lock that guards every album in the hierarchy, and
+ * delivers the notifications of observers in the order the changes were made.
+ */
+public class AlbumRegistry {
+
+    /**
+     * Separates album names in a path, e.g. "All Sound Clips/Music/Classical".
+     */
+    public static final String PATH_SEPARATOR = "/";
+
+    private final Album root;
+    private final Map<Long, Album> albumsById;
+    // The root is left out, since it would otherwise need an entry for every clip
+    private final Map<SoundClip, Set<Album>> albumsByClip;
+    private final AtomicLong nextId;
+    private final ReadWriteLock lock;
+    private final Queue<Runnable> notifications; // only added to with the write lock held
+    private final AtomicBoolean delivering;
+
+    /**
+     * Creates a registry for the hierarchy below root.
+     * Requires root != null
+     */
+    AlbumRegistry(Album root) {
+        assert root != null;
+        this.root = root;
+        this.albumsById = new HashMap<>();
+        this.albumsByClip = new HashMap<>();
+        this.nextId = new AtomicLong();
+        this.lock = new ReentrantReadWriteLock();
+        this.notifications = new ConcurrentLinkedQueue<>();
+        this.delivering = new AtomicBoolean();
+    }
+
+    /**
+     * @return the root album of the hierarchy.
+     */
+    public Album getRoot() {
+        return root;
+    }
+
+    /**
+     * @return the album with the given id, or null if no album with that id
+     * is attached to the hierarchy.
+     */
+    public Album getAlbum(long id) {
+        lock.readLock().lock();
+        try {
+            return albumsById.get(id);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of albums attached to the hierarchy, including the root.
+     */
+    public int getAlbumCount() {
+        lock.readLock().lock();
+        try {
+            return albumsById.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Resolves a path such as "All Sound Clips/Music/Classical" to an album.
+     * Takes one hashed lookup per path segment.
+     *
+     * @return the album, or null if path doesn't name an album in the hierarchy.
+     */
+    public Album findAlbum(String path) {
+        assert path != null;
+
+        String[] names = path.split(PATH_SEPARATOR);
+        if (!root.getName().equals(names[0])) {
+            return null;
+        }
+
+        lock.readLock().lock();
+        try {
+            Album album = root;
+            for (int i = 1; i < names.length && album != null; i++) {
+                album = album.getChildAlbum(names[i]);
+            }
+            return album;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the attached albums that contain a sound clip, starting with the root.
+     * Takes time proportional to the number of albums returned.
+     */
+    public List<Album> getAlbumsContaining(SoundClip soundClip) {
+        assert soundClip != null;
+
+        lock.readLock().lock();
+        try {
+            if (!root.containsSoundClip(soundClip)) {
+                return Collections.emptyList();
+            }
+
+            List<Album> albums = new ArrayList<>();
+            albums.add(root);
+            albums.addAll(indexedAlbumsContaining(soundClip));
+            return albums;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Returns the indexed albums that contain soundClip, i.e. all attached albums except the root.
+    // Requires the lock to be held.
+    Set<Album> indexedAlbumsContaining(SoundClip soundClip) {
+        Set<Album> albums = albumsByClip.get(soundClip);
+        return albums == null ? Collections.emptySet() : albums;
+    }
+
+    // True if clip changes in album must be recorded in the reverse index.
+    // Requires the lock to be held.
+    boolean isIndexed(Album album) {
+        return album != root && albumsById.get(album.getId()) == album;
+    }
+
+    // Records that album now contains soundClip.
+    // Requires the write lock to be held and isIndexed(album).
+    void clipAdded(Album album, SoundClip soundClip) {
+        albumsByClip.computeIfAbsent(soundClip, c -> new HashSet<>(4)).add(album);
+    }
+
+    // Records that album no longer contains soundClip.
+    // Requires the write lock to be held and isIndexed(album).
+    void clipRemoved(Album album, SoundClip soundClip) {
+        Set<Album> albums = albumsByClip.get(soundClip);
+        if (albums != null && albums.remove(album) && albums.isEmpty()) {
+            albumsByClip.remove(soundClip);
+        }
+    }
+
+    // Hands out ids for new albums in this hierarchy.
+    long nextId() {
+        return nextId.getAndIncrement();
+    }
+
+    // Makes sure ids handed out from now on are larger than id, which was
+    // given to an album restored from disk.
+    void reserveId(long id) {
+        nextId.accumulateAndGet(id + 1, Math::max);
+    }
+
+    // Lock shared by all albums in the hierarchy.
+    Lock readLock() {
+        return lock.readLock();
+    }
+
+    Lock writeLock() {
+        return lock.writeLock();
+    }
+
+    // Queues the notification of a change. Requires the write lock to be held,
+    // so that notifications are queued in the order the changes were made.
+    void queueNotification(Runnable notification) {
+        notifications.add(notification);
+    }
+
+    // Delivers the queued notifications in order, on one thread at a time. Call it
+    // after releasing the write lock. If another thread is delivering, this returns
+    // at once and that thread delivers the queued notifications as well. So does an
+    // observer that changes albums while being notified.
+    void deliverNotifications() {
+        while (!notifications.isEmpty()) {
+            if (!delivering.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                Runnable notification;
+                while ((notification = notifications.poll()) != null) {
+                    notification.run();
+                }
+            } finally {
+                delivering.set(false);
+            }
+            // Check again, in case a notification was queued after the last poll
+            // by a thread that found this one still delivering
+        }
+    }
+
+    // Registers album and all of its descendants.
+    // Requires the write lock to be held.
+    void register(Album album) {
+        albumsById.put(album.getId(), album);
+        if (album != root) {
+            for (SoundClip soundClip : album.clips()) {
+                clipAdded(album, soundClip);
+            }
+        }
+        for (Album childAlbum : album.children()) {
+            register(childAlbum);
+        }
+    }
+
+    // Unregisters album and all of its descendants.
+    // Requires the write lock to be held.
+    void unregister(Album album) {
+        albumsById.remove(album.getId());
+        for (SoundClip soundClip : album.clips()) {
+            clipRemoved(album, soundClip);
+        }
+        for (Album childAlbum : album.children()) {
+            unregister(childAlbum);
+        }
+    }
+}
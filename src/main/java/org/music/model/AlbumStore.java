@@ -0,0 +1,588 @@
+package org.music.model;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import org.music.metrics.Log;
+
+/**
+ * AlbumStore saves an album hierarchy to disk, so that albums and the clips in
+ * them survive a restart. Every change is appended to a journal as it is made,
+ * and now and then the whole hierarchy is written to a compact snapshot, after
+ * which the journal starts over. Opening the store loads the snapshot and
+ * replays the journal written since.
+ * <p>
+ * The clips of the root album are not saved, since they come from scanning the
+ * library. Removing clips from the root is saved only as removing them from
+ * every album below it, so the root holds whatever the next scan finds whether
+ * or not a snapshot was written in between. A store belongs to one library,
+ * and saves the paths of clips relative to the library folder, so that they
+ * mean the same whatever the working directory. Open the store once the
+ * library has been scanned: a saved clip that the root album doesn't hold,
+ * such as a file deleted since the last run, is dropped rather than restored.
+ * <p>
+ * All file writing happens on a background thread, in the order the changes
+ * were reported. Changes must be reported after they were made to the albums.
+ * A snapshot may then already hold changes whose journal records come after
+ * it, which is harmless since replaying a change that was already made has no
+ * effect.
+ */
+public class AlbumStore implements AutoCloseable {
+
+    /**
+     * The number of journal records after which a new snapshot is written, when no interval is given.
+     */
+    public static final int DEFAULT_SNAPSHOT_INTERVAL = 10_000;
+
+    private static final int SNAPSHOT_MAGIC = 0x4D4F4153; // "MOAS"
+    private static final int JOURNAL_MAGIC = 0x4D4F414A; // "MOAJ"
+    private static final int VERSION = 2;
+    private static final int JOURNAL_HEADER_SIZE = 16;
+
+    private static final byte ADD_ALBUM = 1;
+    private static final byte REMOVE_ALBUM = 2;
+    private static final byte ADD_CLIPS = 3;
+    private static final byte REMOVE_CLIPS = 4;
+
+    private final Path snapshotFile;
+    private final Path journalFile;
+    private final Path library;
+    private final Album root;
+    private final int snapshotInterval;
+    private final ExecutorService writer;
+
+    // Only touched by the writer thread once the store is open
+    private long generation;
+    private DataOutputStream journal;
+    private int journalRecords;
+
+    private AlbumStore(Path folder, Path library, Album root, int snapshotInterval) {
+        this.snapshotFile = folder.resolve("albums.snapshot");
+        this.journalFile = folder.resolve("albums.journal");
+        this.library = library;
+        this.root = root;
+        this.snapshotInterval = snapshotInterval;
+        this.writer = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "album-store");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @return the folder below baseFolder for the store of the library at library.
+     * The same library gives the same folder however its path is written.
+     */
+    public static Path folderFor(Path baseFolder, Path library) {
+        String key = library.toAbsolutePath().normalize().toString();
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder("library-");
+            for (int i = 0; i < 8; i++) {
+                name.append(String.format("%02x", digest[i]));
+            }
+            return baseFolder.resolve(name.toString());
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError("Every JVM has SHA-256", e);
+        }
+    }
+
+    /**
+     * Opens the store in folder and restores the albums saved in it below root.
+     * Clip paths are saved relative to library, which must be the path the clips
+     * of the library were found with. Saved clips that root doesn't hold are dropped.
+     * Requires root to be a root album without child albums, and snapshotInterval > 0
+     *
+     * @throws IOException if folder can't be created, or the saved files can't be read.
+     *                     A snapshot that is corrupt is moved aside, and a journal ending
+     *                     in a partly written record is replayed up to that record.
+     */
+    public static AlbumStore open(Path folder, Path library, Album root, int snapshotInterval) throws IOException {
+        assert library != null && root.isRoot() && root.getChildAlbums().isEmpty() && snapshotInterval > 0;
+
+        Files.createDirectories(folder);
+        AlbumStore store = new AlbumStore(folder, library, root, snapshotInterval);
+        store.restore();
+        return store;
+    }
+
+    /**
+     * Records that album was added to its parent.
+     */
+    public void albumAdded(Album album) {
+        long id = album.getId();
+        long parentId = album.getParentAlbum().getId();
+        String name = album.getName();
+        append(data -> {
+            data.writeByte(ADD_ALBUM);
+            data.writeLong(id);
+            data.writeLong(parentId);
+            data.writeUTF(name);
+        });
+    }
+
+    /**
+     * Records that album was removed from its parent, with everything below it.
+     */
+    public void albumRemoved(Album album) {
+        long id = album.getId();
+        append(data -> {
+            data.writeByte(REMOVE_ALBUM);
+            data.writeLong(id);
+        });
+    }
+
+    /**
+     * Records that soundClips were added to album. Ignored for the root album.
+     */
+    public void soundClipsAdded(Album album, Collection<SoundClip> soundClips) {
+        if (!album.isRoot()) {
+            appendClips(ADD_CLIPS, album.getId(), soundClips);
+        }
+    }
+
+    /**
+     * Records that soundClips were removed from album and the albums below it.
+     * For the root album, only the removal from the albums below it is kept.
+     */
+    public void soundClipsRemoved(Album album, Collection<SoundClip> soundClips) {
+        appendClips(REMOVE_CLIPS, album.getId(), soundClips);
+    }
+
+    /**
+     * Writes a snapshot of the albums and starts a new journal, on the writer thread.
+     */
+    public void snapshot() {
+        writer.execute(() -> {
+            try {
+                writeSnapshot();
+            } catch (IOException e) {
+                Log.warn("Could not save albums: %s", e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Writes everything reported so far to disk and stops the writer thread.
+     */
+    @Override
+    public void close() throws IOException {
+        writer.execute(() -> {
+            try {
+                if (journal != null) {
+                    journal.close();
+                }
+            } catch (IOException e) {
+                Log.warn("Could not save albums: %s", e.getMessage());
+            }
+        });
+        writer.shutdown();
+        try {
+            writer.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void appendClips(byte type, long albumId, Collection<SoundClip> soundClips) {
+        if (soundClips.isEmpty()) {
+            return;
+        }
+        // Clips are immutable, so the writer thread can turn them into paths
+        List<SoundClip> clips = List.copyOf(soundClips);
+        append(data -> {
+            data.writeByte(type);
+            data.writeLong(albumId);
+            data.writeInt(clips.size());
+            for (SoundClip clip : clips) {
+                data.writeUTF(savedPath(clip.getFile().toPath()));
+            }
+        });
+    }
+
+    private interface Record {
+        void write(DataOutputStream data) throws IOException;
+    }
+
+    // Writes a record to the journal on the writer thread, as its length, its
+    // checksum and its contents, so a record cut short by a crash can be told apart.
+    private void append(Record record) {
+        writer.execute(() -> {
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                record.write(new DataOutputStream(bytes));
+                CRC32 crc = new CRC32();
+                crc.update(bytes.toByteArray());
+
+                journal.writeInt(bytes.size());
+                journal.writeInt((int) crc.getValue());
+                bytes.writeTo(journal);
+                journal.flush();
+
+                if (++journalRecords >= snapshotInterval) {
+                    writeSnapshot();
+                }
+            } catch (IOException e) {
+                Log.warn("Could not save albums: %s", e.getMessage());
+            }
+        });
+    }
+
+    // Loads the snapshot, replays the journal, and gets the journal ready for appending.
+    private void restore() throws IOException {
+        if (Files.isRegularFile(snapshotFile)) {
+            try {
+                readSnapshot();
+            } catch (IOException e) {
+                // Keep the file, it may still be worth rescuing by hand
+                Path corrupt = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".corrupt");
+                Files.move(snapshotFile, corrupt, StandardCopyOption.REPLACE_EXISTING);
+                Log.error("Album snapshot was corrupt, moved it to %s: %s", corrupt, e.getMessage());
+            }
+        }
+
+        long validLength = Files.isRegularFile(journalFile) ? replayJournal() : -1;
+        if (validLength < 0) {
+            journal = newJournal(generation);
+        } else {
+            // Cut off a record left half written by a crash, and carry on after the rest
+            try (FileChannel channel = FileChannel.open(journalFile, StandardOpenOption.WRITE)) {
+                channel.truncate(validLength);
+            }
+            journal = openJournal(false);
+        }
+    }
+
+    private void readSnapshot() throws IOException {
+        try (InputStream in = Files.newInputStream(snapshotFile)) {
+            CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(in, 1 << 16), new CRC32());
+            DataInputStream data = new DataInputStream(checked);
+            long size = Files.size(snapshotFile);
+
+            if (data.readInt() != SNAPSHOT_MAGIC || data.readInt() != VERSION) {
+                throw new IOException("Not an album snapshot");
+            }
+            long snapshotGeneration = data.readLong();
+
+            // Read everything before touching the albums, so a corrupt file changes nothing
+            int[] folders = new int[readCount(data, size)];
+            for (int i = 0; i < folders.length; i++) {
+                folders[i] = PathTable.INSTANCE.internFolder(library.resolve(data.readUTF()).toString());
+            }
+            SoundClip[] clips = new SoundClip[readCount(data, size)];
+            for (int i = 0; i < clips.length; i++) {
+                int folder = data.readInt();
+                if (folder < -1 || folder >= folders.length) {
+                    throw new IOException("Invalid folder index " + folder);
+                }
+                String name = data.readUTF();
+                clips[i] = SoundClip.inFolder(folder < 0 ? PathTable.NO_FOLDER : folders[folder], name);
+            }
+            int albumCount = readCount(data, size);
+            List<SavedAlbum> albums = new ArrayList<>(albumCount);
+            for (int i = 0; i < albumCount; i++) {
+                SavedAlbum album = new SavedAlbum(data.readLong(), data.readLong(), data.readUTF());
+                int clipCount = readCount(data, size);
+                album.clips = new ArrayList<>(clipCount);
+                for (int j = 0; j < clipCount; j++) {
+                    int index = data.readInt();
+                    if (index < 0 || index >= clips.length) {
+                        throw new IOException("Invalid clip index " + index);
+                    }
+                    album.clips.add(clips[index]);
+                }
+                albums.add(album);
+            }
+            long expected = checked.getChecksum().getValue();
+            if (data.readLong() != expected) {
+                throw new IOException("Checksum mismatch");
+            }
+
+            // Albums are saved parents first, so each parent exists before its children
+            for (SavedAlbum saved : albums) {
+                Album album = addAlbum(saved.id, saved.parentId, saved.name);
+                if (album != null) {
+                    album.addSoundClips(inLibrary(saved.clips));
+                }
+            }
+            generation = snapshotGeneration;
+        } catch (EOFException e) {
+            throw new IOException("Snapshot is truncated", e);
+        }
+    }
+
+    // Replays the journal if it belongs to the loaded snapshot. Returns the length of
+    // the part that could be read, or -1 if the journal belongs to another snapshot.
+    private long replayJournal() throws IOException {
+        try (InputStream in = Files.newInputStream(journalFile)) {
+            DataInputStream data = new DataInputStream(new BufferedInputStream(in, 1 << 16));
+            try {
+                if (data.readInt() != JOURNAL_MAGIC || data.readInt() != VERSION || data.readLong() != generation) {
+                    // Left over from before the last snapshot was written, which already holds its records
+                    return -1;
+                }
+            } catch (EOFException e) {
+                return -1;
+            }
+
+            long validLength = JOURNAL_HEADER_SIZE;
+            long size = Files.size(journalFile);
+            CRC32 crc = new CRC32();
+            while (true) {
+                byte[] record;
+                try {
+                    int length = data.readInt();
+                    int checksum = data.readInt();
+                    if (length <= 0 || length > size) {
+                        break;
+                    }
+                    record = data.readNBytes(length);
+                    crc.reset();
+                    crc.update(record);
+                    if (record.length != length || (int) crc.getValue() != checksum) {
+                        break;
+                    }
+                } catch (EOFException e) {
+                    break; // the last record was cut short
+                }
+                replay(new DataInputStream(new ByteArrayInputStream(record)));
+                journalRecords++;
+                validLength += 8 + record.length;
+            }
+            return validLength;
+        }
+    }
+
+    private void replay(DataInputStream data) throws IOException {
+        byte type = data.readByte();
+        long albumId = data.readLong();
+        switch (type) {
+        case ADD_ALBUM:
+            addAlbum(albumId, data.readLong(), data.readUTF());
+            break;
+        case REMOVE_ALBUM:
+            Album removed = root.getRegistry().getAlbum(albumId);
+            if (removed != null && !removed.isRoot()) {
+                removed.getParentAlbum().removeChildAlbum(removed);
+            }
+            break;
+        case ADD_CLIPS:
+        case REMOVE_CLIPS:
+            int count = data.readInt();
+            List<SoundClip> clips = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                clips.add(new SoundClip(library.resolve(data.readUTF()).toFile()));
+            }
+            Album album = root.getRegistry().getAlbum(albumId);
+            if (album != null && type == ADD_CLIPS) {
+                album.addSoundClips(inLibrary(clips));
+            } else if (album == root) {
+                // The root's own clips come from the scan, like when restoring a snapshot
+                for (Album child : root.getChildAlbums()) {
+                    child.removeSoundClips(clips);
+                }
+            } else if (album != null) {
+                album.removeSoundClips(clips);
+            }
+            break;
+        default:
+            throw new IOException("Unknown journal record " + type);
+        }
+    }
+
+    // Returns the clips the root album holds, so that restoring never adds clips to
+    // the root, and clips whose files the scan no longer found are left out.
+    private List<SoundClip> inLibrary(List<SoundClip> clips) {
+        List<SoundClip> found = new ArrayList<>(clips.size());
+        for (SoundClip clip : clips) {
+            if (root.containsSoundClip(clip)) {
+                found.add(clip);
+            }
+        }
+        if (found.size() < clips.size()) {
+            Log.info("Dropped %d saved clips that are no longer in the library", clips.size() - found.size());
+        }
+        return found;
+    }
+
+    // Returns the path to save for a clip or folder, relative to the library if it is in it.
+    private String savedPath(Path path) {
+        return path.startsWith(library) ? library.relativize(path).toString() : path.toAbsolutePath().toString();
+    }
+
+    // Adds a saved album, unless it is already there or its parent is gone.
+    private Album addAlbum(long id, long parentId, String name) {
+        AlbumRegistry registry = root.getRegistry();
+        Album parent = registry.getAlbum(parentId);
+        if (parent == null || registry.getAlbum(id) != null || parent.getChildAlbum(name) != null) {
+            return null;
+        }
+        Album album = new Album(name, parent, id);
+        parent.addChildAlbum(album);
+        return album;
+    }
+
+    // Writes the whole hierarchy to a new snapshot and starts a new journal for it.
+    // Runs on the writer thread.
+    private void writeSnapshot() throws IOException {
+        long nextGeneration = generation + 1;
+
+        // Number the clips, so each clip is written once however many albums hold
+        // it, and their folders, so each folder is written once however many clips it holds
+        // Collect under the read lock, so that albums removed meanwhile are seen
+        // either whole or not at all, together with their parents
+        Map<SoundClip, Integer> clipIndex = new LinkedHashMap<>();
+        List<SavedAlbum> albums = new ArrayList<>();
+        Lock lock = root.getRegistry().readLock();
+        lock.lock();
+        try {
+            collect(root, albums, clipIndex);
+        } finally {
+            lock.unlock();
+        }
+        Map<Integer, Integer> folderIndex = new LinkedHashMap<>();
+        for (SoundClip clip : clipIndex.keySet()) {
+            int folder = PathTable.INSTANCE.folderOf(clip.getId());
+            if (folder != PathTable.NO_FOLDER) {
+                folderIndex.putIfAbsent(folder, folderIndex.size());
+            }
+        }
+
+        Path temp = Files.createTempFile(snapshotFile.getParent(), snapshotFile.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                OutputStream out = Channels.newOutputStream(channel);
+                CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(out, 1 << 16), new CRC32());
+                DataOutputStream data = new DataOutputStream(checked);
+
+                data.writeInt(SNAPSHOT_MAGIC);
+                data.writeInt(VERSION);
+                data.writeLong(nextGeneration);
+                data.writeInt(folderIndex.size());
+                for (int folder : folderIndex.keySet()) {
+                    data.writeUTF(savedPath(Path.of(PathTable.INSTANCE.folderPath(folder))));
+                }
+                data.writeInt(clipIndex.size());
+                for (SoundClip clip : clipIndex.keySet()) {
+                    int folder = PathTable.INSTANCE.folderOf(clip.getId());
+                    data.writeInt(folder == PathTable.NO_FOLDER ? -1 : folderIndex.get(folder));
+                    data.writeUTF(clip.toString());
+                }
+                data.writeInt(albums.size());
+                for (SavedAlbum album : albums) {
+                    data.writeLong(album.id);
+                    data.writeLong(album.parentId);
+                    data.writeUTF(album.name);
+                    data.writeInt(album.clips.size());
+                    for (SoundClip clip : album.clips) {
+                        data.writeInt(clipIndex.get(clip));
+                    }
+                }
+                data.writeLong(checked.getChecksum().getValue());
+                data.flush();
+                channel.force(true); // the snapshot must be on disk before the journal is cut
+            }
+            try {
+                Files.move(temp, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                // Like ScanCache.save. A crash during the move may then leave a broken
+                // snapshot, which is moved aside on the next start.
+                Files.move(temp, snapshotFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+
+        // The old journal is covered by the snapshot now. Had we crashed before
+        // this point, its generation would no longer match and it would be ignored.
+        generation = nextGeneration;
+        if (journal != null) {
+            journal.close();
+        }
+        journal = newJournal(generation);
+        journalRecords = 0;
+    }
+
+    // Collects the albums below album parents first, with their clips.
+    // Requires the read lock to be held.
+    private static void collect(Album album, List<SavedAlbum> albums, Map<SoundClip, Integer> clipIndex) {
+        for (Album child : album.getChildAlbums()) {
+            SavedAlbum saved = new SavedAlbum(child.getId(), album.getId(), child.getName());
+            saved.clips = child.getSoundClips();
+            for (SoundClip clip : saved.clips) {
+                clipIndex.putIfAbsent(clip, clipIndex.size());
+            }
+            albums.add(saved);
+            collect(child, albums, clipIndex);
+        }
+    }
+
+    private DataOutputStream newJournal(long journalGeneration) throws IOException {
+        DataOutputStream data = openJournal(true);
+        data.writeInt(JOURNAL_MAGIC);
+        data.writeInt(VERSION);
+        data.writeLong(journalGeneration);
+        data.flush();
+        return data;
+    }
+
+    private DataOutputStream openJournal(boolean truncate) throws IOException {
+        OutputStream out = truncate
+                ? Files.newOutputStream(journalFile)
+                : Files.newOutputStream(journalFile, StandardOpenOption.APPEND);
+        return new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+    }
+
+    // Reads a count, rejecting values a file of the given size can't hold.
+    private static int readCount(DataInputStream data, long fileSize) throws IOException {
+        int count = data.readInt();
+        if (count < 0 || count > fileSize) {
+            throw new IOException("Invalid count " + count);
+        }
+        return count;
+    }
+
+    // An album as read from a snapshot, before it is added to the hierarchy, or as collected to write one.
+    private static class SavedAlbum {
+        final long id;
+        final long parentId;
+        final String name;
+        List<SoundClip> clips;
+
+        SavedAlbum(long id, long parentId, String name) {
+            this.id = id;
+            this.parentId = parentId;
+            this.name = name;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package org.music.model;
+
+/**
+ * AudioMetadata describes the audio format of a sound clip, as read from the
+ * header of its file.
+ */
+public final class AudioMetadata {
+
+    private final int formatTag;
+    private final int channels;
+    private final int sampleRate;
+    private final int bitsPerSample;
+    private final int blockAlign;
+    private final long dataLength;
+
+    /**
+     * Requires channels > 0, sampleRate > 0, blockAlign > 0 and dataLength >= 0
+     */
+    public AudioMetadata(int formatTag, int channels, int sampleRate, int bitsPerSample, int blockAlign,
+            long dataLength) {
+        assert channels > 0 && sampleRate > 0 && blockAlign > 0 && dataLength >= 0;
+        this.formatTag = formatTag;
+        this.channels = channels;
+        this.sampleRate = sampleRate;
+        this.bitsPerSample = bitsPerSample;
+        this.blockAlign = blockAlign;
+        this.dataLength = dataLength;
+    }
+
+    /**
+     * @return the WAVE format tag, 1 for integer PCM.
+     */
+    public int getFormatTag() {
+        return formatTag;
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    /**
+     * @return the number of sample frames per second.
+     */
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getBitsPerSample() {
+        return bitsPerSample;
+    }
+
+    /**
+     * @return the number of bytes in one sample frame, for all channels.
+     */
+    public int getBlockAlign() {
+        return blockAlign;
+    }
+
+    /**
+     * @return the number of bytes of sample data.
+     */
+    public long getDataLength() {
+        return dataLength;
+    }
+
+    /**
+     * @return the number of sample frames.
+     */
+    public long getFrameCount() {
+        return dataLength / blockAlign;
+    }
+
+    /**
+     * @return the playing time in milliseconds.
+     */
+    public long getDurationMillis() {
+        return getFrameCount() * 1000 / sampleRate;
+    }
+
+    @Override
+    public String toString() {
+        long seconds = getDurationMillis() / 1000;
+        return String.format("%d:%02d, %d Hz, %d bit, %s", seconds / 60, seconds % 60, sampleRate, bitsPerSample,
+                channels == 1 ? "mono" : channels == 2 ? "stereo" : channels + " channels");
+    }
+}
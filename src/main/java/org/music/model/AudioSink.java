@@ -0,0 +1,31 @@
+package org.music.model;
+
+import java.io.IOException;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * AudioSink is where decoded audio is written to be heard, such as a sound card
+ * line. Other sinks let the players that write to it run without a sound card,
+ * for tests and benchmarks.
+ */
+public interface AudioSink extends AutoCloseable {
+
+    /**
+     * @return the format of the audio written to the sink.
+     */
+    AudioFormat getFormat();
+
+    /**
+     * Writes whole frames of audio, waiting while the sink has no room for them.
+     */
+    void write(byte[] buffer, int offset, int length) throws IOException;
+
+    /**
+     * Throws away audio written but not yet played, so that what is written next is heard right away.
+     */
+    void flush();
+
+    @Override
+    void close() throws IOException;
+}
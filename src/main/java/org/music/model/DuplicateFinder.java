@@ -0,0 +1,272 @@
+package org.music.model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * DuplicateFinder finds sound clips whose files have the same content, even
+ * though they are stored at different paths.
+ * <p>
+ * Files are compared in rounds, each round only looking at the clips the last
+ * one couldn't tell apart. Clips are first grouped by file size, which costs no
+ * reads. Clips sharing a size are then hashed on their first and last few
+ * kilobytes, and only clips that still collide are hashed in full. Most files in
+ * a library have a size of their own, so they are never opened at all.
+ * <p>
+ * A finder reads files on a pool of threads it keeps between calls to find,
+ * with one read buffer per thread reading. Close the finder to stop the pool.
+ */
+public class DuplicateFinder implements AutoCloseable {
+
+    // Bytes hashed at each end of a file in the partial round. Files up to twice
+    // this size are hashed in full in that round and need no full round.
+    static final int PARTIAL_SIZE = 4096;
+
+    // Bytes read at a time in the full round
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final ForkJoinPool pool;
+    // Read buffers not in use. There are never more than the threads reading at once.
+    private final ConcurrentLinkedQueue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+
+    public DuplicateFinder() {
+        this(SoundClipScanner.DEFAULT_PARALLELISM);
+    }
+
+    /**
+     * Creates a finder that reads files on at most parallelism threads.
+     * Requires parallelism > 0
+     */
+    public DuplicateFinder(int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("Parallelism must be positive");
+        }
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    /**
+     * Stops the threads reading files. A find that is running is not waited for.
+     */
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+
+    /**
+     * Like find(clips), but runs on a background thread.
+     */
+    public CompletableFuture<DuplicateIndex> findInBackground(Collection<SoundClip> clips) {
+        CompletableFuture<DuplicateIndex> future = new CompletableFuture<>();
+        Thread thread = new Thread(() -> {
+            try {
+                future.complete(find(clips));
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            }
+        }, "duplicate-finder");
+        thread.setDaemon(true);
+        thread.start();
+        return future;
+    }
+
+    /**
+     * Returns the groups of clips among clips whose files have identical content.
+     * Clips whose files can't be read are left out.
+     */
+    public DuplicateIndex find(Collection<SoundClip> clips) {
+        // The same clip twice is not a duplicate of itself
+        Collection<SoundClip> distinct = clips instanceof Set ? clips : new LinkedHashSet<>(clips);
+        AtomicInteger partiallyRead = new AtomicInteger();
+        AtomicInteger fullyRead = new AtomicInteger();
+
+        // Parallel streams started from within the pool run on its threads
+        List<List<SoundClip>> groups = pool.submit(() -> {
+            List<Candidate> candidates = distinct.parallelStream()
+                    .map(Candidate::sized)
+                    .filter(c -> c != null)
+                    .collect(Collectors.toList());
+            List<List<Candidate>> sameSize = collisions(candidates);
+
+            List<List<Candidate>> samePartial = collisions(sameSize.parallelStream()
+                    .flatMap(List::stream)
+                    .map(c -> c.hashed(this::partialHash, partiallyRead))
+                    .filter(c -> c != null)
+                    .collect(Collectors.toList()));
+
+            List<List<Candidate>> sameContent = new ArrayList<>();
+            List<Candidate> needFullHash = new ArrayList<>();
+            for (List<Candidate> group : samePartial) {
+                if (group.get(0).size <= 2L * PARTIAL_SIZE) {
+                    sameContent.add(group); // the partial hash covered the whole file
+                } else {
+                    needFullHash.addAll(group);
+                }
+            }
+            sameContent.addAll(collisions(needFullHash.parallelStream()
+                    .map(c -> c.hashed(this::fullHash, fullyRead))
+                    .filter(c -> c != null)
+                    .collect(Collectors.toList())));
+
+            List<List<SoundClip>> result = new ArrayList<>(sameContent.size());
+            for (List<Candidate> group : sameContent) {
+                List<SoundClip> clipsOfGroup = new ArrayList<>(group.size());
+                for (Candidate candidate : group) {
+                    clipsOfGroup.add(candidate.clip);
+                }
+                result.add(clipsOfGroup);
+            }
+            return result;
+        }).join();
+
+        return new DuplicateIndex(groups, distinct.size(), partiallyRead.get(), fullyRead.get());
+    }
+
+    // Groups candidates with equal keys, keeping only groups of two or more.
+    private static List<List<Candidate>> collisions(List<Candidate> candidates) {
+        Map<Key, List<Candidate>> groups = new LinkedHashMap<>();
+        for (Candidate candidate : candidates) {
+            groups.computeIfAbsent(candidate.key, k -> new ArrayList<>(2)).add(candidate);
+        }
+        List<List<Candidate>> result = new ArrayList<>();
+        for (List<Candidate> group : groups.values()) {
+            if (group.size() > 1) {
+                result.add(group);
+            }
+        }
+        return result;
+    }
+
+    // Hashes the first and last PARTIAL_SIZE bytes, or the whole file if it is smaller than both.
+    private byte[] partialHash(Candidate candidate) throws IOException {
+        MessageDigest digest = newDigest();
+        try (FileChannel channel = FileChannel.open(candidate.path, StandardOpenOption.READ)) {
+            if (candidate.size <= 2L * PARTIAL_SIZE) {
+                update(digest, channel, 0, candidate.size);
+            } else {
+                update(digest, channel, 0, PARTIAL_SIZE);
+                update(digest, channel, candidate.size - PARTIAL_SIZE, PARTIAL_SIZE);
+            }
+        }
+        return digest.digest();
+    }
+
+    private byte[] fullHash(Candidate candidate) throws IOException {
+        MessageDigest digest = newDigest();
+        try (FileChannel channel = FileChannel.open(candidate.path, StandardOpenOption.READ)) {
+            update(digest, channel, 0, candidate.size);
+        }
+        return digest.digest();
+    }
+
+    // Feeds length bytes from position into digest, through a buffer borrowed for the call.
+    private void update(MessageDigest digest, FileChannel channel, long position, long length)
+            throws IOException {
+        ByteBuffer buffer = buffers.poll();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+        try {
+            long end = position + length;
+            while (position < end) {
+                buffer.clear().limit((int) Math.min(buffer.capacity(), end - position));
+                int read = channel.read(buffer, position);
+                if (read < 0) {
+                    throw new IOException("File shrank while it was read");
+                }
+                position += read;
+                digest.update(buffer.flip());
+            }
+        } finally {
+            buffers.add(buffer);
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is always available", e);
+        }
+    }
+
+    private interface Hasher {
+        byte[] hash(Candidate candidate) throws IOException;
+    }
+
+    // A clip still in the running, with what is known about its file so far.
+    private static final class Candidate {
+        final SoundClip clip;
+        final Path path;
+        final long size;
+        final Key key;
+
+        private Candidate(SoundClip clip, Path path, long size, Key key) {
+            this.clip = clip;
+            this.path = path;
+            this.size = size;
+            this.key = key;
+        }
+
+        // Returns a candidate keyed on the size of its file, or null if the file can't be read.
+        static Candidate sized(SoundClip clip) {
+            Path path = clip.getFile().toPath();
+            try {
+                long size = Files.size(path);
+                return new Candidate(clip, path, size, new Key(size, null));
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
+        // Returns this candidate keyed on its size and hash, or null if the file can't be read.
+        Candidate hashed(Hasher hasher, AtomicInteger readCount) {
+            try {
+                byte[] hash = hasher.hash(this);
+                readCount.incrementAndGet();
+                return new Candidate(clip, path, size, new Key(size, hash));
+            } catch (IOException e) {
+                return null;
+            }
+        }
+    }
+
+    private static final class Key {
+        final long size;
+        final ByteBuffer hash; // compares by content, null before hashing
+
+        Key(long size, byte[] hash) {
+            this.size = size;
+            this.hash = hash == null ? null : ByteBuffer.wrap(hash);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Key
+                    && ((Key) obj).size == size
+                    && (hash == null ? ((Key) obj).hash == null : hash.equals(((Key) obj).hash));
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(size) * 31 + (hash == null ? 0 : hash.hashCode());
+        }
+    }
+}
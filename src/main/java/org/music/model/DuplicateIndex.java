@@ -0,0 +1,88 @@
+package org.music.model;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * DuplicateIndex holds the groups of sound clips a DuplicateFinder found to
+ * have identical content. Every group holds two or more clips, and a clip is in
+ * at most one group.
+ */
+public final class DuplicateIndex {
+
+    private final List<List<SoundClip>> groups;
+    private final Map<SoundClip, List<SoundClip>> groupOf = new HashMap<>();
+    private final int checkedCount;
+    private final int partiallyReadCount;
+    private final int fullyReadCount;
+
+    DuplicateIndex(List<List<SoundClip>> groups, int checkedCount, int partiallyReadCount, int fullyReadCount) {
+        for (int i = 0; i < groups.size(); i++) {
+            List<SoundClip> group = Collections.unmodifiableList(groups.get(i));
+            groups.set(i, group);
+            for (SoundClip clip : group) {
+                groupOf.put(clip, group);
+            }
+        }
+        this.groups = Collections.unmodifiableList(groups);
+        this.checkedCount = checkedCount;
+        this.partiallyReadCount = partiallyReadCount;
+        this.fullyReadCount = fullyReadCount;
+    }
+
+    /**
+     * @return the groups of clips with identical content.
+     */
+    public List<List<SoundClip>> getGroups() {
+        return groups;
+    }
+
+    /**
+     * @return the clips with the same content as clip, including clip itself,
+     * or an empty list if clip has no duplicates.
+     */
+    public List<SoundClip> getDuplicatesOf(SoundClip clip) {
+        return groupOf.getOrDefault(clip, Collections.emptyList());
+    }
+
+    /**
+     * @return true if some other clip has the same content as clip.
+     */
+    public boolean hasDuplicates(SoundClip clip) {
+        return !getDuplicatesOf(clip).isEmpty();
+    }
+
+    /**
+     * @return the number of clips that could be removed while keeping one clip per group.
+     */
+    public int getRedundantCount() {
+        int count = 0;
+        for (List<SoundClip> group : groups) {
+            count += group.size() - 1;
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of clips that were compared.
+     */
+    public int getCheckedCount() {
+        return checkedCount;
+    }
+
+    /**
+     * @return the number of files whose first and last few kilobytes were read.
+     */
+    public int getPartiallyReadCount() {
+        return partiallyReadCount;
+    }
+
+    /**
+     * @return the number of files that were read in full.
+     */
+    public int getFullyReadCount() {
+        return fullyReadCount;
+    }
+}
@@ -0,0 +1,74 @@
+package org.music.model;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javafx.scene.media.Media;
+import javafx.scene.media.MediaPlayer;
+
+/**
+ * A MediaBackend that plays clips with JavaFX's MediaPlayer.
+ */
+public class FxMediaBackend implements MediaBackend {
+
+    @Override
+    public Track open(SoundClip soundClip) {
+        Media media = new Media(soundClip.getFile().toURI().toString());
+        return new FxTrack(new MediaPlayer(media));
+    }
+
+    private static class FxTrack implements Track {
+        private final MediaPlayer player;
+
+        FxTrack(MediaPlayer player) {
+            this.player = player;
+        }
+
+        @Override
+        public void play() {
+            player.play();
+        }
+
+        @Override
+        public void pause() {
+            player.pause();
+        }
+
+        @Override
+        public void dispose() {
+            player.stop();
+            player.dispose();
+        }
+
+        @Override
+        public void setOnEndOfMedia(Runnable onEndOfMedia) {
+            player.setOnEndOfMedia(onEndOfMedia);
+        }
+
+        @Override
+        public void setOnError(Runnable onError) {
+            player.setOnError(onError);
+        }
+
+        @Override
+        public void setOnReady(Runnable onReady) {
+            // The player may have got ready on the FX thread before the handler was set,
+            // so check afterwards too, and make sure it runs only once
+            AtomicBoolean ran = new AtomicBoolean();
+            Runnable once = () -> {
+                if (ran.compareAndSet(false, true)) {
+                    onReady.run();
+                }
+            };
+            player.setOnReady(once);
+            MediaPlayer.Status status = player.getStatus();
+            if (status != MediaPlayer.Status.UNKNOWN && status != MediaPlayer.Status.HALTED) {
+                once.run();
+            }
+        }
+
+        @Override
+        public void setOnPlaying(Runnable onPlaying) {
+            player.setOnPlaying(onPlaying);
+        }
+    }
+}
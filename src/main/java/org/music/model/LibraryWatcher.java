@@ -0,0 +1,319 @@
+package org.music.model;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LibraryWatcher keeps an album in sync with a library folder on disk while the
+ * program runs. It watches every folder of the library, waits for a burst of
+ * file system events to settle, and then applies the net effect to the album as
+ * one batch of additions and one batch of removals. A rename shows up as a
+ * removal of the old clip and an addition of the new one.
+ * <p>
+ * Every folder is registered before it is listed, so a file created or deleted
+ * meanwhile is either seen in the listing or reported by an event. Starting the
+ * watcher lists the whole library this way and brings the album up to date, so
+ * changes made after the album was filled by a scan are not lost. Symbolic links
+ * are followed like SoundClipScanner does, watching each folder once.
+ * <p>
+ * If the operating system drops events for a folder, only that folder is listed
+ * again and compared with what the watcher knew about it.
+ */
+public class LibraryWatcher implements AutoCloseable {
+
+    /**
+     * Receives the changes a LibraryWatcher applied to its album.
+     */
+    public interface Listener {
+        /**
+         * Called on the watcher thread after a batch of changes has been applied.
+         */
+        void onLibraryChanged(List<SoundClip> added, List<SoundClip> removed);
+    }
+
+    /**
+     * How long the file system has to be quiet before changes are applied, when no delay is given.
+     */
+    public static final long DEFAULT_DEBOUNCE_MILLIS = 300;
+
+    private final Path root;
+    private final Album album;
+    private final long debounceMillis;
+    private final Listener listener;
+
+    private WatchService watchService;
+    private Thread thread;
+
+    // Only touched by the watcher thread once it has started
+    private final Map<WatchKey, Path> folders = new HashMap<>();
+    private final Map<Path, Set<SoundClip>> clipsByFolder = new HashMap<>();
+    private final Map<Object, Path> folderKeys = new HashMap<>(); // watched folders by file key or real path
+
+    /**
+     * Creates a watcher that applies changes below root to album.
+     * Requires root != null, album != null and debounceMillis >= 0
+     */
+    public LibraryWatcher(Path root, Album album, long debounceMillis, Listener listener) {
+        assert root != null && album != null && debounceMillis >= 0;
+        this.root = root;
+        this.album = album;
+        this.debounceMillis = debounceMillis;
+        this.listener = listener;
+    }
+
+    /**
+     * Registers every folder below the root and starts watching on a daemon thread.
+     * Before returning, the album is brought up to date with the files found while
+     * registering: clips of files that are gone are removed and new files are added.
+     */
+    public synchronized void start() throws IOException {
+        if (thread != null) {
+            throw new IllegalStateException("Watcher already started");
+        }
+
+        watchService = root.getFileSystem().newWatchService();
+        Set<SoundClip> known = new HashSet<>();
+        for (SoundClip clip : album.getSoundClips()) {
+            Path parent = clip.getFile().toPath().getParent();
+            if (parent != null && parent.startsWith(root)) {
+                known.add(clip);
+            }
+        }
+        List<SoundClip> found = new ArrayList<>();
+        registerAll(root, found);
+
+        List<SoundClip> added = new ArrayList<>();
+        for (SoundClip clip : found) {
+            if (!known.remove(clip)) {
+                added.add(clip);
+            }
+        }
+        List<SoundClip> removed = new ArrayList<>(known);
+        album.addSoundClips(added);
+        album.removeSoundClips(removed);
+        if (listener != null && (!added.isEmpty() || !removed.isEmpty())) {
+            listener.onLibraryChanged(added, removed);
+        }
+
+        thread = new Thread(this::run, "library-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops watching. Changes not yet applied are dropped.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (watchService != null) {
+            watchService.close();
+        }
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                // Wait for the first event of a burst, then collect events until
+                // the file system has been quiet for debounceMillis
+                Changes changes = new Changes();
+                collect(watchService.take(), changes);
+                WatchKey key;
+                while ((key = watchService.poll(debounceMillis, TimeUnit.MILLISECONDS)) != null) {
+                    collect(key, changes);
+                }
+                apply(changes);
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Closed, stop watching
+        }
+    }
+
+    // Records the events of one key and re-arms it.
+    private void collect(WatchKey key, Changes changes) {
+        Path folder = folders.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (folder == null) {
+                continue;
+            }
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                changes.overflowed.add(folder);
+            } else {
+                changes.paths.add(folder.resolve((Path) event.context()));
+            }
+        }
+        if (!key.reset()) {
+            // The folder is gone, its removal event will clean up after it
+            folders.remove(key);
+        }
+    }
+
+    // Works out the net effect of the collected events and applies it to the album.
+    private void apply(Changes changes) {
+        List<SoundClip> added = new ArrayList<>();
+        List<SoundClip> removed = new ArrayList<>();
+
+        for (Path path : changes.paths) {
+            // Look at how things are now, so that a file created and deleted within
+            // one burst, or renamed back and forth, ends up as no change at all
+            if (Files.isDirectory(path)) {
+                if (!clipsByFolder.containsKey(path)) {
+                    registerAll(path, added);
+                }
+            } else if (clipsByFolder.containsKey(path)) {
+                forgetAll(path, removed);
+            } else if (SoundClipScanner.isWAVFile(path.getFileName().toString())) {
+                Set<SoundClip> known = clipsByFolder.computeIfAbsent(path.getParent(), p -> new HashSet<>());
+                SoundClip clip = new SoundClip(path.toFile());
+                if (Files.exists(path)) {
+                    if (known.add(clip)) {
+                        added.add(clip);
+                    }
+                } else if (known.remove(clip)) {
+                    removed.add(clip);
+                }
+            }
+        }
+
+        for (Path folder : changes.overflowed) {
+            rescan(folder, added, removed);
+        }
+
+        // A clip can only be in one of the lists, since the last look decides
+        album.addSoundClips(added);
+        album.removeSoundClips(removed);
+
+        if (listener != null && (!added.isEmpty() || !removed.isEmpty())) {
+            listener.onLibraryChanged(added, removed);
+        }
+    }
+
+    // Lists a folder whose events were lost and compares it with what we knew.
+    private void rescan(Path folder, List<SoundClip> added, List<SoundClip> removed) {
+        if (!Files.isDirectory(folder)) {
+            forgetAll(folder, removed);
+            return;
+        }
+
+        Set<SoundClip> known = clipsByFolder.computeIfAbsent(folder, p -> new HashSet<>());
+        Set<SoundClip> found = new HashSet<>();
+        try (var entries = Files.newDirectoryStream(folder)) {
+            for (Path entry : entries) {
+                if (Files.isDirectory(entry)) {
+                    if (!clipsByFolder.containsKey(entry)) {
+                        registerAll(entry, added);
+                    }
+                } else if (SoundClipScanner.isWAVFile(entry.getFileName().toString())) {
+                    found.add(new SoundClip(entry.toFile()));
+                }
+            }
+        } catch (IOException e) {
+            return;
+        }
+
+        for (SoundClip clip : new ArrayList<>(known)) {
+            if (!found.contains(clip)) {
+                known.remove(clip);
+                removed.add(clip);
+            }
+        }
+        for (SoundClip clip : found) {
+            if (known.add(clip)) {
+                added.add(clip);
+            }
+        }
+
+        // Sub folders that disappeared while events were lost
+        for (Path sub : new ArrayList<>(clipsByFolder.keySet())) {
+            if (folder.equals(sub.getParent()) && !Files.isDirectory(sub)) {
+                forgetAll(sub, removed);
+            }
+        }
+    }
+
+    // Starts watching folder and everything below it, and adds the WAV files found
+    // that weren't known yet to added. Each folder is registered before it is
+    // listed, so files created in the meantime are listed or reported by an event.
+    private void registerAll(Path folder, List<SoundClip> added) {
+        WatchKey key;
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(folder, BasicFileAttributes.class);
+            Object folderKey = attrs.fileKey() != null ? attrs.fileKey() : folder.toRealPath();
+            Path watched = folderKeys.get(folderKey);
+            if (watched != null && Files.isDirectory(watched)) {
+                return; // Already watched through another path, or a link loops back
+            }
+            key = folder.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE);
+            folderKeys.put(folderKey, folder);
+        } catch (IOException e) {
+            return; // The folder went away, its removal will be seen later
+        }
+        folders.put(key, folder);
+        Set<SoundClip> known = clipsByFolder.computeIfAbsent(folder, p -> new HashSet<>());
+
+        List<Path> subFolders = new ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(folder)) {
+            for (Path entry : entries) {
+                if (Files.isDirectory(entry)) {
+                    subFolders.add(entry);
+                } else if (SoundClipScanner.isWAVFile(entry.getFileName().toString())) {
+                    SoundClip clip = new SoundClip(entry.toFile());
+                    if (known.add(clip)) {
+                        added.add(clip);
+                    }
+                }
+            }
+        } catch (IOException | DirectoryIteratorException e) {
+            // The folder went away while we listed it, its removal will be seen later
+        }
+
+        for (Path subFolder : subFolders) {
+            if (!clipsByFolder.containsKey(subFolder)) {
+                registerAll(subFolder, added);
+            }
+        }
+    }
+
+    // Forgets a removed folder and everything below it, and removes its clips.
+    private void forgetAll(Path folder, List<SoundClip> removed) {
+        for (Path known : new ArrayList<>(clipsByFolder.keySet())) {
+            if (known.startsWith(folder)) {
+                removed.addAll(clipsByFolder.remove(known));
+            }
+        }
+        folders.entrySet().removeIf(entry -> {
+            if (entry.getValue().startsWith(folder)) {
+                entry.getKey().cancel();
+                return true;
+            }
+            return false;
+        });
+        folderKeys.values().removeIf(path -> path.startsWith(folder));
+    }
+
+    // Paths touched during one burst of events.
+    private static class Changes {
+        final Set<Path> paths = new LinkedHashSet<>();
+        final Set<Path> overflowed = new LinkedHashSet<>();
+    }
+}
@@ -0,0 +1,66 @@
+package org.music.model;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+
+/**
+ * LineAudioSink plays audio through a line of the sound card. The line is
+ * opened and started up front and kept open, so that writing to it starts
+ * playing at once. Its buffer is kept small, since everything in it has to
+ * play before what is written after it.
+ */
+public class LineAudioSink implements AudioSink {
+
+    /**
+     * The size of the line's buffer in frames when none is given, about 46 ms at 44.1 kHz.
+     */
+    public static final int DEFAULT_BUFFER_FRAMES = 2048;
+
+    private final SourceDataLine line;
+
+    public LineAudioSink(AudioFormat format) throws LineUnavailableException {
+        this(format, DEFAULT_BUFFER_FRAMES);
+    }
+
+    /**
+     * Opens and starts a line for format, with room for bufferFrames frames.
+     * Requires bufferFrames > 0
+     *
+     * @throws LineUnavailableException if there is no sound card, or it doesn't play format.
+     */
+    public LineAudioSink(AudioFormat format, int bufferFrames) throws LineUnavailableException {
+        if (bufferFrames <= 0) {
+            throw new IllegalArgumentException("Buffer must hold at least one frame");
+        }
+        try {
+            line = AudioSystem.getSourceDataLine(format);
+        } catch (IllegalArgumentException e) {
+            throw new LineUnavailableException("No line for " + format);
+        }
+        line.open(format, bufferFrames * format.getFrameSize());
+        line.start();
+    }
+
+    @Override
+    public AudioFormat getFormat() {
+        return line.getFormat();
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) {
+        line.write(buffer, offset, length);
+    }
+
+    @Override
+    public void flush() {
+        line.flush();
+    }
+
+    @Override
+    public void close() {
+        line.stop();
+        line.close();
+    }
+}
@@ -0,0 +1,55 @@
+package org.music.model;
+
+/**
+ * MediaBackend opens sound clips for playing. SoundClipPlayer plays through a
+ * backend, so that it can be run against a fake one without a sound card or
+ * the JavaFX toolkit.
+ */
+public interface MediaBackend {
+
+    /**
+     * A sound clip opened for playing. The callbacks may be called on any thread.
+     */
+    interface Track {
+        /**
+         * Starts or resumes playing.
+         */
+        void play();
+
+        void pause();
+
+        /**
+         * Stops playing and frees the resources of the track. The track can't be used afterwards.
+         */
+        void dispose();
+
+        /**
+         * Sets what to run when the track has played to its end.
+         */
+        void setOnEndOfMedia(Runnable onEndOfMedia);
+
+        /**
+         * Sets what to run if the track can't be played after all.
+         */
+        void setOnError(Runnable onError);
+
+        /**
+         * Sets what to run once the track is ready to play. Runs right away if it already is.
+         */
+        void setOnReady(Runnable onReady);
+
+        /**
+         * Sets what to run whenever the track starts playing, also after a pause.
+         */
+        void setOnPlaying(Runnable onPlaying);
+    }
+
+    /**
+     * Opens a clip for playing. The track doesn't play until told to, but may
+     * get ready for it in the background, so that a track opened ahead of time
+     * starts right away.
+     *
+     * @throws RuntimeException if the clip can't be opened.
+     */
+    Track open(SoundClip soundClip);
+}
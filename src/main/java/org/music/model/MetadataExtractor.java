@@ -0,0 +1,64 @@
+package org.music.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * MetadataExtractor reads the metadata of many sound clips in parallel, so
+ * that later calls to SoundClip.getMetadata() return at once. Clips whose
+ * metadata is already loaded are skipped.
+ */
+public final class MetadataExtractor {
+
+    // Clips read by one task, enough to make the cost of scheduling it small
+    private static final int CHUNK_SIZE = 64;
+
+    private MetadataExtractor() {
+    }
+
+    /**
+     * Reads the metadata of all clips in album, including those in its sub albums,
+     * on executor. The future completes with the number of clips whose metadata
+     * could be read.
+     */
+    public static CompletableFuture<Integer> extract(Album album, Executor executor) {
+        return extract(album.getSoundClips(), executor);
+    }
+
+    /**
+     * Reads the metadata of clips on executor, a chunk of clips per task. The
+     * future completes with the number of clips whose metadata could be read.
+     */
+    public static CompletableFuture<Integer> extract(Collection<SoundClip> clips, Executor executor) {
+        AtomicInteger readable = new AtomicInteger();
+        List<CompletableFuture<Void>> tasks = new ArrayList<>();
+
+        List<SoundClip> chunk = new ArrayList<>(CHUNK_SIZE);
+        for (SoundClip clip : clips) {
+            chunk.add(clip);
+            if (chunk.size() == CHUNK_SIZE) {
+                tasks.add(CompletableFuture.runAsync(readAll(chunk, readable), executor));
+                chunk = new ArrayList<>(CHUNK_SIZE);
+            }
+        }
+        if (!chunk.isEmpty()) {
+            tasks.add(CompletableFuture.runAsync(readAll(chunk, readable), executor));
+        }
+
+        return CompletableFuture.allOf(tasks.toArray(new CompletableFuture<?>[0])).thenApply(v -> readable.get());
+    }
+
+    private static Runnable readAll(List<SoundClip> chunk, AtomicInteger readable) {
+        return () -> {
+            for (SoundClip clip : chunk) {
+                if (clip.getMetadata() != null) {
+                    readable.incrementAndGet();
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,40 @@
+package org.music.model;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * NullAudioSink throws away the audio written to it, as fast as it is written,
+ * and only counts it.
+ */
+public class NullAudioSink implements AudioSink {
+
+    private final AudioFormat format;
+    private volatile long bytesWritten;
+
+    public NullAudioSink(AudioFormat format) {
+        assert format != null;
+        this.format = format;
+    }
+
+    @Override
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) {
+        bytesWritten += length; // only ever written by one thread at a time
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+}
@@ -0,0 +1,299 @@
+package org.music.model;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * PathTable interns the paths of sound clip files so that each path is stored
+ * once, however many SoundClip objects refer to it. Folders are stored as a
+ * parent folder and a name, so the folders a library shares are only stored
+ * once, and file names are packed into large byte arrays. Every path gets a
+ * dense int id, starting from 0, that never changes.
+ * <p>
+ * Entries are only ever added, while holding the table's lock, and are written
+ * in pages that never move once allocated. Reading an entry takes no lock, so
+ * it relies on the thread that interned the path having handed the id, or the
+ * SoundClip holding it, to the reading thread through something that orders
+ * memory: an album's lock, a concurrent queue, starting a thread or writing a
+ * volatile field. Everything written to the table before the handoff is then
+ * visible. The final id field of a SoundClip is not enough on its own, as it
+ * only makes the id visible, not the entry. The page arrays are volatile only
+ * so that a reader never sees the array of pages from before a page was added.
+ */
+final class PathTable {
+
+    static final PathTable INSTANCE = new PathTable();
+
+    static final int NO_FOLDER = -1;
+
+    private static final int PAGE_BITS = 12;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+    private static final int NAME_PAGE_SIZE = 1 << 16;
+
+    // Folders, by id: the parent folder, and the name (the whole path for top level folders)
+    private volatile int[][] folderParents = new int[0][];
+    private volatile String[][] folderNames = new String[0][];
+    private int folderCount;
+    private int[] folderSlots = new int[64]; // open addressing, folder id + 1, 0 when empty
+
+    // Clips, by id: the folder, and where the UTF-8 name is in the name pages (offset << 16 | length)
+    private volatile int[][] clipFolders = new int[0][];
+    private volatile long[][] clipNames = new long[0][];
+    private int clipCount;
+    private int[] clipSlots = new int[1024]; // open addressing, clip id + 1, 0 when empty
+
+    private volatile byte[][] namePages = new byte[0][];
+    private int nameEnd; // offset of the next free byte, across pages
+
+    // Clips arrive folder by folder, so remember the last folder looked up
+    private String lastFolderPath;
+    private int lastFolderId;
+
+    /**
+     * @return the id of file's path, adding the path if it is new.
+     */
+    synchronized int intern(File file) {
+        String parent = file.getParent();
+        int folder = parent == null ? NO_FOLDER : internFolder(file.getParentFile(), parent);
+        return intern(folder, file.getName());
+    }
+
+    /**
+     * @return the id of the file called fileName in folder, adding it if it is new.
+     * Requires folder to be NO_FOLDER or an id returned by internFolder.
+     */
+    synchronized int intern(int folder, String fileName) {
+        byte[] name = fileName.getBytes(StandardCharsets.UTF_8);
+        if (name.length >= NAME_PAGE_SIZE) {
+            throw new IllegalArgumentException("File name too long: " + fileName);
+        }
+
+        int hash = clipHash(folder, name, 0, name.length);
+        int mask = clipSlots.length - 1;
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            int slot = clipSlots[i];
+            if (slot == 0) {
+                int id = addClip(folder, name);
+                clipSlots[i] = id + 1;
+                if (clipCount * 2 > clipSlots.length) {
+                    clipSlots = rehashClips(clipSlots.length * 2);
+                }
+                return id;
+            }
+            if (clipFolder(slot - 1) == folder && nameEquals(slot - 1, name)) {
+                return slot - 1;
+            }
+        }
+    }
+
+    /**
+     * @return the id of the folder at path, adding it if it is new.
+     */
+    synchronized int internFolder(String path) {
+        return internFolder(new File(path), path);
+    }
+
+    /**
+     * @return the folder of the clip with the given id, or NO_FOLDER.
+     */
+    int folderOf(int id) {
+        return clipFolder(id);
+    }
+
+    /**
+     * @return the path of a folder returned by internFolder or folderOf.
+     */
+    String folderPath(int folder) {
+        return folderFile(folder).getPath();
+    }
+
+    /**
+     * @return the folder holding a folder returned by internFolder or folderOf, or NO_FOLDER.
+     */
+    int parentOf(int folder) {
+        return folderParents[folder >>> PAGE_BITS][folder & PAGE_MASK];
+    }
+
+    /**
+     * @return the name of a folder returned by internFolder or folderOf, which is
+     * its whole path if it has no parent.
+     */
+    String folderName(int folder) {
+        return folderNames[folder >>> PAGE_BITS][folder & PAGE_MASK];
+    }
+
+    /**
+     * @return the file name of the clip with the given id.
+     */
+    String name(int id) {
+        long packed = clipNames[id >>> PAGE_BITS][id & PAGE_MASK];
+        int offset = (int) (packed >>> 16);
+        int length = (int) (packed & 0xFFFF);
+        return new String(namePages[offset / NAME_PAGE_SIZE], offset % NAME_PAGE_SIZE, length,
+                StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return a new File for the clip with the given id.
+     */
+    File file(int id) {
+        int folder = clipFolder(id);
+        return folder == NO_FOLDER ? new File(name(id)) : new File(folderFile(folder), name(id));
+    }
+
+    /**
+     * @return the number of paths in the table.
+     */
+    synchronized int size() {
+        return clipCount;
+    }
+
+    private int clipFolder(int id) {
+        return clipFolders[id >>> PAGE_BITS][id & PAGE_MASK];
+    }
+
+    private File folderFile(int id) {
+        int parent = folderParents[id >>> PAGE_BITS][id & PAGE_MASK];
+        String name = folderNames[id >>> PAGE_BITS][id & PAGE_MASK];
+        return parent == NO_FOLDER ? new File(name) : new File(folderFile(parent), name);
+    }
+
+    private int internFolder(File folder, String path) {
+        if (path.equals(lastFolderPath)) {
+            return lastFolderId;
+        }
+        String parentPath = folder.getParent();
+        int parent = parentPath == null ? NO_FOLDER : internFolder(folder.getParentFile(), parentPath);
+        String name = parent == NO_FOLDER ? path : folder.getName();
+
+        int id = -1;
+        int mask = folderSlots.length - 1;
+        for (int i = folderHash(parent, name) & mask; ; i = (i + 1) & mask) {
+            int slot = folderSlots[i];
+            if (slot == 0) {
+                id = addFolder(parent, name);
+                folderSlots[i] = id + 1;
+                if (folderCount * 2 > folderSlots.length) {
+                    folderSlots = rehashFolders(folderSlots.length * 2);
+                }
+                break;
+            }
+            int candidate = slot - 1;
+            if (folderParents[candidate >>> PAGE_BITS][candidate & PAGE_MASK] == parent
+                    && folderNames[candidate >>> PAGE_BITS][candidate & PAGE_MASK].equals(name)) {
+                id = candidate;
+                break;
+            }
+        }
+
+        lastFolderPath = path;
+        lastFolderId = id;
+        return id;
+    }
+
+    private int addFolder(int parent, String name) {
+        int id = folderCount;
+        if ((id & PAGE_MASK) == 0) {
+            int pages = folderParents.length;
+            int[][] parents = Arrays.copyOf(folderParents, pages + 1);
+            String[][] names = Arrays.copyOf(folderNames, pages + 1);
+            parents[pages] = new int[PAGE_SIZE];
+            names[pages] = new String[PAGE_SIZE];
+            folderParents = parents;
+            folderNames = names;
+        }
+        folderParents[id >>> PAGE_BITS][id & PAGE_MASK] = parent;
+        folderNames[id >>> PAGE_BITS][id & PAGE_MASK] = name;
+        folderCount++;
+        return id;
+    }
+
+    private int addClip(int folder, byte[] name) {
+        int id = clipCount;
+        if ((id & PAGE_MASK) == 0) {
+            int pages = clipFolders.length;
+            int[][] folders = Arrays.copyOf(clipFolders, pages + 1);
+            long[][] names = Arrays.copyOf(clipNames, pages + 1);
+            folders[pages] = new int[PAGE_SIZE];
+            names[pages] = new long[PAGE_SIZE];
+            clipFolders = folders;
+            clipNames = names;
+        }
+
+        // Names never span two pages, so start a new page if the last one is too full
+        int pages = namePages.length;
+        int offset = nameEnd;
+        if (offset + name.length >= pages * NAME_PAGE_SIZE) {
+            offset = pages * NAME_PAGE_SIZE;
+            byte[][] grown = Arrays.copyOf(namePages, pages + 1);
+            grown[pages] = new byte[NAME_PAGE_SIZE];
+            namePages = grown;
+        }
+        System.arraycopy(name, 0, namePages[offset / NAME_PAGE_SIZE], offset % NAME_PAGE_SIZE, name.length);
+        nameEnd = offset + name.length;
+
+        clipFolders[id >>> PAGE_BITS][id & PAGE_MASK] = folder;
+        clipNames[id >>> PAGE_BITS][id & PAGE_MASK] = (long) offset << 16 | name.length;
+        clipCount++;
+        return id;
+    }
+
+    private boolean nameEquals(int id, byte[] name) {
+        long packed = clipNames[id >>> PAGE_BITS][id & PAGE_MASK];
+        int offset = (int) (packed >>> 16);
+        int length = (int) (packed & 0xFFFF);
+        int from = offset % NAME_PAGE_SIZE;
+        return Arrays.equals(namePages[offset / NAME_PAGE_SIZE], from, from + length, name, 0, name.length);
+    }
+
+    private int[] rehashClips(int capacity) {
+        int[] slots = new int[capacity];
+        int mask = capacity - 1;
+        for (int id = 0; id < clipCount; id++) {
+            long packed = clipNames[id >>> PAGE_BITS][id & PAGE_MASK];
+            int offset = (int) (packed >>> 16);
+            int hash = clipHash(clipFolder(id), namePages[offset / NAME_PAGE_SIZE], offset % NAME_PAGE_SIZE,
+                    (int) (packed & 0xFFFF));
+            int i = hash & mask;
+            while (slots[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            slots[i] = id + 1;
+        }
+        return slots;
+    }
+
+    private int[] rehashFolders(int capacity) {
+        int[] slots = new int[capacity];
+        int mask = capacity - 1;
+        for (int id = 0; id < folderCount; id++) {
+            int i = folderHash(folderParents[id >>> PAGE_BITS][id & PAGE_MASK],
+                    folderNames[id >>> PAGE_BITS][id & PAGE_MASK]) & mask;
+            while (slots[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            slots[i] = id + 1;
+        }
+        return slots;
+    }
+
+    private static int clipHash(int folder, byte[] bytes, int from, int length) {
+        int hash = folder;
+        for (int i = from; i < from + length; i++) {
+            hash = hash * 31 + bytes[i];
+        }
+        return mix(hash);
+    }
+
+    private static int folderHash(int parent, String name) {
+        return mix(parent * 31 + name.hashCode());
+    }
+
+    // Spreads the bits, since slots are picked by the low bits of the hash
+    private static int mix(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
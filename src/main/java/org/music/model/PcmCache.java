@@ -0,0 +1,225 @@
+package org.music.model;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+import org.music.metrics.Counter;
+import org.music.metrics.Metrics;
+import org.music.metrics.Timer;
+
+/**
+ * PcmCache keeps the decoded audio of sound clips in memory, so that they can
+ * be played without reading or decoding the file again. All clips are decoded
+ * to the one format of the cache, the format of the line they are played on.
+ * <p>
+ * The audio is kept off the heap, in direct buffers, so a full cache doesn't
+ * make garbage collections any slower. The cache holds at most a given number
+ * of bytes of audio, and makes room by dropping the clips used longest ago. A
+ * clip larger than the whole cache is decoded but not kept.
+ * <p>
+ * A dropped clip's memory is only given back once the garbage collector finds
+ * its buffer, and every buffer handed out for it, unreachable. A clip may still
+ * be playing from one, so the cache can't free it sooner. Until then the memory
+ * counts against -XX:MaxDirectMemorySize rather than the heap. When that limit
+ * is reached, allocating a new buffer runs a collection first.
+ */
+public class PcmCache {
+
+    /**
+     * The format clips are decoded to when none is given: 16 bit stereo at 44.1 kHz.
+     */
+    public static final AudioFormat DEFAULT_FORMAT = new AudioFormat(44100f, 16, 2, true, false);
+
+    /**
+     * The most bytes a cache holds when no size is given, about six minutes of audio in the default format.
+     */
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+    private static final Counter hits = Metrics.counter("pcm.hits");
+    private static final Counter misses = Metrics.counter("pcm.misses");
+    private static final Counter evictions = Metrics.counter("pcm.evictions");
+    private static final Timer decodes = Metrics.timer("pcm.decode");
+
+    private final AudioFormat format;
+    private final long maxBytes;
+
+    // Guarded by this. In access order, so the clip used longest ago comes first
+    private final LinkedHashMap<SoundClip, ByteBuffer> buffers = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+
+    public PcmCache() {
+        this(DEFAULT_FORMAT, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Creates a cache of clips decoded to format, holding at most maxBytes bytes.
+     * Requires format to be PCM and maxBytes >= 0
+     */
+    public PcmCache(AudioFormat format, long maxBytes) {
+        boolean pcm = format.getEncoding() == AudioFormat.Encoding.PCM_SIGNED
+                || format.getEncoding() == AudioFormat.Encoding.PCM_UNSIGNED;
+        if (!pcm || maxBytes < 0) {
+            throw new IllegalArgumentException("Need a PCM format and a size of at least 0");
+        }
+        this.format = format;
+        this.maxBytes = maxBytes;
+    }
+
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return the number of bytes of audio held, not counting clips that were
+     * dropped but whose memory hasn't been collected yet.
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return the number of clips held.
+     */
+    public synchronized int size() {
+        return buffers.size();
+    }
+
+    public synchronized boolean contains(SoundClip soundClip) {
+        return buffers.containsKey(soundClip);
+    }
+
+    /**
+     * Returns the decoded audio of a clip, decoding it first unless it is held.
+     * The clip becomes the one used last. The buffer returned is read-only and
+     * positioned at the first frame, and can be read by one thread.
+     *
+     * @throws IOException if the clip can't be read or decoded to the format of the cache.
+     */
+    public ByteBuffer get(SoundClip soundClip) throws IOException {
+        synchronized (this) {
+            ByteBuffer buffer = buffers.get(soundClip);
+            if (buffer != null) {
+                hits.increment();
+                return buffer.duplicate();
+            }
+        }
+
+        // Decode without the lock, so that clips that are held can be had meanwhile.
+        // A clip asked for twice at once may be decoded twice, then the first one is kept
+        misses.increment();
+        ByteBuffer decoded = decode(soundClip);
+        synchronized (this) {
+            ByteBuffer buffer = buffers.get(soundClip);
+            if (buffer == null) {
+                buffer = decoded;
+                put(soundClip, buffer);
+            }
+            return buffer.duplicate();
+        }
+    }
+
+    /**
+     * Returns the decoded audio of a clip like get, but only if it is held,
+     * so it never reads the file.
+     *
+     * @return the audio, or null if the clip isn't held.
+     */
+    public synchronized ByteBuffer getIfHeld(SoundClip soundClip) {
+        ByteBuffer buffer = buffers.get(soundClip);
+        if (buffer == null) {
+            return null;
+        }
+        hits.increment();
+        return buffer.duplicate();
+    }
+
+    /**
+     * Drops every clip.
+     */
+    public synchronized void clear() {
+        buffers.clear();
+        bytes = 0;
+    }
+
+    // Keeps buffer, counting the audio in it rather than the memory allocated,
+    // which is more if the clip turned out shorter than its header said.
+    private void put(SoundClip soundClip, ByteBuffer buffer) {
+        int size = buffer.limit();
+        if (size > maxBytes) {
+            return;
+        }
+        Iterator<ByteBuffer> eldest = buffers.values().iterator();
+        while (bytes + size > maxBytes) {
+            bytes -= eldest.next().limit();
+            eldest.remove();
+            evictions.increment();
+        }
+        buffers.put(soundClip, buffer);
+        bytes += size;
+    }
+
+    // Reads the whole clip, converted to the format of the cache, into a direct buffer.
+    private ByteBuffer decode(SoundClip soundClip) throws IOException {
+        long start = decodes.start();
+        try (AudioInputStream in = open(soundClip)) {
+            long frames = in.getFrameLength();
+            ByteBuffer buffer;
+            if (frames != AudioSystem.NOT_SPECIFIED && frames * format.getFrameSize() <= Integer.MAX_VALUE) {
+                buffer = ByteBuffer.allocateDirect((int) (frames * format.getFrameSize()));
+                read(in, buffer);
+            } else {
+                // The length isn't known up front, so read it all first
+                byte[] all = in.readAllBytes();
+                buffer = ByteBuffer.allocateDirect(all.length - all.length % format.getFrameSize());
+                buffer.put(all, 0, buffer.capacity());
+            }
+            buffer.flip();
+            buffer.limit(buffer.limit() - buffer.limit() % format.getFrameSize());
+            decodes.stop(start);
+            return buffer.asReadOnlyBuffer();
+        }
+    }
+
+    private AudioInputStream open(SoundClip soundClip) throws IOException {
+        AudioInputStream in;
+        try {
+            in = AudioSystem.getAudioInputStream(soundClip.getFile());
+        } catch (UnsupportedAudioFileException e) {
+            throw new IOException("Can't decode " + soundClip.getFile(), e);
+        }
+        if (in.getFormat().matches(format)) {
+            return in;
+        }
+        try {
+            return AudioSystem.getAudioInputStream(format, in);
+        } catch (IllegalArgumentException e) {
+            in.close();
+            throw new IOException("Can't convert " + soundClip.getFile() + " to " + format, e);
+        }
+    }
+
+    // Reads in until buffer is full or the stream ends, whichever comes first.
+    private static void read(InputStream in, ByteBuffer buffer) throws IOException {
+        byte[] chunk = new byte[64 * 1024];
+        while (buffer.hasRemaining()) {
+            int n = in.read(chunk, 0, Math.min(chunk.length, buffer.remaining()));
+            if (n < 0) {
+                break;
+            }
+            buffer.put(chunk, 0, n);
+        }
+    }
+}
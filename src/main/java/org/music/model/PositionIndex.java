@@ -0,0 +1,95 @@
+package org.music.model;
+
+import java.util.Arrays;
+
+/**
+ * PositionIndex finds the position of an item in an insertion-ordered
+ * collection without walking it. Every item gets a slot when it is appended,
+ * and slots only ever increase, so the position of an item is the number of
+ * items still held in slots before its own. The counts are kept in a Fenwick
+ * tree, so appending, removing and looking up a position all take O(log n).
+ * <p>
+ * Removed items leave their slots behind. Once there are many more slots than
+ * items, the owner renumbers its items from 0 and calls reset, which takes
+ * O(n) but only happens after O(n) removals.
+ * <p>
+ * Not thread safe, the owner guards it with its own lock.
+ */
+final class PositionIndex {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private int[] tree = new int[INITIAL_CAPACITY + 1]; // tree[j] counts the items in slots j - lowbit(j) to j - 1
+    private int slots; // slots handed out so far
+    private int count; // items still held
+
+    /**
+     * @return the slot of an item added after all others.
+     */
+    int append() {
+        if (slots == tree.length - 1) {
+            grow();
+        }
+        int slot = slots++;
+        update(slot + 1, 1);
+        count++;
+        return slot;
+    }
+
+    /**
+     * Frees the slot of an item that has been removed.
+     */
+    void remove(int slot) {
+        update(slot + 1, -1);
+        count--;
+    }
+
+    /**
+     * @return the position of the item in slot, counting only the items still held.
+     */
+    int position(int slot) {
+        int position = 0;
+        for (int j = slot; j > 0; j -= j & -j) {
+            position += tree[j];
+        }
+        return position;
+    }
+
+    /**
+     * @return true when enough slots have been left behind that the items should
+     * be renumbered and reset called.
+     */
+    boolean needsCompacting() {
+        return slots > INITIAL_CAPACITY && slots > 2 * count;
+    }
+
+    /**
+     * Starts over with the count items in slots 0 to count - 1.
+     */
+    void reset(int count) {
+        int capacity = INITIAL_CAPACITY;
+        while (capacity < count) {
+            capacity *= 2;
+        }
+        tree = new int[capacity + 1];
+        for (int j = 1; j <= capacity; j++) {
+            tree[j] = Math.max(0, Math.min(j, count) - (j - (j & -j)));
+        }
+        this.slots = count;
+        this.count = count;
+    }
+
+    private void update(int j, int delta) {
+        for (; j < tree.length; j += j & -j) {
+            tree[j] += delta;
+        }
+    }
+
+    // Doubles the capacity. The new nodes cover only empty slots, except the
+    // last one, which covers every slot.
+    private void grow() {
+        int capacity = tree.length - 1;
+        tree = Arrays.copyOf(tree, 2 * capacity + 1);
+        tree[2 * capacity] = count;
+    }
+}
@@ -0,0 +1,251 @@
+package org.music.model;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * ScanCache remembers what a SoundClipScanner found in each folder of a library,
+ * so that the next scan only has to list folders that changed since.
+ * <p>
+ * For every folder the cache records its modification time, the names of its
+ * WAV files and the names of its sub folders. A folder whose modification time
+ * is unchanged is not listed again. Adding, removing or renaming an entry changes
+ * the modification time of the folder holding it, which is all a scan needs to
+ * know, since clips are identified by their paths alone.
+ * <p>
+ * The cache is stored in a compact binary file with a checksum. A missing,
+ * corrupt or outdated file gives an empty cache, which makes the next scan a
+ * full scan.
+ */
+public class ScanCache {
+
+    private static final int MAGIC = 0x4D4F5343; // "MOSC"
+    private static final int VERSION = 2;
+
+    // Folders changed this recently are not trusted, since another change within
+    // the timestamp resolution would go unnoticed
+    private static final long MIN_AGE_MILLIS = 2000;
+
+    private final String rootPath;
+    private Map<String, FolderEntry> previous; // from the last scan, read only
+    private Map<String, FolderEntry> current; // filled in by the running scan
+    private final AtomicInteger reusedFolderCount = new AtomicInteger();
+
+    private ScanCache(String rootPath, Map<String, FolderEntry> previous) {
+        this.rootPath = rootPath;
+        this.previous = previous;
+        this.current = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * @return an empty cache for the library at rootPath.
+     */
+    public static ScanCache empty(String rootPath) {
+        return new ScanCache(normalize(rootPath), Collections.emptyMap());
+    }
+
+    /**
+     * Reads the cache for the library at rootPath from file. Returns an empty cache
+     * if the file doesn't exist, can't be read, is corrupt or belongs to another library.
+     */
+    public static ScanCache load(Path file, String rootPath) {
+        String root = normalize(rootPath);
+        if (!Files.isRegularFile(file)) {
+            return empty(root);
+        }
+
+        try (InputStream in = Files.newInputStream(file)) {
+            CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(in, 1 << 16), new CRC32());
+            DataInputStream data = new DataInputStream(checked);
+
+            if (data.readInt() != MAGIC || data.readInt() != VERSION || !data.readUTF().equals(root)) {
+                return empty(root);
+            }
+
+            long size = Files.size(file);
+            int folderCount = readCount(data, size);
+            Map<String, FolderEntry> folders = new HashMap<>(folderCount * 4 / 3 + 1);
+            for (int i = 0; i < folderCount; i++) {
+                String key = data.readUTF();
+                folders.put(key, FolderEntry.read(data, size));
+            }
+
+            long expected = checked.getChecksum().getValue();
+            if (data.readLong() != expected) {
+                return empty(root);
+            }
+            return new ScanCache(root, folders);
+        } catch (IOException | RuntimeException e) {
+            // Truncated or garbled file, start over with a full scan
+            return empty(root);
+        }
+    }
+
+    /**
+     * Writes the folders recorded by the last scan to file. The file is replaced
+     * atomically where the file system allows it, so a crash never leaves a
+     * half-written cache behind.
+     */
+    public void save(Path file) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+
+        try {
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(out, 1 << 16), new CRC32());
+                DataOutputStream data = new DataOutputStream(checked);
+
+                data.writeInt(MAGIC);
+                data.writeInt(VERSION);
+                data.writeUTF(rootPath);
+                data.writeInt(current.size());
+                for (Map.Entry<String, FolderEntry> entry : current.entrySet()) {
+                    data.writeUTF(entry.getKey());
+                    entry.getValue().write(data);
+                }
+                data.writeLong(checked.getChecksum().getValue());
+                data.flush();
+            }
+            try {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * @return the number of folders recorded by the last scan.
+     */
+    public int getFolderCount() {
+        return current.isEmpty() ? previous.size() : current.size();
+    }
+
+    /**
+     * @return the number of folders the last scan took from the cache instead of listing them.
+     */
+    public int getReusedFolderCount() {
+        return reusedFolderCount.get();
+    }
+
+    // Called by the scanner before it starts, so the cache can be used for several scans.
+    synchronized void startScan(String path) {
+        if (!normalize(path).equals(rootPath)) {
+            throw new IllegalArgumentException("Cache belongs to another library: " + rootPath);
+        }
+        if (!current.isEmpty()) {
+            previous = current;
+            current = new ConcurrentHashMap<>();
+        }
+        reusedFolderCount.set(0);
+    }
+
+    // Key of folder in the cache, its path relative to the library.
+    String key(Path folder) {
+        return Paths.get(rootPath).relativize(folder.toAbsolutePath().normalize()).toString();
+    }
+
+    // Returns the cached entry for a folder if the folder is unchanged, otherwise null.
+    FolderEntry lookup(String key, long modified) {
+        if (modified == Long.MIN_VALUE) {
+            return null;
+        }
+        FolderEntry entry = previous.get(key);
+        if (entry == null || entry.modified != modified) {
+            return null;
+        }
+        reusedFolderCount.incrementAndGet();
+        return entry;
+    }
+
+    // Records what the running scan found in a folder.
+    void put(String key, FolderEntry entry) {
+        current.put(key, entry);
+    }
+
+    // Reads a count, rejecting values a file of the given size can't hold, so that
+    // a garbled file can't make us allocate huge arrays.
+    private static int readCount(DataInputStream data, long fileSize) throws IOException {
+        int count = data.readInt();
+        if (count < 0 || count > fileSize) {
+            throw new IOException("Invalid count " + count);
+        }
+        return count;
+    }
+
+    private static String normalize(String path) {
+        return Paths.get(path).toAbsolutePath().normalize().toString();
+    }
+
+    /**
+     * What a scan found in one folder.
+     */
+    static final class FolderEntry {
+        final long modified;
+        final String[] fileNames;
+        final String[] subFolderNames;
+
+        FolderEntry(long modified, List<String> fileNames, List<String> subFolderNames) {
+            this(untrusted(modified), fileNames.toArray(new String[0]), subFolderNames.toArray(new String[0]));
+        }
+
+        private FolderEntry(long modified, String[] fileNames, String[] subFolderNames) {
+            this.modified = modified;
+            this.fileNames = fileNames;
+            this.subFolderNames = subFolderNames;
+        }
+
+        // A folder modified just now may change again within the same timestamp,
+        // so record an impossible time that forces it to be listed next time
+        private static long untrusted(long modified) {
+            return System.currentTimeMillis() - modified < MIN_AGE_MILLIS ? Long.MIN_VALUE : modified;
+        }
+
+        void write(DataOutputStream data) throws IOException {
+            data.writeLong(modified);
+            data.writeInt(fileNames.length);
+            for (String name : fileNames) {
+                data.writeUTF(name);
+            }
+            data.writeInt(subFolderNames.length);
+            for (String name : subFolderNames) {
+                data.writeUTF(name);
+            }
+        }
+
+        static FolderEntry read(DataInputStream data, long fileSize) throws IOException {
+            long modified = data.readLong();
+            int fileCount = readCount(data, fileSize);
+            String[] fileNames = new String[fileCount];
+            for (int i = 0; i < fileCount; i++) {
+                fileNames[i] = data.readUTF();
+            }
+            String[] subFolderNames = new String[readCount(data, fileSize)];
+            for (int i = 0; i < subFolderNames.length; i++) {
+                subFolderNames[i] = data.readUTF();
+            }
+            return new FolderEntry(modified, fileNames, subFolderNames);
+        }
+    }
+}
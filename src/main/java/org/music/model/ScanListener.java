@@ -0,0 +1,20 @@
+package org.music.model;
+
+import java.util.List;
+
+/**
+ * Receives sound clips from a SoundClipScanner while the scan is running.
+ */
+public interface ScanListener {
+    /**
+     * Called with each batch of sound clips found. May be called from any of
+     * the scanner's threads, but never from two threads at once.
+     */
+    void onSoundClipsFound(List<SoundClip> soundClips);
+
+    /**
+     * Called once after the last batch, with the totals for the whole scan
+     */
+    default void onScanFinished(int soundClipCount, int folderCount) {
+    }
+}
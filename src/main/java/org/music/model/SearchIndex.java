@@ -0,0 +1,717 @@
+package org.music.model;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.music.metrics.Metrics;
+import org.music.metrics.Timer;
+
+/**
+ * SearchIndex finds the sound clips of an album by the words in their file
+ * names and in the names of the folders holding them, up to the library
+ * folder. A clip matches a query if every word of the query appears in its
+ * file name or in one of those folders. Words of one or two characters match the start of a word, and longer
+ * words match anywhere, so "beat" finds "Drumbeat 01.wav", and "dr" finds
+ * "Drums/kick.wav" but not "Hydra/kick.wav". Case and punctuation are ignored.
+ * <p>
+ * Names are split into trigrams, and the index keeps the ids of the clips
+ * holding each trigram, so a query only looks at clips that hold every trigram
+ * of one of its words. Folder names are indexed once per folder, not once per
+ * clip. The index observes its album and follows clips being added and removed.
+ * Removed clips are dropped from the index lazily, once they outnumber the clips
+ * in the album.
+ * <p>
+ * SearchIndex is thread safe. Searches and updates take turns on the index's lock.
+ */
+public class SearchIndex implements AlbumObserver, AutoCloseable {
+
+    /**
+     * Receives the results of a search while it runs.
+     */
+    public interface Listener {
+        /**
+         * Called with each batch of matching clips, in the order of their ids.
+         * Called while the index is locked, so it should return quickly.
+         *
+         * @return false to stop the search.
+         */
+        boolean onResults(List<SoundClip> soundClips);
+    }
+
+    /**
+     * The number of clips passed to a Listener at a time when no batch size is given.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    // Below this many removed clips, the index is never compacted
+    private static final int MIN_COMPACT_COUNT = 1024;
+
+    private static final int[] NO_IDS = new int[0];
+
+    private static final Timer searches = Metrics.timer("search.query");
+
+    private final Album album;
+    private final int libraryFolder; // NO_FOLDER if every folder is indexed
+    private final GramTable clipGrams = new GramTable(); // grams of file names, to clip ids
+    private final GramTable folderGrams = new GramTable(); // grams of folder names, to folder ids
+    private final BitSet live = new BitSet(); // clips in the album
+    private final BitSet indexed = new BitSet(); // clips in clipGrams, some of which may have been removed since
+    private final BitSet indexedFolders = new BitSet();
+    private final BitSet outsideFolders = new BitSet(); // folders not below the library folder
+    private IdList[] clipsByFolder = new IdList[0]; // indexed clips, by folder id
+    private IdList[] foldersByParent = new IdList[0]; // indexed folders, by parent folder id
+    private int liveCount;
+    private int deadCount;
+
+    /**
+     * Creates an index of the sound clips in album, which then follows changes to the album.
+     * The names of all folders holding the clips are indexed.
+     * Requires album != null
+     */
+    public SearchIndex(Album album) {
+        this(album, null);
+    }
+
+    /**
+     * Creates an index of the sound clips in album, which then follows changes to the album.
+     * Only the names of folders below library are indexed, so that the folders every
+     * clip is in, such as the user's home folder, don't match every clip. Clips outside
+     * library are only found by their file names. A null library indexes every folder.
+     * Requires album != null
+     */
+    public SearchIndex(Album album, File library) {
+        assert album != null;
+        this.album = album;
+        this.libraryFolder = library == null ? PathTable.NO_FOLDER : PathTable.INSTANCE.internFolder(library.getPath());
+        // Hold the lock while subscribing, so that no change is applied before the clips it changes
+        synchronized (this) {
+            add(album.subscribe(this));
+        }
+    }
+
+    /**
+     * Stops following changes to the album.
+     */
+    @Override
+    public void close() {
+        album.removeObserver(this);
+    }
+
+    /**
+     * @return the number of clips that can be found.
+     */
+    public synchronized int size() {
+        return liveCount;
+    }
+
+    /**
+     * @return up to limit clips in scope matching query, in the order of their ids.
+     * A null scope searches the whole album, and a query without words matches every clip.
+     * Requires scope to be null or an album of the indexed album's hierarchy.
+     */
+    public List<SoundClip> search(String query, Album scope, int limit) {
+        List<SoundClip> results = new ArrayList<>();
+        if (limit > 0) {
+            search(query, scope, limit, soundClips -> {
+                results.addAll(soundClips);
+                return false;
+            });
+        }
+        return results;
+    }
+
+    /**
+     * Searches for clips in scope matching query, and passes them to listener in
+     * batches of at most batchSize clips as they are found. Returns when the search
+     * is finished or the listener stopped it.
+     * A null scope searches the whole album, and a query without words matches every clip.
+     *
+     * @return the number of clips passed to the listener.
+     */
+    public synchronized int search(String query, Album scope, int batchSize, Listener listener) {
+        assert batchSize > 0 && listener != null;
+
+        long start = searches.start();
+        try {
+            Term[] terms = parse(query);
+            Collector collector = new Collector(terms, scope == album ? null : scope, batchSize, listener);
+            int[] candidates = candidates(terms);
+            if (candidates == null) {
+                for (int id = live.nextSetBit(0); id >= 0 && collector.offer(id); id = live.nextSetBit(id + 1)) {
+                }
+            } else {
+                for (int id : candidates) {
+                    if (!collector.offer(id)) {
+                        break;
+                    }
+                }
+            }
+            return collector.finish();
+        } finally {
+            searches.stop(start);
+        }
+    }
+
+    /**
+     * @return roughly how many bytes of memory the index takes up.
+     */
+    public synchronized long estimatedBytes() {
+        return clipGrams.estimatedBytes() + folderGrams.estimatedBytes()
+                + (live.size() + indexed.size() + indexedFolders.size() + outsideFolders.size()) / 8
+                + IdList.estimatedBytes(clipsByFolder) + IdList.estimatedBytes(foldersByParent);
+    }
+
+    @Override
+    public void onSoundClipsChanged(Album album) {
+        // Albums always report changes through onSoundClipsChanged(album, change)
+    }
+
+    @Override
+    public synchronized void onSoundClipsChanged(Album album, SoundClipChange change) {
+        if (change.isAddition()) {
+            add(change.getClips());
+        } else {
+            remove(change.getClips());
+        }
+    }
+
+    @Override
+    public void onAlbumDeleted(Album album) {
+    }
+
+    private void add(List<SoundClip> soundClips) {
+        for (SoundClip soundClip : soundClips) {
+            int id = soundClip.getId();
+            if (live.get(id)) {
+                continue;
+            }
+            live.set(id);
+            liveCount++;
+            if (indexed.get(id)) {
+                // Removed and added back before the index was compacted
+                deadCount--;
+                continue;
+            }
+            indexed.set(id);
+            for (long gram : grams(' ' + normalize(soundClip.toString()))) {
+                clipGrams.add(gram, id);
+            }
+            int folder = PathTable.INSTANCE.folderOf(id);
+            if (folder != PathTable.NO_FOLDER && addFolder(folder)) {
+                clipsByFolder = IdList.ensure(clipsByFolder, folder);
+                clipsByFolder[folder].add(id);
+            }
+        }
+    }
+
+    // Indexes folder and the folders above it up to the library folder, unless
+    // already done. Returns false if folder isn't below the library folder.
+    private boolean addFolder(int folder) {
+        if (indexedFolders.get(folder)) {
+            return true;
+        }
+        if (folder == libraryFolder || outsideFolders.get(folder)) {
+            return false;
+        }
+        int parent = PathTable.INSTANCE.parentOf(folder);
+        boolean top = parent == libraryFolder;
+        if (!top && (parent == PathTable.NO_FOLDER || !addFolder(parent))) {
+            outsideFolders.set(folder);
+            return false;
+        }
+        indexedFolders.set(folder);
+        for (long gram : grams(' ' + normalize(PathTable.INSTANCE.folderName(folder)))) {
+            folderGrams.add(gram, folder);
+        }
+        if (!top) {
+            foldersByParent = IdList.ensure(foldersByParent, parent);
+            foldersByParent[parent].add(folder);
+        }
+        return true;
+    }
+
+    private void remove(List<SoundClip> soundClips) {
+        for (SoundClip soundClip : soundClips) {
+            int id = soundClip.getId();
+            if (live.get(id)) {
+                live.clear(id);
+                liveCount--;
+                deadCount++;
+            }
+        }
+        if (deadCount >= MIN_COMPACT_COUNT && deadCount > liveCount) {
+            compact();
+        }
+    }
+
+    // Drops removed clips from the index. Folders are kept, since they take up
+    // little room and are likely to get clips again.
+    private void compact() {
+        clipGrams.retain(live);
+        for (IdList clips : clipsByFolder) {
+            if (clips != null) {
+                clips.retain(live);
+            }
+        }
+        indexed.clear();
+        indexed.or(live);
+        deadCount = 0;
+    }
+
+    private Term[] parse(String query) {
+        Set<String> words = new LinkedHashSet<>();
+        for (String word : normalize(query).split(" ")) {
+            if (!word.isEmpty()) {
+                words.add(word);
+            }
+        }
+
+        Term[] terms = new Term[words.size()];
+        int i = 0;
+        for (String word : words) {
+            long[] grams = queryGrams(word);
+            BitSet folders = new BitSet();
+            String needle = word.length() < 3 ? " " + word : word;
+            for (int folder : folderGrams.intersect(grams)) {
+                if ((' ' + normalize(PathTable.INSTANCE.folderName(folder))).contains(needle)) {
+                    folders.set(folder);
+                }
+            }
+            terms[i++] = new Term(needle, grams.length == 1, clipGrams.intersect(grams), folders);
+        }
+        return terms;
+    }
+
+    // Returns the sorted ids of the clips that may match every term, or null if all
+    // clips may. The candidates are those of the term matching the fewest clips.
+    private int[] candidates(Term[] terms) {
+        if (terms.length == 0) {
+            return null;
+        }
+
+        Term best = null;
+        long bestCount = Long.MAX_VALUE;
+        for (Term term : terms) {
+            long count = term.clips.length;
+            for (int folder : term.topFolders()) {
+                count += countClips(folder);
+            }
+            if (count < bestCount) {
+                best = term;
+                bestCount = count;
+            }
+        }
+
+        int[] folders = best.topFolders();
+        if (folders.length == 0) {
+            return best.clips;
+        }
+        IdList clips = new IdList();
+        clips.addAll(best.clips, best.clips.length);
+        for (int folder : folders) {
+            collectClips(folder, clips);
+        }
+        clips.prepare();
+        return Arrays.copyOf(clips.ids, clips.size);
+    }
+
+    private long countClips(int folder) {
+        long count = folder < clipsByFolder.length && clipsByFolder[folder] != null ? clipsByFolder[folder].size : 0;
+        if (folder < foldersByParent.length && foldersByParent[folder] != null) {
+            IdList children = foldersByParent[folder];
+            for (int i = 0; i < children.size; i++) {
+                count += countClips(children.ids[i]);
+            }
+        }
+        return count;
+    }
+
+    private void collectClips(int folder, IdList clips) {
+        if (folder < clipsByFolder.length && clipsByFolder[folder] != null) {
+            clips.addAll(clipsByFolder[folder].ids, clipsByFolder[folder].size);
+        }
+        if (folder < foldersByParent.length && foldersByParent[folder] != null) {
+            IdList children = foldersByParent[folder];
+            for (int i = 0; i < children.size; i++) {
+                collectClips(children.ids[i], clips);
+            }
+        }
+    }
+
+    /**
+     * @return text in lower case, with every character that isn't a letter or digit
+     * replaced by a space, so that words are separated by spaces.
+     */
+    static String normalize(String text) {
+        char[] chars = new char[text.length()];
+        for (int i = 0; i < chars.length; i++) {
+            char c = text.charAt(i);
+            chars[i] = Character.isLetterOrDigit(c) ? Character.toLowerCase(c) : ' ';
+        }
+        return new String(chars);
+    }
+
+    // The grams of normalized text that starts with a space: every three characters
+    // within a word, the first two characters of every word after the space before
+    // it, and the first character of every word. Sorted, without duplicates.
+    private static long[] grams(String text) {
+        long[] grams = new long[text.length() * 2];
+        int n = 0;
+        for (int i = 0; i + 1 < text.length(); i++) {
+            char a = text.charAt(i);
+            char b = text.charAt(i + 1);
+            if (b == ' ') {
+                continue;
+            }
+            if (a == ' ') {
+                grams[n++] = wordStart(b);
+            }
+            if (i + 2 < text.length() && text.charAt(i + 2) != ' ') {
+                grams[n++] = trigram(a, b, text.charAt(i + 2));
+            }
+        }
+        Arrays.sort(grams, 0, n);
+        int unique = 0;
+        for (int i = 0; i < n; i++) {
+            if (unique == 0 || grams[i] != grams[unique - 1]) {
+                grams[unique++] = grams[i];
+            }
+        }
+        return Arrays.copyOf(grams, unique);
+    }
+
+    // The grams a clip must hold to match word. Short words must start a word,
+    // longer ones can be anywhere.
+    private static long[] queryGrams(String word) {
+        if (word.length() == 1) {
+            return new long[] { wordStart(word.charAt(0)) };
+        }
+        if (word.length() == 2) {
+            return new long[] { trigram(' ', word.charAt(0), word.charAt(1)) };
+        }
+        long[] grams = new long[word.length() - 2];
+        for (int i = 0; i < grams.length; i++) {
+            grams[i] = trigram(word.charAt(i), word.charAt(i + 1), word.charAt(i + 2));
+        }
+        return grams;
+    }
+
+    private static long trigram(char a, char b, char c) {
+        return (long) a << 32 | (long) b << 16 | c;
+    }
+
+    private static long wordStart(char c) {
+        return 1L << 48 | c;
+    }
+
+    // One word of a query.
+    private static final class Term {
+        final String needle; // what the normalized text, after a leading space, must contain
+        final boolean exact; // true if holding the word's gram is the same as containing the word
+        final int[] clips; // sorted, the clips holding every gram of the word in their file names
+        final BitSet folders; // the folders with the word in their names
+
+        Term(String needle, boolean exact, int[] clips, BitSet folders) {
+            this.needle = needle;
+            this.exact = exact;
+            this.clips = clips;
+            this.folders = folders;
+        }
+
+        boolean inFolderOf(int id) {
+            if (folders.isEmpty()) {
+                return false;
+            }
+            for (int folder = PathTable.INSTANCE.folderOf(id); folder != PathTable.NO_FOLDER;
+                    folder = PathTable.INSTANCE.parentOf(folder)) {
+                if (folders.get(folder)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        // The matching folders that aren't below another matching folder.
+        int[] topFolders() {
+            IdList top = new IdList();
+            for (int folder = folders.nextSetBit(0); folder >= 0; folder = folders.nextSetBit(folder + 1)) {
+                int parent = PathTable.INSTANCE.parentOf(folder);
+                if (parent == PathTable.NO_FOLDER || !inFolder(parent)) {
+                    top.add(folder);
+                }
+            }
+            return Arrays.copyOf(top.ids, top.size);
+        }
+
+        private boolean inFolder(int folder) {
+            for (; folder != PathTable.NO_FOLDER; folder = PathTable.INSTANCE.parentOf(folder)) {
+                if (folders.get(folder)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    // Checks candidates against every term and passes matches on in batches.
+    private final class Collector {
+        private final Term[] terms;
+        private final Album scope; // null for the whole album
+        private final int batchSize;
+        private final Listener listener;
+        private List<SoundClip> batch = new ArrayList<>();
+        private int found;
+        private boolean stopped;
+
+        Collector(Term[] terms, Album scope, int batchSize, Listener listener) {
+            this.terms = terms;
+            this.scope = scope;
+            this.batchSize = batchSize;
+            this.listener = listener;
+        }
+
+        // Returns false once the listener has stopped the search.
+        boolean offer(int id) {
+            if (!live.get(id) || !matches(id)) {
+                return true;
+            }
+            SoundClip soundClip = SoundClip.byId(id);
+            if (scope != null && !scope.containsSoundClip(soundClip)) {
+                return true;
+            }
+            batch.add(soundClip);
+            if (batch.size() >= batchSize) {
+                stopped = !deliver();
+            }
+            return !stopped;
+        }
+
+        private boolean matches(int id) {
+            String text = null; // the clip's normalized name, made when first needed
+            for (Term term : terms) {
+                if (term.inFolderOf(id)) {
+                    continue;
+                }
+                if (Arrays.binarySearch(term.clips, id) < 0) {
+                    return false;
+                }
+                if (!term.exact) {
+                    if (text == null) {
+                        text = ' ' + normalize(PathTable.INSTANCE.name(id));
+                    }
+                    if (!text.contains(term.needle)) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        int finish() {
+            if (!stopped && !batch.isEmpty()) {
+                deliver();
+            }
+            return found;
+        }
+
+        private boolean deliver() {
+            List<SoundClip> full = batch;
+            batch = new ArrayList<>();
+            found += full.size();
+            return listener.onResults(full);
+        }
+    }
+
+    // Maps grams to the sorted ids holding them, with open addressing.
+    private static final class GramTable {
+        private long[] keys = new long[1024];
+        private IdList[] values = new IdList[1024];
+        private int size;
+
+        void add(long gram, int id) {
+            int mask = keys.length - 1;
+            int i = slot(gram, mask);
+            while (values[i] != null && keys[i] != gram) {
+                i = (i + 1) & mask;
+            }
+            if (values[i] == null) {
+                keys[i] = gram;
+                values[i] = new IdList();
+                if (++size * 2 > keys.length) {
+                    grow();
+                    add(gram, id);
+                    return;
+                }
+            }
+            values[i].add(id);
+        }
+
+        private IdList get(long gram) {
+            int mask = keys.length - 1;
+            for (int i = slot(gram, mask); values[i] != null; i = (i + 1) & mask) {
+                if (keys[i] == gram) {
+                    return values[i];
+                }
+            }
+            return null;
+        }
+
+        // Returns the sorted ids holding every gram.
+        int[] intersect(long[] grams) {
+            IdList[] lists = new IdList[grams.length];
+            for (int i = 0; i < grams.length; i++) {
+                lists[i] = get(grams[i]);
+                if (lists[i] == null) {
+                    return NO_IDS;
+                }
+                lists[i].prepare();
+            }
+            Arrays.sort(lists, (a, b) -> Integer.compare(a.size, b.size));
+
+            int[] ids = Arrays.copyOf(lists[0].ids, lists[0].size);
+            int n = ids.length;
+            for (int i = 1; i < lists.length && n > 0; i++) {
+                n = lists[i].retainIn(ids, n);
+            }
+            return n == ids.length ? ids : Arrays.copyOf(ids, n);
+        }
+
+        void retain(BitSet keep) {
+            for (IdList list : values) {
+                if (list != null) {
+                    list.retain(keep);
+                }
+            }
+        }
+
+        long estimatedBytes() {
+            return 32 + 16 + 8L * keys.length + IdList.estimatedBytes(values);
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            IdList[] oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            values = new IdList[oldKeys.length * 2];
+            int mask = keys.length - 1;
+            for (int j = 0; j < oldKeys.length; j++) {
+                if (oldValues[j] != null) {
+                    int i = slot(oldKeys[j], mask);
+                    while (values[i] != null) {
+                        i = (i + 1) & mask;
+                    }
+                    keys[i] = oldKeys[j];
+                    values[i] = oldValues[j];
+                }
+            }
+        }
+
+        private static int slot(long gram, int mask) {
+            long h = gram * 0x9E3779B97F4A7C15L;
+            return (int) (h >>> 40) & mask;
+        }
+    }
+
+    // A growable list of ids, sorted and without duplicates whenever it is searched.
+    private static final class IdList {
+        int[] ids = new int[2];
+        int size;
+        boolean sorted = true;
+
+        void add(int id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size + (size >> 1) + 2);
+            }
+            if (size > 0 && ids[size - 1] >= id) {
+                sorted = false;
+            }
+            ids[size++] = id;
+        }
+
+        void addAll(int[] values, int count) {
+            for (int i = 0; i < count; i++) {
+                add(values[i]);
+            }
+        }
+
+        // Sorts the ids and drops duplicates, if ids were added out of order.
+        void prepare() {
+            if (sorted) {
+                return;
+            }
+            Arrays.sort(ids, 0, size);
+            int unique = 0;
+            for (int i = 0; i < size; i++) {
+                if (unique == 0 || ids[i] != ids[unique - 1]) {
+                    ids[unique++] = ids[i];
+                }
+            }
+            size = unique;
+            sorted = true;
+        }
+
+        // Keeps the first n of the sorted values that are also in this prepared
+        // list, and returns how many were kept.
+        int retainIn(int[] values, int n) {
+            int kept = 0;
+            int from = 0;
+            for (int i = 0; i < n && from < size; i++) {
+                // Gallop ahead, since values is usually much shorter than this list
+                int step = 1;
+                int to = from;
+                while (to < size && ids[to] < values[i]) {
+                    from = to + 1;
+                    to += step;
+                    step <<= 1;
+                }
+                int found = Arrays.binarySearch(ids, from, Math.min(to + 1, size), values[i]);
+                if (found >= 0) {
+                    values[kept++] = values[i];
+                    from = found + 1;
+                } else {
+                    from = -found - 1;
+                }
+            }
+            return kept;
+        }
+
+        void retain(BitSet keep) {
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                if (keep.get(ids[i])) {
+                    ids[kept++] = ids[i];
+                }
+            }
+            size = kept;
+            if (ids.length > 2 * size + 2) {
+                ids = Arrays.copyOf(ids, size + 2);
+            }
+        }
+
+        // Grows lists so that lists[index] exists, and returns it.
+        static IdList[] ensure(IdList[] lists, int index) {
+            if (index >= lists.length) {
+                lists = Arrays.copyOf(lists, Math.max(index + 1, lists.length * 2));
+            }
+            if (lists[index] == null) {
+                lists[index] = new IdList();
+            }
+            return lists;
+        }
+
+        static long estimatedBytes(IdList[] lists) {
+            long bytes = 16 + 4L * lists.length;
+            for (IdList list : lists) {
+                if (list != null) {
+                    bytes += 24 + 16 + 4L * list.ids.length;
+                }
+            }
+            return bytes;
+        }
+    }
+}
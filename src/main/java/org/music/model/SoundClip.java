@@ -1,14 +1,22 @@
 package org.music.model;
 
 import java.io.File;
+import java.io.IOException;
 
 /**
  * SoundClip is a class representing a digital
  * sound clip file on disk.
+ * <p>
+ * The path of the file is kept in a shared PathTable, so a clip only holds the
+ * id of its path. Clips for the same path have the same id, and are equal.
  */
 public class SoundClip {
 
-	private final File file;
+	// Stands in for metadata that couldn't be read, so the file isn't tried again
+	private static final AudioMetadata UNREADABLE = new AudioMetadata(0, 1, 1, 0, 1, 0);
+
+	private final int id;
+	private volatile AudioMetadata metadata; // null until first asked for
 	
 	/**
 	 * Make a SoundClip from a file.
@@ -16,29 +24,83 @@ public class SoundClip {
 	 */
 	public SoundClip(File file) {
 		assert file != null;
-		this.file = file;
+		this.id = PathTable.INSTANCE.intern(file);
+	}
+
+	private SoundClip(int id) {
+		this.id = id;
+	}
+
+	/**
+	 * Make a SoundClip for a path already in the PathTable.
+	 * Requires id to have been handed out by the PathTable.
+	 */
+	static SoundClip byId(int id) {
+		return new SoundClip(id);
+	}
+
+	/**
+	 * Make a SoundClip for the file called name in a folder interned in the
+	 * PathTable, without building a File first.
+	 */
+	static SoundClip inFolder(int folder, String name) {
+		return new SoundClip(PathTable.INSTANCE.intern(folder, name));
 	}
 
 	/**
-	 * @return the file containing this sound clip.
+	 * @return a number identifying the path of this clip. Ids are small and
+	 * dense, starting from 0, and stay the same while the program runs.
+	 */
+	public int getId() {
+		return id;
+	}
+
+	/**
+	 * @return the file containing this sound clip. A new File is made on every call.
 	 */
 	public File getFile() {
-		return file;
+		return PathTable.INSTANCE.file(id);
+	}
+
+	/**
+	 * @return the audio format of this clip, read from the header of its file the
+	 * first time it is asked for and remembered after that. Returns null if the
+	 * file can't be read or isn't a WAV file.
+	 */
+	public AudioMetadata getMetadata() {
+		AudioMetadata m = metadata;
+		if (m == null) {
+			// Two threads may both read the header, which is harmless
+			try {
+				m = WavHeaderParser.parse(getFile().toPath());
+			} catch (IOException | RuntimeException e) {
+				m = UNREADABLE;
+			}
+			metadata = m;
+		}
+		return m == UNREADABLE ? null : m;
+	}
+
+	/**
+	 * @return true if getMetadata() will return without touching the file.
+	 */
+	public boolean isMetadataLoaded() {
+		return metadata != null;
 	}
 	
 	public String toString(){
-		return file.getName();
+		return PathTable.INSTANCE.name(id);
 	}
 	
 	@Override
 	public boolean equals(Object obj) {
 		return 
 			obj instanceof SoundClip
-			&& ((SoundClip)obj).file.equals(file);
+			&& ((SoundClip)obj).id == id;
 	}
 	
 	@Override
 	public int hashCode() {
-		return file.hashCode();
+		return id;
 	}
 }
@@ -3,6 +3,12 @@ package org.music.model;
 import java.util.LinkedList;
 import java.util.List;
 
+/**
+ * @deprecated Wakes every waiting thread on each enqueue and serializes all
+ * producers on one lock. Use SoundClipHandoffQueue, which is bounded and lets
+ * producers add batches without waiting for each other.
+ */
+@Deprecated
 public class SoundClipBlockingQueue {
 
 	private List<List<SoundClip>> queue = new LinkedList<>();
@@ -0,0 +1,73 @@
+package org.music.model;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * SoundClipChange describes sound clips that were added to or removed from
+ * an album in a single operation, together with their positions in the album.
+ */
+public final class SoundClipChange {
+
+    private final boolean addition;
+    private final List<SoundClip> clips;
+    private final int from; // position of the first added clip
+    private final int[] positions; // positions of removed clips, null for additions
+
+    private SoundClipChange(boolean addition, List<SoundClip> clips, int from, int[] positions) {
+        this.addition = addition;
+        this.clips = clips;
+        this.from = from;
+        this.positions = positions;
+    }
+
+    /**
+     * Clips appended to an album that held from clips before the change.
+     * The change takes ownership of clips.
+     */
+    static SoundClipChange added(int from, List<SoundClip> clips) {
+        return new SoundClipChange(true, Collections.unmodifiableList(clips), from, null);
+    }
+
+    /**
+     * Clips removed from an album. positions[i] is the position clips.get(i) had
+     * before the change, and positions are in ascending order.
+     * The change takes ownership of clips and positions.
+     */
+    static SoundClipChange removed(List<SoundClip> clips, int[] positions) {
+        assert clips.size() == positions.length;
+        return new SoundClipChange(false, Collections.unmodifiableList(clips), -1, positions);
+    }
+
+    public boolean isAddition() {
+        return addition;
+    }
+
+    public boolean isRemoval() {
+        return !addition;
+    }
+
+    /**
+     * @return the added or removed clips, in album order.
+     */
+    public List<SoundClip> getClips() {
+        return clips;
+    }
+
+    public int size() {
+        return clips.size();
+    }
+
+    /**
+     * @return the position of the i:th clip. For an addition this is its position after
+     * the change, and for a removal its position before the change.
+     */
+    public int getPosition(int i) {
+        return addition ? from + i : positions[i];
+    }
+
+    @Override
+    public String toString() {
+        return (addition ? "added " : "removed ") + clips.size() + " clip(s)";
+    }
+}
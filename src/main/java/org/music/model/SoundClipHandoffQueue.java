@@ -0,0 +1,253 @@
+package org.music.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.music.metrics.Counter;
+import org.music.metrics.Histogram;
+import org.music.metrics.Metrics;
+
+/**
+ * SoundClipHandoffQueue hands batches of sound clips from any number of
+ * producers, such as the windows of the program, to the thread that plays them.
+ * It holds at most a fixed number of batches, and what happens when it is full
+ * is decided by its BackpressurePolicy.
+ * <p>
+ * Producers don't take a lock, so they never wait for each other, and each
+ * batch wakes at most the one waiting consumer. The consumer can take all
+ * waiting batches in one call, and wait for them with a timeout, and can be
+ * woken up without a batch when it has other work to do. The queue is meant for
+ * a single consumer, but several are safe.
+ * <p>
+ * How long the clips waited in the queue is recorded in the "playback.queued"
+ * histogram, once for every clip taken out. Dropped clips aren't recorded.
+ */
+public class SoundClipHandoffQueue {
+
+    /**
+     * What to do with a batch offered to a full queue.
+     */
+    public enum BackpressurePolicy {
+        /**
+         * Wait until the consumer makes room. offer rejects the batch instead, so
+         * that threads that must not wait, like the FX thread, never do.
+         */
+        BLOCK,
+        /**
+         * Drop the oldest waiting batch to make room. The batch is never rejected.
+         */
+        DROP_OLDEST,
+        /**
+         * Reject the batch.
+         */
+        REJECT
+    }
+
+    /**
+     * The number of batches a queue holds when no capacity is given.
+     */
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private static final Counter dropped = Metrics.counter("queue.dropped");
+    private static final Counter rejected = Metrics.counter("queue.rejected");
+    private static final Histogram queued = Metrics.histogram("playback.queued");
+
+    private final int capacity;
+    private final BackpressurePolicy policy;
+    private final Queue<Batch> batches = new ConcurrentLinkedQueue<>();
+    private final Semaphore space; // a permit for every free place
+    // A permit for every batch added. A batch dropped or drained in bulk may
+    // leave its permit behind, so a permit only means there may be a batch.
+    private final Semaphore added = new Semaphore(0);
+    private final AtomicBoolean woken = new AtomicBoolean(); // set by wakeUp until a drain returns
+
+    public SoundClipHandoffQueue() {
+        this(DEFAULT_CAPACITY, BackpressurePolicy.BLOCK);
+    }
+
+    /**
+     * Creates a queue holding at most capacity batches.
+     * Requires capacity > 0 and policy != null
+     */
+    public SoundClipHandoffQueue(int capacity, BackpressurePolicy policy) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        assert policy != null;
+        this.capacity = capacity;
+        this.policy = policy;
+        this.space = new Semaphore(capacity);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public BackpressurePolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * @return the number of batches waiting. Only an estimate while batches are being added or taken.
+     */
+    public int size() {
+        return Math.max(0, capacity - space.availablePermits());
+    }
+
+    /**
+     * Adds a batch of clips without waiting. If the queue is full, drops the
+     * oldest batch with the DROP_OLDEST policy, and rejects the batch otherwise.
+     * Requires soundClips != null
+     *
+     * @return false if the batch was rejected.
+     */
+    public boolean offer(List<SoundClip> soundClips) {
+        assert soundClips != null;
+        if (!space.tryAcquire() && !makeRoom()) {
+            rejected.increment();
+            return false;
+        }
+        add(soundClips);
+        return true;
+    }
+
+    /**
+     * Adds a batch of clips. If the queue is full, waits for room with the BLOCK
+     * policy, and otherwise does what offer does.
+     * Requires soundClips != null
+     *
+     * @return false if the batch was rejected.
+     */
+    public boolean put(List<SoundClip> soundClips) throws InterruptedException {
+        assert soundClips != null;
+        if (policy != BackpressurePolicy.BLOCK) {
+            return offer(soundClips);
+        }
+        space.acquire();
+        add(soundClips);
+        return true;
+    }
+
+    /**
+     * Removes the oldest batch, waiting until there is one.
+     */
+    public List<SoundClip> take() throws InterruptedException {
+        while (true) {
+            added.acquire();
+            Batch batch = poll();
+            if (batch != null) {
+                return taken(batch);
+            }
+        }
+    }
+
+    /**
+     * Removes all waiting batches, oldest first, waiting until there is at least
+     * one, or until wakeUp is called.
+     *
+     * @return the batches, or an empty list if woken up before there were any.
+     */
+    public List<List<SoundClip>> drain() throws InterruptedException {
+        while (true) {
+            added.acquire();
+            List<List<SoundClip>> drained = drainAvailable();
+            if (!drained.isEmpty() || woken.getAndSet(false)) {
+                return drained;
+            }
+        }
+    }
+
+    /**
+     * Makes the consumer waiting in drain return, or the next call to drain if
+     * none is waiting, even if there are no batches.
+     */
+    public void wakeUp() {
+        // Set before releasing, so a consumer woken by the permit sees it
+        woken.set(true);
+        added.release();
+    }
+
+    /**
+     * Removes all waiting batches, oldest first, waiting at most timeout for
+     * there to be at least one.
+     *
+     * @return the batches, or an empty list if there were none before the timeout.
+     */
+    public List<List<SoundClip>> drain(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (true) {
+            long remaining = deadline - System.nanoTime();
+            if (!added.tryAcquire(Math.max(0, remaining), TimeUnit.NANOSECONDS)) {
+                return new ArrayList<>();
+            }
+            List<List<SoundClip>> drained = drainAvailable();
+            if (!drained.isEmpty()) {
+                return drained;
+            }
+        }
+    }
+
+    private void add(List<SoundClip> soundClips) {
+        // Add before signalling, so a consumer woken by the permit finds the batch
+        batches.add(new Batch(soundClips, System.nanoTime()));
+        added.release();
+    }
+
+    private Batch poll() {
+        Batch batch = batches.poll();
+        if (batch != null) {
+            space.release();
+        }
+        return batch;
+    }
+
+    // Records how long the clips of a batch that is taken out waited.
+    private static List<SoundClip> taken(Batch batch) {
+        queued.record(System.nanoTime() - batch.addedNanos, batch.soundClips.size());
+        return batch.soundClips;
+    }
+
+    // Takes every batch there is. The permits of the batches are dropped too,
+    // and the queue is checked again afterwards, so that no batch added in
+    // between is left without a permit.
+    private List<List<SoundClip>> drainAvailable() {
+        List<List<SoundClip>> drained = new ArrayList<>();
+        do {
+            Batch batch;
+            while ((batch = poll()) != null) {
+                drained.add(taken(batch));
+            }
+            added.drainPermits();
+        } while (!batches.isEmpty());
+        return drained;
+    }
+
+    // Drops the oldest batch until a place can be taken, with the DROP_OLDEST
+    // policy. Returns true if a place was taken.
+    private boolean makeRoom() {
+        if (policy != BackpressurePolicy.DROP_OLDEST) {
+            return false;
+        }
+        do {
+            if (poll() != null) {
+                dropped.increment();
+            }
+        } while (!space.tryAcquire());
+        return true;
+    }
+
+    private static final class Batch {
+        final List<SoundClip> soundClips;
+        final long addedNanos;
+
+        Batch(List<SoundClip> soundClips, long addedNanos) {
+            this.soundClips = soundClips;
+            this.addedNanos = addedNanos;
+        }
+    }
+}
@@ -6,11 +6,18 @@ import java.io.FilenameFilter;
 import java.util.HashSet;
 import java.util.Set;
 
+import org.music.metrics.Counter;
+import org.music.metrics.Log;
+import org.music.metrics.Metrics;
+
 /**
  * SoundClipLoader finds sound clip files on disk.
  */
 public class SoundClipLoader {
 
+    private static final Counter filesLoaded = Metrics.counter("loader.files");
+    private static final Counter foldersListed = Metrics.counter("loader.folders");
+
     /**
      * Returns a set of sound clips representing all .WAV files under a given
      * folder (including subfolders as well).
@@ -35,9 +42,11 @@ public class SoundClipLoader {
     // Find all WAV files in folder and its sub folders and add them to set.
     // Requires folder to be an actual folder on disk and set != null.
     private static void addSoundClipsToSet(File folder, Set<SoundClip> set) {
+        foldersListed.increment();
         for (File f : findWAVFiles(folder)) {
-            System.out.println("Loading... " + f.getAbsolutePath());
+            Log.debug("Loading... %s", f);
             set.add(new SoundClip(f));
+            filesLoaded.increment();
         }
 
         for (File g : findSubFolders(folder)) {
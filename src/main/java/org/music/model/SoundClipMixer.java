@@ -0,0 +1,356 @@
+package org.music.model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.sound.sampled.AudioFormat;
+
+import org.music.metrics.Counter;
+import org.music.metrics.Log;
+import org.music.metrics.Metrics;
+
+/**
+ * SoundClipMixer plays any number of sound clips at the same time, by adding
+ * them up into one stream of audio. Each clip playing is a Voice with a gain
+ * of its own. Clips are taken decoded from a PcmCache, in its format, which
+ * has to be 16 bit little-endian PCM.
+ * <p>
+ * Voices sit in a fixed number of slots, which are filled and emptied with
+ * compare-and-set, so playing or stopping a clip never waits for the mixer.
+ * The mixer works in blocks of a fixed number of frames, and mixing a block
+ * allocates nothing.
+ * <p>
+ * A mixer can be used in two ways. render mixes the next frames into a buffer
+ * on the calling thread, which gives the same output for the same calls every
+ * time, for tests and benchmarks. start instead mixes on a thread of its own,
+ * a few blocks ahead into a ring buffer, from which a second thread writes to
+ * a sink that plays in real time, like a LineAudioSink.
+ */
+public class SoundClipMixer implements AutoCloseable {
+
+    /**
+     * The number of frames mixed at a time when no block size is given, about 6 ms at 44.1 kHz.
+     */
+    public static final int DEFAULT_BLOCK_FRAMES = 256;
+
+    /**
+     * The number of clips that can play at once when no number is given.
+     */
+    public static final int DEFAULT_MAX_VOICES = 64;
+
+    /**
+     * The highest gain a voice can have, about 12 dB louder than recorded.
+     */
+    public static final float MAX_GAIN = 4f;
+
+    /**
+     * The number of blocks mixed ahead of the sink.
+     */
+    static final int RING_BLOCKS = 4;
+
+    private static final Counter voicesDropped = Metrics.counter("mixer.voicesDropped");
+    private static final Counter underruns = Metrics.counter("mixer.underruns");
+
+    private final PcmCache cache;
+    private final AudioFormat format;
+    private final int channels;
+    private final int blockFrames;
+    private final AtomicReferenceArray<Voice> voices;
+    private final long[] mix; // the sum of the voices for one block, wide enough that it never wraps
+    private final byte[] block; // one mixed block, as bytes
+
+    // Set by start
+    private volatile boolean started;
+    private volatile boolean closed;
+    private AudioSink sink;
+    private Thread mixerThread;
+    private Thread outputThread;
+    private byte[] ring;
+    private final AtomicLong written = new AtomicLong(); // bytes mixed into the ring so far
+    private final AtomicLong read = new AtomicLong(); // bytes written from the ring to the sink so far
+
+    public SoundClipMixer(PcmCache cache) {
+        this(cache, DEFAULT_BLOCK_FRAMES, DEFAULT_MAX_VOICES);
+    }
+
+    /**
+     * Creates a mixer of clips from cache, mixing blockFrames frames at a time
+     * of at most maxVoices clips.
+     * Requires the format of cache to be 16 bit little-endian signed PCM, blockFrames > 0 and maxVoices > 0
+     */
+    public SoundClipMixer(PcmCache cache, int blockFrames, int maxVoices) {
+        AudioFormat format = cache.getFormat();
+        if (format.getEncoding() != AudioFormat.Encoding.PCM_SIGNED || format.getSampleSizeInBits() != 16
+                || format.isBigEndian()) {
+            throw new IllegalArgumentException("Can only mix 16 bit little-endian signed PCM");
+        }
+        if (blockFrames <= 0 || maxVoices <= 0) {
+            throw new IllegalArgumentException("Block size and number of voices must be positive");
+        }
+        this.cache = cache;
+        this.format = format;
+        this.channels = format.getChannels();
+        this.blockFrames = blockFrames;
+        this.voices = new AtomicReferenceArray<>(maxVoices);
+        this.mix = new long[blockFrames * channels];
+        this.block = new byte[blockFrames * format.getFrameSize()];
+    }
+
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+    public int getBlockFrames() {
+        return blockFrames;
+    }
+
+    public int getMaxVoices() {
+        return voices.length();
+    }
+
+    /**
+     * @return the number of clips playing.
+     */
+    public int getVoiceCount() {
+        int count = 0;
+        for (int i = 0; i < voices.length(); i++) {
+            if (voices.get(i) != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Starts playing a clip from the next block on, decoding it first unless it is in the cache.
+     *
+     * @return the voice playing the clip, or null if the most voices are playing already.
+     * @throws IOException if the clip can't be decoded.
+     */
+    public Voice play(SoundClip soundClip, float gain) throws IOException {
+        return play(cache.get(soundClip), gain);
+    }
+
+    /**
+     * Starts playing decoded audio in the format of the mixer from the next block on.
+     * Requires 0 <= gain <= MAX_GAIN
+     *
+     * @return the voice playing the audio, or null if the most voices are playing already.
+     */
+    public Voice play(ByteBuffer pcm, float gain) {
+        Voice voice = new Voice(pcm, gain);
+        for (int i = 0; i < voices.length(); i++) {
+            if (voices.get(i) == null && voices.compareAndSet(i, null, voice)) {
+                return voice;
+            }
+        }
+        voicesDropped.increment();
+        return null;
+    }
+
+    /**
+     * Stops every voice.
+     */
+    public void stopAll() {
+        for (int i = 0; i < voices.length(); i++) {
+            Voice voice = voices.get(i);
+            if (voice != null) {
+                voice.stop();
+            }
+        }
+    }
+
+    /**
+     * Mixes the next frames of the voices playing into out, moving them on.
+     * Requires the mixer not to have been started, and out to have room for frames frames from offset
+     */
+    public void render(byte[] out, int offset, int frames) {
+        if (started) {
+            throw new IllegalStateException("Mixer renders to its sink");
+        }
+        int frameSize = format.getFrameSize();
+        while (frames > 0) {
+            int n = Math.min(frames, blockFrames);
+            mixBlock(n);
+            System.arraycopy(block, 0, out, offset, n * frameSize);
+            offset += n * frameSize;
+            frames -= n;
+        }
+    }
+
+    /**
+     * Starts mixing on a thread of its own, and playing through sink. The
+     * mixer owns the sink from now on, and closes it.
+     * Requires sink to be of the format of the mixer, and to play in real time
+     */
+    public synchronized void start(AudioSink sink) {
+        if (started || closed) {
+            throw new IllegalStateException("Mixer already started");
+        }
+        if (!format.matches(sink.getFormat())) {
+            throw new IllegalArgumentException("Sink must be of the format of the mixer");
+        }
+        this.sink = sink;
+        this.ring = new byte[RING_BLOCKS * block.length];
+        started = true;
+
+        mixerThread = new Thread(this::mixToRing, "mixer");
+        outputThread = new Thread(this::writeFromRing, "mixer-output");
+        for (Thread thread : new Thread[] { mixerThread, outputThread }) {
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MAX_PRIORITY);
+            thread.start();
+        }
+    }
+
+    /**
+     * Stops playing, ends the threads of the mixer and closes its sink.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        stopAll();
+        if (started) {
+            LockSupport.unpark(mixerThread);
+            LockSupport.unpark(outputThread);
+            try {
+                mixerThread.join();
+                outputThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            sink.close();
+        }
+    }
+
+    // Mixes frames frames of every voice into block, and empties the slots of
+    // the voices that are done.
+    private void mixBlock(int frames) {
+        int samples = frames * channels;
+        Arrays.fill(mix, 0, samples, 0);
+        for (int i = 0; i < voices.length(); i++) {
+            Voice voice = voices.get(i);
+            if (voice != null && !voice.mixInto(mix, samples)) {
+                voices.compareAndSet(i, voice, null);
+            }
+        }
+        for (int i = 0, j = 0; i < samples; i++, j += 2) {
+            int sample = (int) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, mix[i]));
+            block[j] = (byte) sample;
+            block[j + 1] = (byte) (sample >> 8);
+        }
+    }
+
+    // Main loop of the mixer thread. Keeps the ring full of mixed blocks, silence when nothing plays.
+    private void mixToRing() {
+        while (!closed) {
+            long position = written.get();
+            if (position - read.get() > ring.length - block.length) {
+                LockSupport.park(this); // full, the output thread wakes us when it made room
+                continue;
+            }
+            mixBlock(blockFrames);
+            // The ring holds whole blocks, so a block never wraps around its end
+            System.arraycopy(block, 0, ring, (int) (position % ring.length), block.length);
+            written.set(position + block.length);
+            LockSupport.unpark(outputThread);
+        }
+    }
+
+    // Main loop of the output thread. Writes mixed blocks from the ring to the sink.
+    private void writeFromRing() {
+        boolean starved = false; // whether the current wait for the mixer was counted as an underrun
+        while (!closed) {
+            long position = read.get();
+            if (position == written.get()) {
+                // Waiting only cuts into the sound once something has been mixed and
+                // clips are playing, and one wait is one gap however often we wake
+                if (!starved && position > 0 && getVoiceCount() > 0) {
+                    underruns.increment();
+                    starved = true;
+                }
+                LockSupport.park(this); // empty, the mixer thread wakes us when it mixed a block
+                continue;
+            }
+            starved = false;
+            try {
+                sink.write(ring, (int) (position % ring.length), block.length);
+            } catch (IOException e) {
+                Log.error(e, "Could not play the mix");
+                return;
+            }
+            read.set(position + block.length);
+            LockSupport.unpark(mixerThread);
+        }
+    }
+
+    /**
+     * A clip playing in a mixer.
+     */
+    public static final class Voice {
+        private final ShortBuffer samples;
+        private volatile int position; // the next sample to mix, only moved by the mixing thread
+        private volatile float gain;
+        private volatile boolean stopped;
+
+        Voice(ByteBuffer pcm, float gain) {
+            this.samples = pcm.duplicate().order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+            setGain(gain);
+        }
+
+        public float getGain() {
+            return gain;
+        }
+
+        /**
+         * Sets how loud the clip plays, 1 being as recorded. Takes effect from the next block on.
+         * Requires 0 <= gain <= MAX_GAIN
+         */
+        public void setGain(float gain) {
+            if (!(gain >= 0 && gain <= MAX_GAIN)) {
+                throw new IllegalArgumentException("Gain must be between 0 and " + MAX_GAIN);
+            }
+            this.gain = gain;
+        }
+
+        /**
+         * Stops the clip from the next block on.
+         */
+        public void stop() {
+            stopped = true;
+        }
+
+        /**
+         * @return true once the clip has played to its end or was stopped.
+         */
+        public boolean isDone() {
+            return stopped || position >= samples.limit();
+        }
+
+        // Adds the next samples of the clip, at most count, to mix. Returns false once the voice is done.
+        boolean mixInto(long[] mix, int count) {
+            if (stopped) {
+                return false;
+            }
+            float g = gain;
+            int start = position;
+            int n = Math.min(count, samples.limit() - start);
+            for (int i = 0; i < n; i++) {
+                mix[i] += (int) (samples.get(start + i) * g);
+            }
+            position = start + n;
+            return start + n < samples.limit();
+        }
+    }
+}
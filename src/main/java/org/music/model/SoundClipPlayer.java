@@ -1,104 +1,485 @@
 package org.music.model;
 
-import java.net.MalformedURLException;
-import java.nio.file.FileSystems;
-import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
-import javafx.scene.media.Media;
-import javafx.scene.media.MediaPlayer;
+import org.music.metrics.Histogram;
+import org.music.metrics.Log;
+import org.music.metrics.Metrics;
 
-public class SoundClipPlayer implements Runnable {
+/**
+ * SoundClipPlayer plays the sound clips handed to it through a
+ * SoundClipHandoffQueue, one after the other, with a short pause in between.
+ * <p>
+ * The thread started by start() moves clips from the queue to the end of the
+ * playlist, and opens the clips that are about to be played. It waits on the
+ * queue without using any CPU while there is nothing to do, and can be a
+ * virtual thread. Clips are opened without holding the player's lock, so the
+ * transport controls and the callbacks of the tracks, which may run on the FX
+ * thread, never wait for a slow open. Playing itself is driven by the tracks:
+ * when a clip ends, the next one is started once it is open. The transport
+ * controls pause, resume, skip and clear may be called from any thread. stop
+ * shuts the player down for good, and returns once its thread has ended.
+ * <p>
+ * For gapless playback, the player can open the next one or two clips while
+ * the current one plays, and the pause between clips can be shortened down to
+ * nothing. A preloaded clip is swapped in as soon as the current one ends.
+ * Every track is disposed as soon as it is done with, whether it was played,
+ * skipped, cleared or only preloaded.
+ * <p>
+ * The time each clip spends in every stage of starting is recorded in a
+ * histogram: opening its track in "playback.opened", from then until the track
+ * is ready in "playback.ready", and from being told to play, or getting ready
+ * if that was later, until it plays in "playback.started". The time from the
+ * end of one clip to the start of the next is recorded in "playback.gap".
+ */
+public class SoundClipPlayer {
 
-    private SoundClipBlockingQueue queue;
-    private List<SoundClip> clips; // The list of SoundClips to play with the media player
-    private static final int SLEEP_DELAY = 500; // Sleep time in ms between sound clips when playing several in a row
-    private boolean playing = false; // True when playing SoundClips, false otherwise
+    /**
+     * What a player is doing.
+     */
+    public enum State {
+        /**
+         * Nothing left to play.
+         */
+        IDLE,
+        PLAYING,
+        PAUSED,
+        /**
+         * Shut down by stop().
+         */
+        STOPPED
+    }
+
+    /**
+     * The pause in ms between sound clips when playing several in a row, unless set otherwise.
+     */
+    public static final long DEFAULT_GAP_MILLIS = 500;
+
+    /**
+     * The most clips that can be opened ahead of time.
+     */
+    public static final int MAX_PRELOAD_COUNT = 2;
+
+    private static final Histogram opened = Metrics.histogram("playback.opened");
+    private static final Histogram ready = Metrics.histogram("playback.ready");
+    private static final Histogram started = Metrics.histogram("playback.started");
+    private static final Histogram gap = Metrics.histogram("playback.gap");
 
-    public SoundClipPlayer(SoundClipBlockingQueue queue) {
+    private final SoundClipHandoffQueue queue;
+    private final MediaBackend backend;
+
+    // Guarded by this
+    private final Deque<SoundClip> playlist = new ArrayDeque<>(); // the clips waiting to be played, after preloaded
+    private final Deque<OpenClip> preloaded = new ArrayDeque<>(); // the next clips to play, already opened
+    private SoundClip opening; // the clip after preloaded being opened by the thread, or null
+    private Thread thread;
+    private OpenClip current; // null when no clip is playing
+    private long gapMillis = DEFAULT_GAP_MILLIS;
+    private int preloadCount;
+    private boolean pausing; // true during the pause between two clips
+    private boolean paused;
+    private boolean stopped;
+    private long transition; // changes whenever the current clip does, so late callbacks can be told apart
+    private long endedNanos; // when the last clip ended with more to play, 0 while no gap is being timed
+
+    /**
+     * Creates a player that plays clips from queue with JavaFX.
+     */
+    public SoundClipPlayer(SoundClipHandoffQueue queue) {
+        this(queue, new FxMediaBackend());
+    }
+
+    /**
+     * Creates a player that plays clips from queue through backend.
+     * Requires queue != null and backend != null
+     */
+    public SoundClipPlayer(SoundClipHandoffQueue queue, MediaBackend backend) {
+        assert queue != null && backend != null;
         this.queue = queue;
-        clips = new ArrayList<>();
+        this.backend = backend;
+    }
+
+    /**
+     * Starts taking clips from the queue, on a virtual thread.
+     */
+    public void start() {
+        start(Thread.ofVirtual().name("sound-clip-player"));
     }
 
-    // Main loop for the SoundClipPlayer thread
-    //
-    // The thread will dequeue a list of SoundClips from the
-    // SoundClipBlockingQueue and play add them to the list
-    // of SoundClips to play. If the queue is empty, the thread
-    // will go to sleep until there is a SoundClip to retrieve
-    // from the queue.
+    /**
+     * Starts taking clips from the queue, on a thread made by builder.
+     * Requires the player not to have been started before
+     */
+    public synchronized void start(Thread.Builder builder) {
+        if (thread != null || stopped) {
+            throw new IllegalStateException("Player already started");
+        }
+        thread = builder.unstarted(this::run);
+        thread.start();
+    }
 
-    @Override
-    public void run() {
-        List<SoundClip> sc = null;
-        while (true) {
+    /**
+     * Stops playing, empties the playlist and ends the player's thread, waiting
+     * for it to end. Clips still in the queue are left there. The player can't
+     * be started again.
+     */
+    public void stop() {
+        Thread stopping;
+        synchronized (this) {
+            if (stopped) {
+                return;
+            }
+            stopped = true;
+            stopping = thread;
+            clear();
+        }
+        if (stopping != null) {
+            stopping.interrupt();
             try {
-                // Retrieve the list of SoundClips from the blocking queue
-                sc = queue.dequeue();
+                stopping.join();
             } catch (InterruptedException e) {
-                e.printStackTrace();
+                Thread.currentThread().interrupt();
             }
-            if (sc != null) {
-                // Add the retrieved SoundClips to the list of SoundClips to play
-                clips.addAll(sc);
+        }
+    }
+
+    /**
+     * Sets the pause between two clips. With no pause, the next clip starts as
+     * soon as the current one ends.
+     * Requires gapMillis >= 0
+     */
+    public synchronized void setGapMillis(long gapMillis) {
+        if (gapMillis < 0) {
+            throw new IllegalArgumentException("Gap must not be negative");
+        }
+        this.gapMillis = gapMillis;
+    }
+
+    public synchronized long getGapMillis() {
+        return gapMillis;
+    }
+
+    /**
+     * Sets how many of the next clips to open while the current one plays, so
+     * that they are ready to start right away.
+     * Requires 0 <= preloadCount <= MAX_PRELOAD_COUNT
+     */
+    public synchronized void setPreloadCount(int preloadCount) {
+        if (preloadCount < 0 || preloadCount > MAX_PRELOAD_COUNT) {
+            throw new IllegalArgumentException("Can preload 0 to " + MAX_PRELOAD_COUNT + " clips");
+        }
+        this.preloadCount = preloadCount;
+        while (preloaded.size() > preloadCount) {
+            OpenClip last = preloaded.pollLast();
+            last.track.dispose();
+            playlist.addFirst(last.soundClip);
+        }
+        queue.wakeUp(); // to preload more
+    }
 
-                // If not currently playing SoundClips, play the SoundClips
-                // Note: if already playing, the newly retrieved SoundClips are
-                // already added to the list that is being played. Therefore,
-                // we don't need to invoke playClips again in that case
+    public synchronized int getPreloadCount() {
+        return preloadCount;
+    }
+
+    /**
+     * Pauses the current clip. Clips arriving while paused wait in the playlist.
+     */
+    public synchronized void pause() {
+        paused = true;
+        endedNanos = 0; // a gap spent paused isn't a gap between clips
+        if (current != null) {
+            current.track.pause();
+        }
+    }
+
+    /**
+     * Continues playing where pause left off.
+     */
+    public synchronized void resume() {
+        paused = false;
+        if (current != null) {
+            play(current);
+        } else if (!pausing) {
+            playNext();
+        }
+    }
+
+    /**
+     * Stops the current clip and starts the next one right away.
+     */
+    public synchronized void skip() {
+        if (current != null || pausing) {
+            endedNanos = 0;
+            playNext();
+        }
+    }
+
+    /**
+     * Stops the current clip and empties the playlist.
+     */
+    public synchronized void clear() {
+        playlist.clear();
+        opening = null; // disposed by the thread once it is open
+        for (OpenClip openClip : preloaded) {
+            openClip.track.dispose();
+        }
+        preloaded.clear();
+        disposeCurrent();
+        pausing = false;
+        endedNanos = 0;
+        transition++;
+    }
 
-                if (!playing)
-                    playClips();
+    public synchronized State getState() {
+        if (stopped) {
+            return State.STOPPED;
+        }
+        if (paused) {
+            return State.PAUSED;
+        }
+        return current != null || pausing || opening != null ? State.PLAYING : State.IDLE;
+    }
+
+    /**
+     * @return the clip being played, or null.
+     */
+    public synchronized SoundClip getCurrentClip() {
+        return current == null ? null : current.soundClip;
+    }
+
+    /**
+     * @return the clips waiting to be played, in order.
+     */
+    public synchronized List<SoundClip> getPlaylist() {
+        List<SoundClip> soundClips = new ArrayList<>(preloaded.size() + playlist.size());
+        for (OpenClip openClip : preloaded) {
+            soundClips.add(openClip.soundClip);
+        }
+        if (opening != null) {
+            soundClips.add(opening);
+        }
+        soundClips.addAll(playlist);
+        return soundClips;
+    }
+
+    // Main loop of the player's thread. Opens the clips that are needed next, and
+    // otherwise moves clips from the queue to the playlist, starting to play if
+    // the player was idle. Anything that may need a clip opened wakes it up.
+    private void run() {
+        try {
+            while (true) {
+                SoundClip soundClip;
+                synchronized (this) {
+                    if (stopped) {
+                        return;
+                    }
+                    soundClip = nextToOpen();
+                }
+                if (soundClip != null) {
+                    opened(soundClip, open(soundClip));
+                    continue;
+                }
+
+                List<List<SoundClip>> batches = queue.drain();
+                synchronized (this) {
+                    if (stopped) {
+                        return;
+                    }
+                    for (List<SoundClip> batch : batches) {
+                        playlist.addAll(batch);
+                    }
+                    if (current == null && !pausing && !paused && !batches.isEmpty()) {
+                        playNext();
+                    }
+                }
             }
+        } catch (InterruptedException e) {
+            // Stopped
         }
     }
 
-    // Plays the SoundClips
-    private synchronized void playClips() {
-        if (clips == null || clips.size() == 0) {
-            // Finished playing all the SoundClips
-            playing = false;
+    // Takes the clip the thread should open next from the playlist, or returns null
+    // if there is none: the clip to start when nothing is playing and nothing is
+    // open, or the next one to preload while a clip plays or the gap before it runs.
+    // Requires the lock to be held.
+    private SoundClip nextToOpen() {
+        if (opening != null || playlist.isEmpty()) {
+            return null;
+        }
+        boolean idle = current == null && !pausing;
+        if (idle ? paused || !preloaded.isEmpty() : preloaded.size() >= preloadCount) {
+            return null;
+        }
+        opening = playlist.pollFirst();
+        return opening;
+    }
+
+    // Takes in a clip the thread has opened, or failed to open if openClip is null.
+    // It is started if the player is waiting for it, and preloaded otherwise.
+    private synchronized void opened(SoundClip soundClip, OpenClip openClip) {
+        if (opening != soundClip) {
+            // Cleared while it was being opened
+            if (openClip != null) {
+                openClip.track.dispose();
+            }
+            return;
+        }
+        opening = null;
+        if (openClip == null) {
             return;
         }
+        preloaded.add(openClip);
+        if (current == null && !pausing) {
+            if (!paused) {
+                playNext();
+            }
+        } else if (preloaded.size() > preloadCount) {
+            // Fewer clips are preloaded than when it was taken
+            preloaded.pollLast().track.dispose();
+            playlist.addFirst(soundClip);
+        }
+    }
+
+    // Starts the next open clip that can be played, if any, and has the thread open
+    // the next clips. Requires the lock to be held.
+    private void playNext() {
+        disposeCurrent();
+        pausing = false;
+        long started = ++transition;
+
+        OpenClip next = null;
+        while (next == null && !preloaded.isEmpty()) {
+            next = preloaded.pollFirst();
+            if (next.failed) {
+                next.track.dispose();
+                next = null;
+            }
+        }
+        if (next != null) {
+            current = next;
+            next.track.setOnEndOfMedia(() -> onEndOfMedia(started));
+            Log.info("Now playing %s", next.soundClip.getFile());
+            if (!paused) {
+                play(next);
+            }
+        }
+        // Open the clips after it only once it has started, so they don't delay it
+        queue.wakeUp();
+    }
+
+    // Returns the opened clip, or null if it can't be opened. Called without the lock.
+    private OpenClip open(SoundClip soundClip) {
         try {
-            playing = true;
+            long start = System.nanoTime();
+            OpenClip openClip = new OpenClip(soundClip, backend.open(soundClip));
+            openClip.createdNanos = System.nanoTime();
+            opened.record(openClip.createdNanos - start);
+            openClip.track.setOnError(() -> onError(openClip));
+            openClip.track.setOnPlaying(() -> onPlaying(openClip));
+            openClip.track.setOnReady(() -> onReady(openClip));
+            return openClip;
+        } catch (RuntimeException e) {
+            Log.error(e, "Could not open %s", soundClip.getFile());
+            return null;
+        }
+    }
 
-            SoundClip sc = clips.remove(0); // Remove the first SoundClip from the list
-            String name = sc.getFile().toString();
-            System.out.println("Now playing " + name);
+    // Requires the lock to be held.
+    private void play(OpenClip openClip) {
+        if (openClip.playNanos == 0) {
+            openClip.playNanos = System.nanoTime();
+        }
+        openClip.track.play();
+    }
 
-            // Setup the MediaPlayer
-            Path audioPath = FileSystems.getDefault().getPath(name);
+    private void onReady(OpenClip openClip) {
+        long now = System.nanoTime();
+        openClip.readyNanos = now;
+        ready.record(now - openClip.createdNanos);
+    }
 
-            Media media = new Media(audioPath.toUri().toURL().toExternalForm());
-            MediaPlayer player = new MediaPlayer(media);
+    private synchronized void onPlaying(OpenClip openClip) {
+        long now = System.nanoTime();
+        if (openClip.playing) {
+            return; // resumed after a pause
+        }
+        openClip.playing = true;
+        if (openClip.readyNanos != 0) {
+            started.record(now - Math.max(openClip.readyNanos, openClip.playNanos));
+        }
+        if (openClip == current && endedNanos != 0) {
+            gap.record(now - endedNanos);
+            endedNanos = 0;
+        }
+    }
 
-            // Setup media event handler, which will recursively call this method
-            // when the play back of the current SoundClip has ended.
-            //
-            // Note: In each recursion, the size of the list of SoundClips is reduced by 1.
-            // Therefore, it will eventually become empty, and play back will stop
+    private synchronized void onError(OpenClip openClip) {
+        Log.warn("Could not play %s", openClip.soundClip.getFile());
+        openClip.failed = true; // a preloaded clip is skipped when its turn comes
+        if (openClip == current) {
+            onEndOfMedia(transition);
+        }
+    }
 
-            player.setOnEndOfMedia(new Runnable() {
-                @Override
-                public void run() {
-                    playClips();
-                }
-            });
+    // Called when the clip started at transition ended, or failed. Moves on to
+    // the next clip, after the gap.
+    private synchronized void onEndOfMedia(long ended) {
+        long now = System.nanoTime();
+        if (ended != transition || stopped) {
+            return; // the clip was skipped or cleared before it ended
+        }
+        disposeCurrent();
+        if (preloaded.isEmpty() && opening == null && playlist.isEmpty()) {
+            return;
+        }
+        endedNanos = now;
+        if (gapMillis == 0) {
+            if (!paused) {
+                playNext();
+            }
+            return;
+        }
+        pausing = true;
+        long waiting = ++transition;
+        queue.wakeUp(); // to preload during the gap
+        CompletableFuture.delayedExecutor(gapMillis, TimeUnit.MILLISECONDS).execute(() -> onGapOver(waiting));
+    }
+
+    private synchronized void onGapOver(long waiting) {
+        if (waiting != transition || stopped) {
+            return;
+        }
+        pausing = false;
+        if (!paused) {
+            playNext();
+        }
+    }
 
-            // Play the SoundClip
-            player.play();
+    private void disposeCurrent() {
+        if (current != null) {
+            current.track.dispose();
+        }
+        current = null;
+    }
 
-            // Put the current thread to sleep for a short while, in order to introduce a short
-            // pause in between the play back of consecutive SoundClips
+    // A clip opened for playing.
+    private static final class OpenClip {
+        final SoundClip soundClip;
+        final MediaBackend.Track track;
+        boolean failed; // guarded by the player
+        volatile long createdNanos; // when the track was opened
+        volatile long readyNanos; // when the track got ready, 0 before
+        long playNanos; // when the track was first told to play, 0 before; guarded by the player
+        boolean playing; // true once the track started playing; guarded by the player
 
-            Thread.sleep(SLEEP_DELAY);
-        } catch (MalformedURLException e) {
-            System.out.println("MalformedURLException in SoundClipPlayer");
-            e.printStackTrace();
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+        OpenClip(SoundClip soundClip, MediaBackend.Track track) {
+            this.soundClip = soundClip;
+            this.track = track;
         }
     }
 }
@@ -0,0 +1,270 @@
+package org.music.model;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.FileVisitOption;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.music.metrics.Counter;
+import org.music.metrics.Metrics;
+import org.music.metrics.Timer;
+
+/**
+ * SoundClipScanner finds sound clip files on disk like SoundClipLoader, but
+ * scans folders in parallel. Each folder is listed once, with the file
+ * attributes returned by the listing, and its sub folders are handed to a
+ * work-stealing pool so that idle threads pick up work from busy ones.
+ * <p>
+ * Clips can be collected into a set, or streamed to a ScanListener in batches
+ * while the scan is still running. With a ScanCache, folders that haven't changed
+ * since the last scan are taken from the cache instead of being listed.
+ * Symbolic links are followed, like SoundClipLoader does, but every folder is
+ * scanned at most once per scan, so links that loop back are harmless. A folder
+ * reached through more than one path is scanned through whichever is found first.
+ */
+public class SoundClipScanner {
+
+    /**
+     * The number of threads used when no parallelism is given.
+     */
+    public static final int DEFAULT_PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * The number of clips passed to a ScanListener at a time when no batch size is given.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+
+    private static final Counter filesFound = Metrics.counter("scanner.files");
+    private static final Counter foldersListed = Metrics.counter("scanner.foldersListed");
+    private static final Counter foldersCached = Metrics.counter("scanner.foldersCached");
+    private static final Timer scans = Metrics.timer("scanner.scan");
+
+    private final int parallelism;
+
+    public SoundClipScanner() {
+        this(DEFAULT_PARALLELISM);
+    }
+
+    /**
+     * Creates a scanner that uses at most parallelism threads.
+     * Requires parallelism > 0
+     */
+    public SoundClipScanner(int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("Parallelism must be positive");
+        }
+        this.parallelism = parallelism;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Returns a set of sound clips representing all .WAV files under a given
+     * folder (including subfolders as well).
+     *
+     * @param path the string representing the path to the folder.
+     *             If path does not correspond to an actual folder in the filesystem,
+     *             returns an empty set.
+     */
+    public Set<SoundClip> scan(String path) {
+        Set<SoundClip> set = new HashSet<>();
+        scan(path, Integer.MAX_VALUE, set::addAll);
+        return set;
+    }
+
+    /**
+     * Scans all .WAV files under a given folder (including subfolders as well),
+     * and passes them to listener in batches of at most batchSize clips as they
+     * are found. Returns when the scan is finished.
+     *
+     * @param path the string representing the path to the folder.
+     *             If path does not correspond to an actual folder in the filesystem,
+     *             the listener is only told that the scan finished.
+     */
+    public void scan(String path, int batchSize, ScanListener listener) {
+        scan(path, batchSize, listener, null);
+    }
+
+    /**
+     * Like scan(path, batchSize, listener), but takes unchanged folders from cache
+     * and records what was found in it. Save the cache afterwards to use it next time.
+     * Requires cache to be null or belong to the library at path.
+     */
+    public void scan(String path, int batchSize, ScanListener listener, ScanCache cache) {
+        assert batchSize > 0 && listener != null;
+
+        long start = scans.start();
+        Batcher batcher = new Batcher(batchSize, listener);
+        if (path != null && Files.isDirectory(Paths.get(path))) {
+            if (cache != null) {
+                cache.startScan(path);
+            }
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                pool.invoke(new FolderTask(Paths.get(path), batcher, cache, ConcurrentHashMap.newKeySet()));
+            } finally {
+                pool.shutdown();
+            }
+        }
+        batcher.finish();
+        scans.stop(start);
+    }
+
+    /**
+     * @return true if name has the .wav extension, ignoring case.
+     */
+    static boolean isWAVFile(String name) {
+        int i = name.lastIndexOf('.');
+        return i >= 0 && name.length() - i == 4 && name.regionMatches(true, i + 1, "wav", 0, 3);
+    }
+
+    // Scans one folder, then scans its sub folders as sub tasks.
+    private static class FolderTask extends RecursiveAction {
+        private final Path folder;
+        private final Batcher batcher;
+        private final ScanCache cache; // null when scanning without a cache
+        private final Set<Object> visited; // the file keys or real paths of the folders scanned so far
+
+        FolderTask(Path folder, Batcher batcher, ScanCache cache, Set<Object> visited) {
+            this.folder = folder;
+            this.batcher = batcher;
+            this.cache = cache;
+            this.visited = visited;
+        }
+
+        @Override
+        protected void compute() {
+            BasicFileAttributes attrs;
+            try {
+                attrs = Files.readAttributes(folder, BasicFileAttributes.class);
+                Object key = attrs.fileKey() != null ? attrs.fileKey() : folder.toRealPath();
+                if (!visited.add(key)) {
+                    return;
+                }
+            } catch (IOException e) {
+                return; // The folder disappeared or can't be read
+            }
+
+            ScanCache.FolderEntry entry = readFolder(folder, attrs.lastModifiedTime().toMillis(), cache);
+
+            List<SoundClip> clips = new ArrayList<>(entry.fileNames.length);
+            for (String name : entry.fileNames) {
+                clips.add(new SoundClip(folder.resolve(name).toFile()));
+            }
+            batcher.add(clips);
+
+            List<FolderTask> subTasks = new ArrayList<>(entry.subFolderNames.length);
+            for (String name : entry.subFolderNames) {
+                subTasks.add(new FolderTask(folder.resolve(name), batcher, cache, visited));
+            }
+            invokeAll(subTasks);
+        }
+    }
+
+    // Returns what folder holds, from the cache if the folder is unchanged and by
+    // listing it otherwise.
+    private static ScanCache.FolderEntry readFolder(Path folder, long modified, ScanCache cache) {
+        if (cache == null) {
+            foldersListed.increment();
+            return listFolder(folder, modified);
+        }
+
+        String key = cache.key(folder);
+        ScanCache.FolderEntry entry = cache.lookup(key, modified);
+        if (entry == null) {
+            foldersListed.increment();
+            entry = listFolder(folder, modified);
+        } else {
+            foldersCached.increment();
+        }
+        cache.put(key, entry);
+        return entry;
+    }
+
+    // Lists folder once, recording its WAV files and sub folders.
+    // Entries that can't be read are skipped.
+    private static ScanCache.FolderEntry listFolder(Path folder, long modified) {
+        List<String> fileNames = new ArrayList<>();
+        List<String> subFolderNames = new ArrayList<>();
+        try {
+            // With a max depth of 1, every entry of folder is passed to visitFile
+            // together with the attributes read while listing it, which are those
+            // of the target for symbolic links
+            Files.walkFileTree(folder, EnumSet.of(FileVisitOption.FOLLOW_LINKS), 1, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    String name = file.getFileName().toString();
+                    if (attrs.isDirectory()) {
+                        subFolderNames.add(name);
+                    } else if (isWAVFile(name)) {
+                        fileNames.add(name);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            // The folder disappeared or can't be read, so there is nothing to add
+        }
+        return new ScanCache.FolderEntry(modified, fileNames, subFolderNames);
+    }
+
+    // Collects clips from all folder tasks and hands them to the listener in batches.
+    private static class Batcher {
+        private final int batchSize;
+        private final ScanListener listener;
+        private List<SoundClip> batch = new ArrayList<>();
+        private int soundClipCount;
+        private int folderCount;
+
+        Batcher(int batchSize, ScanListener listener) {
+            this.batchSize = batchSize;
+            this.listener = listener;
+        }
+
+        // Adds the clips of one folder, passing on full batches. The listener is
+        // called while holding the lock, so it is never called from two threads at once.
+        synchronized void add(List<SoundClip> clips) {
+            folderCount++;
+            soundClipCount += clips.size();
+            filesFound.add(clips.size());
+            for (SoundClip clip : clips) {
+                batch.add(clip);
+                if (batch.size() >= batchSize) {
+                    flush();
+                }
+            }
+        }
+
+        synchronized void finish() {
+            flush();
+            listener.onScanFinished(soundClipCount, folderCount);
+        }
+
+        private void flush() {
+            if (!batch.isEmpty()) {
+                List<SoundClip> full = batch;
+                batch = new ArrayList<>();
+                listener.onSoundClipsFound(full);
+            }
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package org.music.model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import org.music.metrics.Histogram;
+import org.music.metrics.Log;
+import org.music.metrics.Metrics;
+
+/**
+ * TriggerPlayer plays a sound clip the moment it is triggered, like a button on
+ * a soundboard. Clips are played from the decoded audio in a PcmCache, through
+ * a sink that is kept open, so a clip that was played recently starts without
+ * touching the disk or starting a decoder. Triggering a clip cuts off the one
+ * playing.
+ * <p>
+ * The audio is written in small blocks by a thread of the player's own, so a
+ * trigger is picked up within a block. The time from a trigger to its first
+ * block being handed to the sink is recorded in the "trigger.latency" histogram
+ * for clips found in the cache. A clip that isn't held is decoded by the
+ * player's thread first, and its time is recorded in "trigger.missLatency"
+ * instead, so that the decoding doesn't hide how fast cached clips start.
+ */
+public class TriggerPlayer implements AutoCloseable {
+
+    /**
+     * The number of frames written at a time when no block size is given, about 6 ms at 44.1 kHz.
+     */
+    public static final int DEFAULT_BLOCK_FRAMES = 256;
+
+    private static final Histogram latency = Metrics.histogram("trigger.latency");
+    private static final Histogram missLatency = Metrics.histogram("trigger.missLatency");
+
+    private final PcmCache cache;
+    private final AudioSink sink;
+    private final byte[] block;
+    private final AtomicReference<Trigger> next = new AtomicReference<>(); // the trigger not yet picked up
+    private final Thread thread;
+    private volatile boolean closed;
+    private volatile long lastLatencyNanos = -1;
+
+    public TriggerPlayer(PcmCache cache, AudioSink sink) {
+        this(cache, sink, DEFAULT_BLOCK_FRAMES);
+    }
+
+    /**
+     * Creates a player that plays clips from cache through sink, blockFrames
+     * frames at a time. The player owns the sink from now on, and closes it.
+     * Requires the cache and the sink to have the same format, and blockFrames > 0
+     */
+    public TriggerPlayer(PcmCache cache, AudioSink sink, int blockFrames) {
+        if (!cache.getFormat().matches(sink.getFormat()) || blockFrames <= 0) {
+            throw new IllegalArgumentException("Need a cache and a sink of the same format, and a positive block size");
+        }
+        this.cache = cache;
+        this.sink = sink;
+        this.block = new byte[blockFrames * sink.getFormat().getFrameSize()];
+        this.thread = new Thread(this::run, "trigger-player");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MAX_PRIORITY);
+    }
+
+    /**
+     * Starts the thread that plays triggered clips.
+     */
+    public synchronized void start() {
+        if (thread.getState() != Thread.State.NEW || closed) {
+            throw new IllegalStateException("Player already started");
+        }
+        thread.start();
+    }
+
+    /**
+     * Plays a clip right away, cutting off the one playing. Never waits, so it
+     * can be called on the FX thread.
+     * Requires soundClip != null
+     */
+    public void trigger(SoundClip soundClip) {
+        assert soundClip != null;
+        next.set(new Trigger(soundClip, System.nanoTime()));
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * Stops playing, and cuts off any trigger not yet picked up.
+     */
+    public void silence() {
+        next.set(Trigger.SILENCE);
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * @return the time in ns from the last trigger that was played to its first
+     * frame being handed to the sink, or -1 if nothing has been played.
+     */
+    public long getLastLatencyNanos() {
+        return lastLatencyNanos;
+    }
+
+    /**
+     * Stops playing, ends the player's thread and closes the sink.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        LockSupport.unpark(thread);
+        if (thread.getState() != Thread.State.NEW) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        sink.close();
+    }
+
+    private void run() {
+        ByteBuffer playing = null; // the rest of the clip playing, or null
+        long triggered = 0; // when the clip playing was triggered, until its first block is written
+        Histogram triggerLatency = latency; // where to record the time it took
+        while (!closed) {
+            Trigger trigger = next.getAndSet(null);
+            if (trigger != null) {
+                sink.flush();
+                playing = trigger.soundClip == null ? null : cache.getIfHeld(trigger.soundClip);
+                triggerLatency = latency;
+                if (playing == null && trigger.soundClip != null) {
+                    playing = decode(trigger.soundClip);
+                    triggerLatency = missLatency;
+                }
+                triggered = trigger.nanos;
+            }
+            if (playing == null || !playing.hasRemaining()) {
+                playing = null;
+                LockSupport.park(this);
+                continue;
+            }
+
+            int length = Math.min(block.length, playing.remaining());
+            playing.get(block, 0, length);
+            try {
+                sink.write(block, 0, length);
+            } catch (IOException e) {
+                Log.error(e, "Could not play sound clip");
+                playing = null;
+                continue;
+            }
+            if (triggered != 0) {
+                long nanos = System.nanoTime() - triggered;
+                triggerLatency.record(nanos);
+                lastLatencyNanos = nanos;
+                triggered = 0;
+            }
+        }
+    }
+
+    // Returns the audio of a clip that isn't held, decoding it into the cache,
+    // or null if it can't be decoded.
+    private ByteBuffer decode(SoundClip soundClip) {
+        try {
+            return cache.get(soundClip);
+        } catch (IOException e) {
+            Log.error(e, "Could not decode %s", soundClip.getFile());
+            return null;
+        }
+    }
+
+    private static final class Trigger {
+        static final Trigger SILENCE = new Trigger(null, 0);
+
+        final SoundClip soundClip; // null to play nothing
+        final long nanos;
+
+        Trigger(SoundClip soundClip, long nanos) {
+            this.soundClip = soundClip;
+            this.nanos = nanos;
+        }
+    }
+}
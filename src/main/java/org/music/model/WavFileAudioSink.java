@@ -0,0 +1,87 @@
+package org.music.model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * WavFileAudioSink records the audio written to it in a WAV file, as fast as
+ * it is written. The sizes in the header are filled in when the sink is closed.
+ * Flushing doesn't take back what was already recorded.
+ */
+public class WavFileAudioSink implements AudioSink {
+
+    private static final int HEADER_SIZE = 44;
+
+    private final AudioFormat format;
+    private final FileChannel channel;
+    private long dataSize;
+
+    /**
+     * Creates file, or empties it, and writes a header for format to it.
+     * Requires format to be little-endian PCM
+     */
+    public WavFileAudioSink(Path file, AudioFormat format) throws IOException {
+        boolean pcm = format.getEncoding() == AudioFormat.Encoding.PCM_SIGNED
+                || format.getEncoding() == AudioFormat.Encoding.PCM_UNSIGNED;
+        if (!pcm || (format.isBigEndian() && format.getSampleSizeInBits() > 8)) {
+            throw new IllegalArgumentException("Can only record little-endian PCM");
+        }
+        this.format = format;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        writeHeader();
+        channel.position(HEADER_SIZE);
+    }
+
+    @Override
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+    @Override
+    public synchronized void write(byte[] buffer, int offset, int length) throws IOException {
+        ByteBuffer data = ByteBuffer.wrap(buffer, offset, length);
+        while (data.hasRemaining()) {
+            channel.write(data);
+        }
+        dataSize += length;
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel.isOpen()) {
+            try {
+                writeHeader();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    private void writeHeader() throws IOException {
+        int frameSize = format.getFrameSize();
+        int sampleRate = (int) format.getSampleRate();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(0x46464952).putInt((int) (HEADER_SIZE - 8 + dataSize)).putInt(0x45564157); // RIFF, WAVE
+        header.putInt(0x20746D66).putInt(16); // fmt
+        header.putShort((short) 1).putShort((short) format.getChannels());
+        header.putInt(sampleRate).putInt(sampleRate * frameSize);
+        header.putShort((short) frameSize).putShort((short) format.getSampleSizeInBits());
+        header.putInt(0x61746164).putInt((int) dataSize); // data
+        header.flip();
+        long position = 0;
+        while (header.hasRemaining()) {
+            position += channel.write(header, position);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package org.music.model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * WavHeaderParser reads the format of a RIFF/WAVE file from its header. Only
+ * small windows around the chunk headers are read, so the sample data is never
+ * touched, however large the file is.
+ * <p>
+ * The windows are read with positional reads rather than mapped: a mapping is
+ * only released when it is garbage collected, so mapping the headers of a large
+ * library runs out of address space long before the heap fills up.
+ */
+public final class WavHeaderParser {
+
+    // Bytes read at a time. The fmt and data chunk headers are nearly always in the first window
+    private static final int WINDOW_SIZE = 4096;
+
+    // Chunk ids as little-endian ints
+    private static final int RIFF = 0x46464952;
+    private static final int WAVE = 0x45564157;
+    private static final int FMT = 0x20746D66;
+    private static final int DATA = 0x61746164;
+
+    private WavHeaderParser() {
+    }
+
+    /**
+     * Reads the audio format of a WAV file.
+     *
+     * @throws IOException if the file can't be read or isn't a WAV file.
+     */
+    public static AudioMetadata parse(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer window = read(channel, 0, size);
+            long windowStart = 0;
+
+            if (window.capacity() < 12 || window.getInt(0) != RIFF || window.getInt(8) != WAVE) {
+                throw new IOException("Not a WAV file: " + file);
+            }
+
+            ByteBuffer format = null;
+            long position = 12;
+            while (position + 8 <= size) {
+                if (position + 24 > windowStart + window.capacity() && windowStart + window.capacity() < size) {
+                    // The next chunk header (and a fmt body) lies past the window, so move the window
+                    windowStart = position;
+                    window = read(channel, windowStart, size);
+                }
+                int offset = (int) (position - windowStart);
+                int id = window.getInt(offset);
+                long length = Integer.toUnsignedLong(window.getInt(offset + 4));
+
+                if (id == FMT) {
+                    if (length < 16 || offset + 24 > window.capacity()) {
+                        throw new IOException("Bad fmt chunk in " + file);
+                    }
+                    format = window.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+                    format.position(offset + 8);
+                    format = format.slice().order(ByteOrder.LITTLE_ENDIAN);
+                } else if (id == DATA) {
+                    if (format == null) {
+                        throw new IOException("data chunk before fmt chunk in " + file);
+                    }
+                    // Streaming writers leave the length unset, so trust the file size over it
+                    long available = size - position - 8;
+                    long dataLength = length > available ? available : length;
+                    return metadata(format, dataLength, file);
+                }
+
+                position += 8 + length + (length & 1); // chunks are padded to even lengths
+            }
+            throw new IOException("No data chunk in " + file);
+        }
+    }
+
+    private static AudioMetadata metadata(ByteBuffer format, long dataLength, Path file) throws IOException {
+        int formatTag = Short.toUnsignedInt(format.getShort(0));
+        int channels = Short.toUnsignedInt(format.getShort(2));
+        int sampleRate = format.getInt(4);
+        int blockAlign = Short.toUnsignedInt(format.getShort(12));
+        int bitsPerSample = Short.toUnsignedInt(format.getShort(14));
+        if (channels == 0 || sampleRate <= 0 || blockAlign == 0) {
+            throw new IOException("Bad format in " + file);
+        }
+        return new AudioMetadata(formatTag, channels, sampleRate, bitsPerSample, blockAlign, dataLength);
+    }
+
+    // Reads up to WINDOW_SIZE bytes from position. The buffer's capacity is the number of bytes read.
+    private static ByteBuffer read(FileChannel channel, long position, long size) throws IOException {
+        ByteBuffer window = ByteBuffer.allocate((int) Math.min(WINDOW_SIZE, size - position));
+        while (window.hasRemaining()) {
+            if (channel.read(window, position + window.position()) < 0) {
+                break;
+            }
+        }
+        return window.flip().slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
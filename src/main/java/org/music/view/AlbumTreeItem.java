@@ -0,0 +1,155 @@
+package org.music.view;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import org.music.model.Album;
+import org.music.model.AlbumObserver;
+
+import javafx.application.Platform;
+import javafx.collections.ObservableList;
+import javafx.event.Event;
+import javafx.scene.control.TreeItem;
+
+/**
+ * A tree node for an album, which creates the nodes for its child albums only
+ * when they are first needed, normally when the node is expanded. The node
+ * observes its album for as long as it is in the tree. While its children are
+ * shown, it follows child albums being added and removed, and otherwise it only
+ * redraws itself, so that its disclosure arrow shows whether there are any.
+ * Collapsing the node lets go of the nodes below it, so the tree only holds
+ * nodes for the expanded part of the hierarchy and the nodes just below it,
+ * however large the hierarchy is.
+ */
+public class AlbumTreeItem extends TreeItem<Album> {
+
+    private final Executor executor;
+    private final AlbumObserver observer = new ChildAlbumObserver();
+
+    // Only touched on the FX thread
+    private boolean loaded;
+    private Map<Album, AlbumTreeItem> items; // the child nodes by album, while loaded
+
+    public AlbumTreeItem(Album album) {
+        this(album, Platform::runLater);
+    }
+
+    /**
+     * Creates a node that handles album changes with executor instead of the FX thread.
+     */
+    public AlbumTreeItem(Album album, Executor executor) {
+        super(album);
+        this.executor = executor;
+        album.addObserver(observer);
+        expandedProperty().addListener((observable, wasExpanded, isExpanded) -> {
+            if (!isExpanded) {
+                unload();
+            }
+        });
+    }
+
+    @Override
+    public boolean isLeaf() {
+        return loaded ? super.getChildren().isEmpty() : getValue().getChildAlbumCount() == 0;
+    }
+
+    @Override
+    public ObservableList<TreeItem<Album>> getChildren() {
+        if (!loaded) {
+            load();
+        }
+        return super.getChildren();
+    }
+
+    private void load() {
+        loaded = true;
+        items = new HashMap<>();
+
+        // The album is observed before the children are read, so that no child added
+        // in between is missed. A child that is both read and reported is only added once.
+        List<AlbumTreeItem> children = new ArrayList<>();
+        for (Album childAlbum : getValue().getChildAlbums()) {
+            AlbumTreeItem item = new AlbumTreeItem(childAlbum, executor);
+            items.put(childAlbum, item);
+            children.add(item);
+        }
+        super.getChildren().setAll(children);
+    }
+
+    // Drops the child nodes, which stop observing their albums.
+    private void unload() {
+        if (!loaded) {
+            return;
+        }
+        for (AlbumTreeItem item : items.values()) {
+            item.detach();
+        }
+        // Still loaded while clearing, so listeners asking for the children don't load them again
+        super.getChildren().clear();
+        items = null;
+        loaded = false;
+    }
+
+    // Called when the node is dropped from the tree.
+    private void detach() {
+        getValue().removeObserver(observer);
+        unload();
+    }
+
+    private void childAlbumAdded(Album childAlbum) {
+        if (!loaded) {
+            childAlbumsChanged();
+            return;
+        }
+        // Changes already read when loading
+        if (items.containsKey(childAlbum) || childAlbum.getParentAlbum() != getValue()) {
+            return;
+        }
+        AlbumTreeItem item = new AlbumTreeItem(childAlbum, executor);
+        items.put(childAlbum, item);
+        super.getChildren().add(item);
+    }
+
+    private void childAlbumRemoved(Album childAlbum) {
+        if (!loaded) {
+            childAlbumsChanged();
+            return;
+        }
+        AlbumTreeItem item = items.remove(childAlbum);
+        if (item != null) {
+            item.detach();
+            super.getChildren().remove(item);
+        }
+    }
+
+    // Has the tree redraw this node, whose child albums changed while they weren't
+    // loaded, since isLeaf may now give a different answer.
+    private void childAlbumsChanged() {
+        Event.fireEvent(this, new TreeModificationEvent<>(valueChangedEvent(), this, getValue()));
+    }
+
+    // Hands child album changes to the executor, from whatever thread made them.
+    private class ChildAlbumObserver implements AlbumObserver {
+        @Override
+        public void onSoundClipsChanged(Album album) {
+        }
+
+        @Override
+        public void onAlbumDeleted(Album album) {
+            // The parent node removes this node
+        }
+
+        @Override
+        public void onChildAlbumAdded(Album album, Album childAlbum) {
+            executor.execute(() -> childAlbumAdded(childAlbum));
+        }
+
+        @Override
+        public void onChildAlbumRemoved(Album album, Album childAlbum) {
+            executor.execute(() -> childAlbumRemoved(childAlbum));
+        }
+    }
+}
@@ -26,7 +26,7 @@ public class AlbumWindow extends Stage implements AlbumObserver {
         this.album = album;
         this.controller = controller;
         
-        // Register as observer for the album
+        // Register as observer for the album, to close the window when it is deleted
         album.addObserver(this);
         
         BorderPane mainPane = new BorderPane();
@@ -37,7 +37,7 @@ public class AlbumWindow extends Stage implements AlbumObserver {
         // Create the sound clip list view
         soundClipListView = new SoundClipListView();
         soundClipListView.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
-        soundClipListView.display(album);
+        soundClipListView.display(album); // the list view follows changes to the album itself
         mainPane.setCenter(soundClipListView);
         
         // Setup double-click to play functionality
@@ -68,12 +68,13 @@ public class AlbumWindow extends Stage implements AlbumObserver {
     @Override
     public void close() {
         album.removeObserver(this);
+        soundClipListView.unbind();
         super.close();
     }
 
     @Override
     public void onSoundClipsChanged(Album album) {
-        Platform.runLater(() -> soundClipListView.display(album));
+        // Nothing to do, the list view keeps itself up to date
     }
 
     @Override
@@ -5,6 +5,7 @@ import org.music.controller.MusicOrganizerController;
 import javafx.event.ActionEvent;
 import javafx.event.EventHandler;
 import javafx.scene.control.Button;
+import javafx.scene.control.ToggleButton;
 import javafx.scene.control.Tooltip;
 import javafx.scene.layout.HBox;
 
@@ -18,6 +19,12 @@ public class ButtonPaneHBox extends HBox {
     private Button addSoundClipsButton;
     private Button removeSoundClipsButton;
     private Button playButton;
+    private Button pauseButton;
+    private Button skipButton;
+    private Button stopButton;
+    private ToggleButton gaplessButton;
+    private ToggleButton triggerButton;
+    private ToggleButton mixButton;
     private Button newWindowButton;
     public static final int BUTTON_MIN_WIDTH = 150;
 
@@ -40,6 +47,24 @@ public class ButtonPaneHBox extends HBox {
 
         playButton = createPlaySoundClipsButton();
         this.getChildren().add(playButton);
+
+        pauseButton = createPauseButton();
+        this.getChildren().add(pauseButton);
+
+        skipButton = createSkipButton();
+        this.getChildren().add(skipButton);
+
+        stopButton = createStopButton();
+        this.getChildren().add(stopButton);
+
+        gaplessButton = createGaplessButton();
+        this.getChildren().add(gaplessButton);
+
+        triggerButton = createTriggerButton();
+        this.getChildren().add(triggerButton);
+
+        mixButton = createMixButton();
+        this.getChildren().add(mixButton);
         
         newWindowButton = createNewWindowButton();
         this.getChildren().add(newWindowButton);
@@ -116,6 +141,83 @@ public class ButtonPaneHBox extends HBox {
         return button;
     }
     
+    private Button createPauseButton() {
+        Button button = new Button("Pause");
+        button.setTooltip(new Tooltip("Pause or resume play back"));
+        button.setOnAction(new EventHandler<ActionEvent>() {
+            @Override
+            public void handle(ActionEvent arg0) {
+                boolean paused = controller.togglePause();
+                button.setText(paused ? "Resume" : "Pause");
+            }
+        });
+        return button;
+    }
+
+    private Button createSkipButton() {
+        Button button = new Button("Skip");
+        button.setTooltip(new Tooltip("Skip to the next sound clip"));
+        button.setOnAction(new EventHandler<ActionEvent>() {
+            @Override
+            public void handle(ActionEvent arg0) {
+                controller.skipSoundClip();
+            }
+        });
+        return button;
+    }
+
+    private Button createStopButton() {
+        Button button = new Button("Stop");
+        button.setTooltip(new Tooltip("Stop play back and forget the sound clips waiting to be played"));
+        button.setOnAction(new EventHandler<ActionEvent>() {
+            @Override
+            public void handle(ActionEvent arg0) {
+                controller.clearPlaylist();
+            }
+        });
+        return button;
+    }
+
+    private ToggleButton createGaplessButton() {
+        ToggleButton button = new ToggleButton("Gapless");
+        button.setTooltip(new Tooltip("Play sound clips back to back, without a pause in between"));
+        button.setOnAction(new EventHandler<ActionEvent>() {
+            @Override
+            public void handle(ActionEvent arg0) {
+                controller.setGapless(button.isSelected());
+            }
+        });
+        return button;
+    }
+
+    private ToggleButton createTriggerButton() {
+        ToggleButton button = new ToggleButton("Trigger Mode");
+        button.setTooltip(new Tooltip("Play a double-clicked sound clip at once, cutting off the one playing"));
+        button.setOnAction(new EventHandler<ActionEvent>() {
+            @Override
+            public void handle(ActionEvent arg0) {
+                if (!controller.setTriggerMode(button.isSelected())) {
+                    button.setSelected(false);
+                }
+            }
+        });
+        return button;
+    }
+
+    private ToggleButton createMixButton() {
+        ToggleButton button = new ToggleButton("Mix");
+        button.setTooltip(new Tooltip("Play sound clips at the same time, mixed together"));
+        button.setOnAction(new EventHandler<ActionEvent>() {
+            @Override
+            public void handle(ActionEvent arg0) {
+                if (!controller.setMixMode(button.isSelected())) {
+                    button.setSelected(false);
+                }
+            }
+        });
+        return button;
+    }
+
     private Button createNewWindowButton() {
         Button button = new Button("New Window");
         button.setTooltip(new Tooltip("Open selected album in new window"));
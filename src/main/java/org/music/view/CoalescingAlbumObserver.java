@@ -0,0 +1,110 @@
+package org.music.view;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.music.model.Album;
+import org.music.model.AlbumObserver;
+import org.music.model.SoundClipChange;
+
+import javafx.application.Platform;
+
+/**
+ * An AlbumObserver that collects album changes from any thread and hands them
+ * to the FX thread in batches. However many changes arrive, at most one dispatch
+ * is waiting on the FX thread at a time, and it delivers every change made
+ * before it runs.
+ */
+public abstract class CoalescingAlbumObserver implements AlbumObserver {
+
+    private final Executor executor;
+    private final Queue<Event> events = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    public CoalescingAlbumObserver() {
+        this(Platform::runLater);
+    }
+
+    /**
+     * Creates an observer that dispatches changes with executor instead of the FX thread.
+     */
+    protected CoalescingAlbumObserver(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Called on the FX thread with the changes made to an album since the last
+     * dispatch, in the order they were made.
+     */
+    protected abstract void onSoundClipsChanged(Album album, List<SoundClipChange> changes);
+
+    /**
+     * Called on the FX thread when an observed album has been deleted, after any
+     * changes made to it before that.
+     */
+    protected void onDeleted(Album album) {
+    }
+
+    @Override
+    public final void onSoundClipsChanged(Album album) {
+        // Albums always report changes through onSoundClipsChanged(album, change)
+    }
+
+    @Override
+    public final void onSoundClipsChanged(Album album, SoundClipChange change) {
+        events.add(new Event(album, change));
+        schedule();
+    }
+
+    @Override
+    public final void onAlbumDeleted(Album album) {
+        events.add(new Event(album, null));
+        schedule();
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            executor.execute(this::dispatch);
+        }
+    }
+
+    private void dispatch() {
+        // Clear the flag first, so that changes arriving while we drain get a dispatch of their own
+        scheduled.set(false);
+
+        Map<Album, List<SoundClipChange>> changes = new LinkedHashMap<>();
+        Event event;
+        while ((event = events.poll()) != null) {
+            if (event.change != null) {
+                changes.computeIfAbsent(event.album, a -> new ArrayList<>()).add(event.change);
+                continue;
+            }
+
+            List<SoundClipChange> pending = changes.remove(event.album);
+            if (pending != null) {
+                onSoundClipsChanged(event.album, pending);
+            }
+            onDeleted(event.album);
+        }
+
+        for (Map.Entry<Album, List<SoundClipChange>> entry : changes.entrySet()) {
+            onSoundClipsChanged(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private static class Event {
+        final Album album;
+        final SoundClipChange change; // null when the album was deleted
+
+        Event(Album album, SoundClipChange change) {
+            this.album = album;
+            this.change = change;
+        }
+    }
+}
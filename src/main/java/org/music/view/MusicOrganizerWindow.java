@@ -8,6 +8,7 @@ import javafx.scene.control.*;
 import javafx.scene.control.ScrollPane.ScrollBarPolicy;
 import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.BorderPane;
+import javafx.scene.layout.VBox;
 import javafx.stage.Stage;
 import javafx.stage.WindowEvent;
 import org.music.controller.MusicOrganizerController;
@@ -16,23 +17,34 @@ import org.music.model.SoundClip;
 
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class MusicOrganizerWindow extends Application {
 
     private BorderPane bord;
     private static MusicOrganizerController controller;
+    private static String libraryPath;
     private TreeItem<Album> rootNode;
     private TreeView<Album> tree;
     private ButtonPaneHBox buttons;
+    private TextField searchField;
     private SoundClipListView soundClipTable;
     private TextArea messages;
+    private Label status;
+    private final AtomicInteger scanProgress = new AtomicInteger();
+    private final AtomicBoolean scanProgressScheduled = new AtomicBoolean();
+    private volatile int searchGeneration; // changes with every keystroke in the search field
+
+    // The most search results shown at once, which is plenty while typing
+    private static final int SEARCH_LIMIT = 10_000;
 
     public static void main(String[] args) {
         controller = new MusicOrganizerController();
         if (args.length == 0) {
-            controller.loadSoundClips("sample-sound");
+            libraryPath = "sample-sound";
         } else if (args.length == 1) {
-            controller.loadSoundClips(args[0]);
+            libraryPath = args[0];
         } else {
             System.err.println("too many command-line arguments");
             System.exit(0);
@@ -50,7 +62,8 @@ public class MusicOrganizerWindow extends Application {
 
             // Create buttons in the top of the GUI
             buttons = new ButtonPaneHBox(controller, this);
-            bord.setTop(buttons);
+            searchField = createSearchField();
+            bord.setTop(new VBox(buttons, searchField));
 
             // Create the tree in the left of the GUI
             tree = createTreeView();
@@ -60,8 +73,9 @@ public class MusicOrganizerWindow extends Application {
             soundClipTable = createSoundClipListView();
             bord.setCenter(soundClipTable);
 
-            // Create the text area in the bottom of the GUI
-            bord.setBottom(createBottomTextArea());
+            // Create the status line and the text area in the bottom of the GUI
+            status = new Label();
+            bord.setBottom(new VBox(status, createBottomTextArea()));
 
             Scene scene = new Scene(bord);
 
@@ -71,19 +85,25 @@ public class MusicOrganizerWindow extends Application {
             primaryStage.setOnCloseRequest(new EventHandler<WindowEvent>() {
                 @Override
                 public void handle(WindowEvent arg0) {
+                    controller.shutdown();
                     Platform.exit();
                     System.exit(0);
                 }
             });
 
             primaryStage.show();
+
+            // Load the library in the background, so the window is usable right away
+            controller.loadSoundClipsInBackground(libraryPath);
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
     private TreeView<Album> createTreeView() {
-        rootNode = new TreeItem<>(controller.getRootAlbum());
+        // Nodes for child albums are only made when their parent is expanded
+        rootNode = new AlbumTreeItem(controller.getRootAlbum());
+        rootNode.setExpanded(true);
         TreeView<Album> v = new TreeView<>(rootNode);
 
         v.setOnMouseClicked(new EventHandler<MouseEvent>() {
@@ -92,7 +112,9 @@ public class MusicOrganizerWindow extends Application {
                 if (e.getClickCount() == 2) {
                     // This code gets invoked whenever the user double clicks in the TreeView
                     Album selectedAlbum = getSelectedAlbum();
-                    if (selectedAlbum != null) {
+                    if (selectedAlbum != null && !searchField.getText().isBlank()) {
+                        search(searchField.getText()); // search the album instead
+                    } else if (selectedAlbum != null) {
                         soundClipTable.display(selectedAlbum);
                     }
                 }
@@ -123,6 +145,42 @@ public class MusicOrganizerWindow extends Application {
         return v;
     }
 
+    private TextField createSearchField() {
+        TextField field = new TextField();
+        field.setPromptText("Search sound clips in the selected album");
+        field.textProperty().addListener((observable, oldText, newText) -> search(newText));
+        return field;
+    }
+
+    // Shows the clips of the selected album matching query, as the results come in.
+    // A blank query shows the whole album again.
+    private void search(String query) {
+        int generation = ++searchGeneration;
+        Album scope = getSelectedAlbum();
+        if (scope == null) {
+            scope = controller.getRootAlbum();
+        }
+        if (query.isBlank()) {
+            soundClipTable.display(scope);
+            return;
+        }
+
+        soundClipTable.displayResults(List.of());
+        AtomicInteger shown = new AtomicInteger();
+        controller.searchInBackground(query, scope, soundClips -> {
+            // Results of a query the user has typed past are dropped, and the search stopped
+            if (generation != searchGeneration) {
+                return false;
+            }
+            Platform.runLater(() -> {
+                if (generation == searchGeneration) {
+                    soundClipTable.addResults(soundClips);
+                }
+            });
+            return shown.addAndGet(soundClips.size()) < SEARCH_LIMIT;
+        });
+    }
+
     private ScrollPane createBottomTextArea() {
         messages = new TextArea();
         messages.setPrefRowCount(3);
@@ -148,6 +206,40 @@ public class MusicOrganizerWindow extends Application {
         messages.appendText(message + "\n");
     }
 
+    /**
+     * Shows how many sound clips have been found so far while the library is
+     * being scanned. May be called from any thread, and only the latest count
+     * is shown when several arrive before the FX thread gets to them.
+     */
+    public void onScanProgress(int soundClipCount) {
+        scanProgress.set(soundClipCount);
+        if (scanProgressScheduled.compareAndSet(false, true)) {
+            Platform.runLater(() -> {
+                scanProgressScheduled.set(false);
+                status.setText("Scanning... " + scanProgress.get() + " sound clips found");
+            });
+        }
+    }
+
+    /**
+     * Shows that the library scan is finished. May be called from any thread.
+     */
+    public void onScanFinished(int soundClipCount, int folderCount) {
+        Platform.runLater(() -> {
+            status.setText(soundClipCount + " sound clips");
+            displayMessage("Loaded " + soundClipCount + " sound clips from " + folderCount + " folders");
+        });
+    }
+
+    /**
+     * Reports sound clips that were added to or deleted from the library folder
+     * while the program runs. May be called from any thread.
+     */
+    public void onLibraryChanged(int added, int removed) {
+        Platform.runLater(() -> displayMessage("Library changed on disk: "
+                + added + " sound clip(s) added, " + removed + " removed"));
+    }
+
     public Album getSelectedAlbum() {
         TreeItem<Album> selectedItem = getSelectedTreeItem();
         return selectedItem == null ? null : selectedItem.getValue();
@@ -195,9 +287,8 @@ public class MusicOrganizerWindow extends Application {
      * @param newAlbum
      */
     public void onAlbumAdded(Album newAlbum) {
+        // The parent node adds a node for the new album by itself once expanded
         TreeItem<Album> parentItem = getSelectedTreeItem();
-        TreeItem<Album> newItem = new TreeItem<>(newAlbum);
-        parentItem.getChildren().add(newItem);
         parentItem.setExpanded(true); // automatically expand the parent node in the tree
     }
 
@@ -205,15 +296,14 @@ public class MusicOrganizerWindow extends Application {
      * Updates the album hierarchy by removing an album from it
      */
     public void onAlbumRemoved() {
-        TreeItem<Album> toRemove = getSelectedTreeItem();
-        TreeItem<Album> parent = toRemove.getParent();
-        parent.getChildren().remove(toRemove);
-
+        // The parent node removes the node of the deleted album by itself
+        tree.getSelectionModel().clearSelection();
     }
 
     /**
-     * Refreshes the clipTable in response to the event that clips have
-     * been modified in an album
+     * Shows the selected album in the clipTable in response to the event that
+     * clips have been modified in it. The clipTable follows changes to the album
+     * it shows by itself, so this only matters when another album was shown
      */
     public void onClipsUpdated() {
         Album a = getSelectedAlbum();
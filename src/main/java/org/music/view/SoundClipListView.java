@@ -5,6 +5,7 @@ import java.util.List;
 
 import org.music.model.Album;
 import org.music.model.SoundClip;
+import org.music.model.SoundClipChange;
 
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
@@ -12,31 +13,74 @@ import javafx.scene.control.ListView;
 
 public class SoundClipListView extends ListView<SoundClip> {
 
-    private List<SoundClip> clips;
+    private Album album; // the album being displayed, or null
+    private CoalescingAlbumObserver albumObserver; // keeps the items in sync with album
 
     public SoundClipListView() {
         super();
-        clips = new ArrayList<>();
     }
 
     public SoundClipListView(ObservableList<SoundClip> arg0) {
         super(arg0);
-        clips = new ArrayList<>();
     }
 
     /**
-     * Displays the contents of the specified albums
+     * Displays the contents of the specified albums. The list then follows
+     * changes to the album, updating only the rows that were added or removed,
+     * so selection and scroll position are kept. Displaying the album that is
+     * already shown has no effect.
      *
      * @param album - the album which contents are to be displayed
      */
     public void display(Album album) {
+        if (album == this.album) {
+            return;
+        }
+        unbind();
+        if (album == null) {
+            return;
+        }
+
+        CoalescingAlbumObserver observer = new CoalescingAlbumObserver() {
+            @Override
+            protected void onSoundClipsChanged(Album album, List<SoundClipChange> changes) {
+                // Changes can still arrive after switching to another album
+                if (albumObserver == this) {
+                    applyChanges(changes);
+                }
+            }
+        };
+        this.album = album;
+        this.albumObserver = observer;
+        this.setItems(FXCollections.observableArrayList(album.subscribe(observer)));
+    }
+
+    /**
+     * Stops displaying and following the current album.
+     */
+    public void unbind() {
+        if (album != null) {
+            album.removeObserver(albumObserver);
+        }
+        album = null;
+        albumObserver = null;
         this.getItems().clear();
-        this.clips.clear();
+    }
 
-        this.clips.addAll(album.getSoundClips());
+    /**
+     * Stops following the current album and displays soundClips instead, such
+     * as the first results of a search.
+     */
+    public void displayResults(List<SoundClip> soundClips) {
+        unbind();
+        this.getItems().setAll(soundClips);
+    }
 
-        ObservableList<SoundClip> temp = FXCollections.observableArrayList(clips);
-        this.setItems(temp);
+    /**
+     * Adds soundClips to the end of the results being displayed.
+     */
+    public void addResults(List<SoundClip> soundClips) {
+        this.getItems().addAll(soundClips);
     }
 
     public List<SoundClip> getSelectedClips() {
@@ -44,4 +88,28 @@ public class SoundClipListView extends ListView<SoundClip> {
         List<SoundClip> clips = new ArrayList<>(items);
         return clips;
     }
+
+    // Applies album changes to the items, removing contiguous runs of clips with one call each.
+    private void applyChanges(List<SoundClipChange> changes) {
+        ObservableList<SoundClip> items = this.getItems();
+        for (SoundClipChange change : changes) {
+            if (change.isAddition()) {
+                items.addAll(change.getClips());
+                continue;
+            }
+
+            // Positions are ascending, so remove from the end to keep earlier ones valid
+            int i = change.size() - 1;
+            while (i >= 0) {
+                int to = change.getPosition(i) + 1;
+                int from = change.getPosition(i);
+                while (i > 0 && change.getPosition(i - 1) == from - 1) {
+                    i--;
+                    from--;
+                }
+                items.remove(from, to);
+                i--;
+            }
+        }
+    }
 }
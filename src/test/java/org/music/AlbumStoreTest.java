@@ -0,0 +1,206 @@
+package org.music;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.music.model.Album;
+import org.music.model.AlbumStore;
+import org.music.model.SoundClip;
+
+class AlbumStoreTest {
+
+    @TempDir
+    Path temp;
+
+    private final Path library = Path.of("/library");
+    private final SoundClip a = new SoundClip(new File("/library/a.wav"));
+    private final SoundClip b = new SoundClip(new File("/library/b.wav"));
+    private final SoundClip c = new SoundClip(new File("/library/sub/c.wav"));
+
+    @Test
+    void restoresAlbumsFromTheJournal() throws IOException {
+        Album root = new Album("root");
+        AlbumStore store = AlbumStore.open(temp, library, root, 1000);
+        Album music = addAlbum(store, root, "Music");
+        Album rock = addAlbum(store, music, "Rock");
+        Album gone = addAlbum(store, root, "Gone");
+        add(store, rock, a, b, c);
+        remove(store, music, b);
+        add(store, root, a, b, c); // root clips come from the scan, not the store
+        root.removeChildAlbum(gone);
+        store.albumRemoved(gone);
+        store.close();
+
+        Album restored = scanned(a, b, c);
+        AlbumStore.open(temp, library, restored, 1000).close();
+
+        Album restoredRock = restored.getRegistry().findAlbum("root/Music/Rock");
+        assertEquals(List.of(a, c), restoredRock.getSoundClips(), "Clips of Rock");
+        assertEquals(List.of(a, c), restoredRock.getParentAlbum().getSoundClips(), "Clips of Music");
+        assertEquals(rock.getId(), restoredRock.getId(), "Ids are kept");
+        assertNull(restored.getChildAlbum("Gone"), "Deleted album stays deleted");
+        assertEquals(List.of(a, b, c), restored.getSoundClips(), "Root keeps the clips of the scan");
+    }
+
+    @Test
+    void dropsClipsTheScanDidNotFind() throws IOException {
+        Album root = scanned(a, b, c);
+        AlbumStore store = AlbumStore.open(temp, library, root, 3);
+        Album music = addAlbum(store, root, "Music");
+        add(store, music, a);
+        add(store, music, b); // third record, a snapshot is written
+        Album jazz = addAlbum(store, root, "Jazz");
+        add(store, jazz, b, c);
+        store.close();
+
+        Album restored = scanned(a, c); // b was deleted since
+        AlbumStore.open(temp, library, restored, 3).close();
+
+        assertEquals(List.of(a), restored.getChildAlbum("Music").getSoundClips(), "From the snapshot");
+        assertEquals(List.of(c), restored.getChildAlbum("Jazz").getSoundClips(), "From the journal");
+        assertEquals(List.of(a, c), restored.getSoundClips(), "Deleted clip not added back to root");
+    }
+
+    @Test
+    void removingFromTheRootOnlyRemovesFromAlbumsAcrossASnapshot() throws IOException {
+        Album root = scanned(a, b, c);
+        AlbumStore store = AlbumStore.open(temp, library, root, 1000);
+        Album music = addAlbum(store, root, "Music");
+        add(store, music, a, b);
+        remove(store, root, b);
+        store.close();
+
+        Album restored = scanned(a, b, c);
+        store = AlbumStore.open(temp, library, restored, 1000);
+        assertEquals(List.of(a), restored.getChildAlbum("Music").getSoundClips(), "From the journal");
+        assertEquals(List.of(a, b, c), restored.getSoundClips(), "Root keeps the clips of the scan");
+        store.snapshot();
+        store.close();
+
+        Album again = scanned(a, b, c);
+        AlbumStore.open(temp, library, again, 1000).close();
+        assertEquals(List.of(a), again.getChildAlbum("Music").getSoundClips(), "From the snapshot");
+        assertEquals(List.of(a, b, c), again.getSoundClips(), "Root still keeps the clips of the scan");
+    }
+
+    @Test
+    void savesPathsRelativeToTheLibrary() throws IOException {
+        Album root = scanned(a, c);
+        AlbumStore store = AlbumStore.open(temp, library, root, 1000);
+        add(store, addAlbum(store, root, "Music"), a, c);
+        store.close();
+
+        // The same library, moved elsewhere
+        Path moved = Path.of("/moved");
+        SoundClip movedA = new SoundClip(new File("/moved/a.wav"));
+        SoundClip movedC = new SoundClip(new File("/moved/sub/c.wav"));
+        Album restored = scanned(movedA, movedC);
+        AlbumStore.open(temp, moved, restored, 1000).close();
+
+        assertEquals(List.of(movedA, movedC), restored.getChildAlbum("Music").getSoundClips(), "Clips of Music");
+    }
+
+    @Test
+    void keysFolderByNormalizedLibrary() {
+        Path base = Path.of("/base");
+        Path folder = AlbumStore.folderFor(base, Path.of("/library"));
+        assertEquals(base, folder.getParent(), "Below the base folder");
+        assertEquals(folder, AlbumStore.folderFor(base, Path.of("/library/sub/..")), "Same library");
+        assertNotEquals(folder, AlbumStore.folderFor(base, Path.of("/other")), "Other library");
+    }
+
+    @Test
+    void restoresFromSnapshotAndJournalTail() throws IOException {
+        Album root = new Album("root");
+        AlbumStore store = AlbumStore.open(temp, library, root, 3);
+        Album music = addAlbum(store, root, "Music");
+        add(store, music, a);
+        add(store, music, b); // third record, a snapshot is written
+        Album jazz = addAlbum(store, root, "Jazz");
+        add(store, jazz, c);
+        store.close();
+
+        assertTrue(Files.size(temp.resolve("albums.snapshot")) > 0, "Snapshot written");
+
+        Album restored = scanned(a, b, c);
+        AlbumStore reopened = AlbumStore.open(temp, library, restored, 3);
+        assertEquals(List.of(a, b), restored.getChildAlbum("Music").getSoundClips(), "From the snapshot");
+        assertEquals(List.of(c), restored.getChildAlbum("Jazz").getSoundClips(), "From the journal");
+
+        // New albums don't reuse restored ids
+        Album pop = new Album("Pop", restored);
+        assertNotEquals(jazz.getId(), pop.getId(), "Fresh id");
+        assertNotEquals(music.getId(), pop.getId(), "Fresh id");
+        reopened.close();
+    }
+
+    @Test
+    void ignoresRecordCutShortByACrash() throws IOException {
+        Album root = new Album("root");
+        AlbumStore store = AlbumStore.open(temp, library, root, 1000);
+        Album music = addAlbum(store, root, "Music");
+        add(store, music, a);
+        store.close();
+
+        // Half a record at the end of the journal
+        Files.write(temp.resolve("albums.journal"), new byte[] { 0, 0, 0, 40, 1, 2, 3 }, StandardOpenOption.APPEND);
+
+        Album restored = scanned(a, b);
+        store = AlbumStore.open(temp, library, restored, 1000);
+        Album restoredMusic = restored.getChildAlbum("Music");
+        assertEquals(List.of(a), restoredMusic.getSoundClips(), "Records before the broken one");
+
+        // Writing carries on after the last good record
+        add(store, restoredMusic, b);
+        store.close();
+        Album again = scanned(a, b);
+        AlbumStore.open(temp, library, again, 1000).close();
+        assertEquals(List.of(a, b), again.getChildAlbum("Music").getSoundClips(), "Appended after truncation");
+    }
+
+    @Test
+    void movesCorruptSnapshotAside() throws IOException {
+        Files.write(temp.resolve("albums.snapshot"), new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9 });
+
+        Album root = new Album("root");
+        AlbumStore.open(temp, library, root, 1000).close();
+
+        assertTrue(root.getChildAlbums().isEmpty(), "Nothing restored");
+        assertTrue(Files.exists(temp.resolve("albums.snapshot.corrupt")), "Kept for inspection");
+    }
+
+    // A root album holding the clips a scan of the library found
+    private static Album scanned(SoundClip... clips) {
+        Album root = new Album("root");
+        root.addSoundClips(List.of(clips));
+        return root;
+    }
+
+    private static Album addAlbum(AlbumStore store, Album parent, String name) {
+        Album album = new Album(name, parent);
+        parent.addChildAlbum(album);
+        store.albumAdded(album);
+        return album;
+    }
+
+    private static void add(AlbumStore store, Album album, SoundClip... clips) {
+        album.addSoundClips(List.of(clips));
+        store.soundClipsAdded(album, List.of(clips));
+    }
+
+    private static void remove(AlbumStore store, Album album, SoundClip... clips) {
+        album.removeSoundClips(List.of(clips));
+        store.soundClipsRemoved(album, List.of(clips));
+    }
+}
@@ -2,16 +2,26 @@ package org.music;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.music.model.Album;
+import org.music.model.AlbumObserver;
+import org.music.model.AlbumRegistry;
 import org.music.model.SoundClip;
+import org.music.model.SoundClipChange;
 
 class AlbumTest {
     private Album rootAlbum;
@@ -103,6 +113,91 @@ class AlbumTest {
         assertFalse(musicAlbum.containsAlbum(rootAlbum), "Music should not contain root");
     }
 
+    @Test
+    void containsUnattachedAlbum() {
+        Album jazzAlbum = new Album("Jazz", musicAlbum);
+        assertFalse(musicAlbum.containsAlbum(jazzAlbum), "Music should not contain jazz album before adding");
+        assertFalse(rootAlbum.containsAlbum(jazzAlbum), "Root should not contain jazz album before adding");
+
+        musicAlbum.removeChildAlbum(classicalAlbum);
+        assertFalse(rootAlbum.containsAlbum(classicalAlbum), "Root should not contain removed classical album");
+    }
+
+    @Test
+    void addChildAlbumRejectsInvalidAlbums() {
+        assertThrows(IllegalArgumentException.class, () -> musicAlbum.addChildAlbum(classicalAlbum),
+                "Adding an attached album again should fail");
+        assertThrows(IllegalArgumentException.class, () -> classicalAlbum.addChildAlbum(rootAlbum),
+                "Adding an ancestor should fail");
+        assertThrows(IllegalArgumentException.class,
+                () -> musicAlbum.addChildAlbum(new Album("Classical Music", musicAlbum)),
+                "Adding a second child with the same name should fail");
+        assertThrows(IllegalArgumentException.class, () -> musicAlbum.addChildAlbum(new Album("Other")),
+                "Adding an album from another hierarchy should fail");
+    }
+
+    @Test
+    void getPath() {
+        assertEquals("All Sound Clips", rootAlbum.getPath());
+        assertEquals("All Sound Clips/Music/Classical Music", classicalAlbum.getPath());
+    }
+
+    @Test
+    void findAlbumByPath() {
+        AlbumRegistry registry = rootAlbum.getRegistry();
+
+        assertEquals(rootAlbum, registry.findAlbum("All Sound Clips"));
+        assertEquals(classicalAlbum, registry.findAlbum("All Sound Clips/Music/Classical Music"));
+        assertNull(registry.findAlbum("All Sound Clips/Jazz"), "Missing album should not be found");
+        assertNull(registry.findAlbum("Music"), "Path must start at the root");
+
+        musicAlbum.removeChildAlbum(classicalAlbum);
+        assertNull(registry.findAlbum("All Sound Clips/Music/Classical Music"), "Removed album should not be found");
+    }
+
+    @Test
+    void findAlbumById() {
+        AlbumRegistry registry = rootAlbum.getRegistry();
+
+        assertNotEquals(musicAlbum.getId(), classicalAlbum.getId(), "Albums should have distinct ids");
+        assertEquals(classicalAlbum, registry.getAlbum(classicalAlbum.getId()));
+        assertEquals(3, registry.getAlbumCount());
+
+        rootAlbum.removeChildAlbum(musicAlbum);
+        assertNull(registry.getAlbum(classicalAlbum.getId()), "Albums below a removed album should be unregistered");
+        assertEquals(1, registry.getAlbumCount());
+
+        rootAlbum.addChildAlbum(musicAlbum);
+        assertEquals(classicalAlbum, registry.getAlbum(classicalAlbum.getId()), "Re-added albums should be registered");
+    }
+
+    @Test
+    void getAlbumsContaining() {
+        AlbumRegistry registry = rootAlbum.getRegistry();
+
+        assertEquals(List.of(rootAlbum), registry.getAlbumsContaining(clip1));
+        assertEquals(List.of(rootAlbum, musicAlbum), registry.getAlbumsContaining(clip2));
+        assertEquals(3, registry.getAlbumsContaining(clip3).size(), "clip3 should be in all three albums");
+        assertTrue(registry.getAlbumsContaining(new SoundClip(new File("clip4.wav"))).isEmpty());
+
+        musicAlbum.removeChildAlbum(classicalAlbum);
+        assertEquals(List.of(rootAlbum, musicAlbum), registry.getAlbumsContaining(clip3),
+                "Removed albums should not be reported");
+
+        rootAlbum.removeSoundClip(clip3);
+        assertTrue(registry.getAlbumsContaining(clip3).isEmpty(), "clip3 should not be in any album after removal");
+        assertTrue(classicalAlbum.containsSoundClip(clip3), "Removed album should keep its own clips");
+    }
+
+    @Test
+    void removeSoundClipFromDetachedAlbum() {
+        rootAlbum.removeChildAlbum(musicAlbum);
+        musicAlbum.removeSoundClip(clip3);
+
+        assertFalse(classicalAlbum.containsSoundClip(clip3), "Removal should reach children of a detached album");
+        assertTrue(rootAlbum.containsSoundClip(clip3), "Removal should not reach the old parent");
+    }
+
     @Test
     void getSoundClips() {
         List<SoundClip> rootClips = rootAlbum.getSoundClips();
@@ -143,4 +238,270 @@ class AlbumTest {
         assertFalse(classicalAlbum.containsSoundClip(clip1), "Classical should not contain clip1");
         assertFalse(classicalAlbum.containsSoundClip(clip2), "Classical should not contain clip2");
     }
+
+    @Test
+    void getSoundClipsKeepsInsertionOrder() {
+        assertEquals(List.of(clip1, clip2, clip3), rootAlbum.getSoundClips(), "Root should list clips in insertion order");
+        assertEquals(List.of(clip2, clip3), musicAlbum.getSoundClips(), "Music should list clips in insertion order");
+
+        rootAlbum.removeSoundClip(clip2);
+        SoundClip clip4 = new SoundClip(new File("clip4.wav"));
+        rootAlbum.addSoundClip(clip4);
+        rootAlbum.addSoundClip(clip2);
+
+        assertEquals(List.of(clip1, clip3, clip4, clip2), rootAlbum.getSoundClips(),
+                "Re-added clip should move to the end");
+    }
+
+    @Test
+    void addDuplicateSoundClip() {
+        rootAlbum.addSoundClip(clip1);
+        rootAlbum.addSoundClip(new SoundClip(new File("clip1.wav")));
+        classicalAlbum.addSoundClip(clip3);
+
+        assertEquals(3, rootAlbum.getSoundClipCount(), "Root should not contain duplicates");
+        assertEquals(List.of(clip1, clip2, clip3), rootAlbum.getSoundClips(), "Duplicates should keep original position");
+        assertEquals(2, musicAlbum.getSoundClipCount(), "Music should not contain duplicates");
+        assertEquals(1, classicalAlbum.getSoundClipCount(), "Classical should not contain duplicates");
+    }
+
+    @Test
+    void removeSoundClipFromChildAlbums() {
+        rootAlbum.removeSoundClip(clip3);
+        assertFalse(rootAlbum.containsSoundClip(clip3), "Root should not contain clip3 after removal");
+        assertFalse(musicAlbum.containsSoundClip(clip3), "Music should not contain clip3 after removal from root");
+        assertFalse(classicalAlbum.containsSoundClip(clip3), "Classical should not contain clip3 after removal from root");
+
+        rootAlbum.removeSoundClip(clip3);
+        assertEquals(List.of(clip1, clip2), rootAlbum.getSoundClips(), "Removing a missing clip should have no effect");
+    }
+
+    @Test
+    void addAndRemoveSoundClipsNotifyOncePerAlbum() {
+        int[] rootChanges = new int[1];
+        int[] classicalChanges = new int[1];
+        rootAlbum.addObserver(new CountingObserver(rootChanges));
+        classicalAlbum.addObserver(new CountingObserver(classicalChanges));
+
+        List<SoundClip> clips = List.of(new SoundClip(new File("a.wav")), new SoundClip(new File("b.wav")),
+                new SoundClip(new File("c.wav")));
+        classicalAlbum.addSoundClips(clips);
+
+        assertEquals(1, rootChanges[0], "Root should be notified once for a bulk add");
+        assertEquals(1, classicalChanges[0], "Classical should be notified once for a bulk add");
+        assertTrue(rootAlbum.getSoundClips().containsAll(clips), "Root should contain the added clips");
+
+        rootAlbum.removeSoundClips(clips);
+
+        assertEquals(2, rootChanges[0], "Root should be notified once for a bulk remove");
+        assertEquals(2, classicalChanges[0], "Classical should be notified once for a bulk remove");
+        assertEquals(List.of(clip3), classicalAlbum.getSoundClips(), "Classical should only keep clip3");
+    }
+
+    @Test
+    void concurrentAddsAndReads() throws Exception {
+        int writers = 4;
+        int clipsPerWriter = 2000;
+        ExecutorService executor = Executors.newFixedThreadPool(writers + 1);
+        List<Future<?>> futures = new ArrayList<>();
+
+        for (int w = 0; w < writers; w++) {
+            int writer = w;
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < clipsPerWriter; i++) {
+                    classicalAlbum.addSoundClip(new SoundClip(new File("w" + writer + "_" + i + ".wav")));
+                }
+            }));
+        }
+        futures.add(executor.submit(() -> {
+            for (int i = 0; i < 500; i++) {
+                for (SoundClip clip : rootAlbum.getSoundClips()) {
+                    assertTrue(clip != null);
+                }
+            }
+        }));
+
+        for (Future<?> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        assertEquals(3 + writers * clipsPerWriter, rootAlbum.getSoundClipCount());
+        assertEquals(1 + writers * clipsPerWriter, classicalAlbum.getSoundClips().size());
+    }
+
+    @Test
+    void observersReceiveChangesWithPositions() {
+        List<SoundClipChange> changes = new ArrayList<>();
+        rootAlbum.addObserver(new CountingObserver(new int[1]) {
+            @Override
+            public void onSoundClipsChanged(Album album, SoundClipChange change) {
+                changes.add(change);
+            }
+        });
+
+        SoundClip clip4 = new SoundClip(new File("clip4.wav"));
+        SoundClip clip5 = new SoundClip(new File("clip5.wav"));
+        rootAlbum.addSoundClips(List.of(clip1, clip4, clip5));
+
+        assertEquals(1, changes.size());
+        SoundClipChange added = changes.get(0);
+        assertTrue(added.isAddition());
+        assertEquals(List.of(clip4, clip5), added.getClips(), "Only new clips should be reported");
+        assertEquals(3, added.getPosition(0));
+        assertEquals(4, added.getPosition(1));
+
+        rootAlbum.removeSoundClips(List.of(clip5, clip2, new SoundClip(new File("missing.wav"))));
+
+        assertEquals(2, changes.size());
+        SoundClipChange removed = changes.get(1);
+        assertTrue(removed.isRemoval());
+        assertEquals(List.of(clip2, clip5), removed.getClips(), "Removed clips should be in album order");
+        assertEquals(1, removed.getPosition(0));
+        assertEquals(4, removed.getPosition(1));
+    }
+
+    @Test
+    void concurrentChangesAreDeliveredInOrder() throws Exception {
+        List<SoundClip> copy = new ArrayList<>();
+        copy.addAll(classicalAlbum.subscribe(new CountingObserver(new int[1]) {
+            @Override
+            public void onSoundClipsChanged(Album album, SoundClipChange change) {
+                if (change.isAddition()) {
+                    copy.addAll(change.getPosition(0), change.getClips());
+                } else {
+                    for (int i = change.size() - 1; i >= 0; i--) {
+                        copy.remove(change.getPosition(i));
+                    }
+                }
+            }
+        }));
+        int writers = 4;
+        ExecutorService executor = Executors.newFixedThreadPool(writers);
+        List<Future<?>> futures = new ArrayList<>();
+
+        for (int w = 0; w < writers; w++) {
+            int writer = w;
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    SoundClip clip = new SoundClip(new File("w" + writer + "_" + i + ".wav"));
+                    classicalAlbum.addSoundClip(clip);
+                    if (i % 3 == 0) {
+                        classicalAlbum.removeSoundClip(clip);
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        assertEquals(classicalAlbum.getSoundClips(), copy, "Applying the changes in order gives the album");
+    }
+
+    @Test
+    void removalPositionsStayRightAfterMostClipsAreRemoved() {
+        List<SoundClip> copy = new ArrayList<>();
+        copy.addAll(musicAlbum.subscribe(new CopyingObserver(copy)));
+
+        List<SoundClip> clips = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            clips.add(new SoundClip(new File("many" + i + ".wav")));
+        }
+        musicAlbum.addSoundClips(clips);
+        // Remove in an order that isn't album order, and leave a few behind
+        for (int i = 0; i < 1000; i += 2) {
+            musicAlbum.removeSoundClip(clips.get(999 - i));
+        }
+        for (int i = 1; i < 990; i += 2) {
+            musicAlbum.removeSoundClips(List.of(clips.get(i), clips.get(i)));
+        }
+        musicAlbum.addSoundClip(clips.get(0));
+
+        assertEquals(musicAlbum.getSoundClips(), copy, "Applying the changes in order gives the album");
+    }
+
+    @Test
+    void removingAClipFromAnObservedAlbumDoesNotWalkTheAlbum() {
+        // Take the fastest of a few rounds, so the JIT and the garbage collector
+        // don't decide the outcome. Walking the album would make the large
+        // album about a hundred times slower than the small one.
+        long small = Long.MAX_VALUE;
+        long large = Long.MAX_VALUE;
+        for (int round = 0; round < 5; round++) {
+            small = Math.min(small, timeRemovals(1_000));
+            large = Math.min(large, timeRemovals(100_000));
+        }
+
+        assertTrue(large < 10 * small,
+                "Removing from 100k clips took " + large + " ns, from 1k clips " + small + " ns");
+    }
+
+    // Removes the last 500 clips, one at a time, from an observed album of size clips.
+    private static long timeRemovals(int size) {
+        Album album = new Album("Library");
+        List<SoundClip> clips = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            clips.add(new SoundClip(new File("clip" + i + ".wav")));
+        }
+        album.addSoundClips(clips);
+        List<SoundClip> copy = new ArrayList<>();
+        copy.addAll(album.subscribe(new CopyingObserver(copy)));
+
+        long start = System.nanoTime();
+        for (int i = size - 1; i >= size - 500; i--) {
+            album.removeSoundClip(clips.get(i));
+        }
+        long elapsed = System.nanoTime() - start;
+
+        assertEquals(album.getSoundClips(), copy);
+        return elapsed;
+    }
+
+    @Test
+    void getSoundClipsIsSnapshot() {
+        List<SoundClip> clips = rootAlbum.getSoundClips();
+        rootAlbum.addSoundClip(new SoundClip(new File("clip4.wav")));
+
+        assertEquals(3, clips.size(), "Previously returned list should not change");
+    }
+
+    // Keeps a copy of the album's clips in sync by applying the changes
+    private static class CopyingObserver extends CountingObserver {
+        private final List<SoundClip> copy;
+
+        CopyingObserver(List<SoundClip> copy) {
+            super(new int[1]);
+            this.copy = copy;
+        }
+
+        @Override
+        public void onSoundClipsChanged(Album album, SoundClipChange change) {
+            if (change.isAddition()) {
+                copy.addAll(change.getPosition(0), change.getClips());
+            } else {
+                for (int i = change.size() - 1; i >= 0; i--) {
+                    assertEquals(change.getClips().get(i), copy.remove(change.getPosition(i)));
+                }
+            }
+        }
+    }
+
+    private static class CountingObserver implements AlbumObserver {
+        private final int[] changes;
+
+        CountingObserver(int[] changes) {
+            this.changes = changes;
+        }
+
+        @Override
+        public void onSoundClipsChanged(Album album) {
+            changes[0]++;
+        }
+
+        @Override
+        public void onAlbumDeleted(Album album) {
+        }
+    }
 }
@@ -0,0 +1,124 @@
+package org.music;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.music.model.Album;
+import org.music.view.AlbumTreeItem;
+
+import javafx.scene.control.TreeItem;
+
+class AlbumTreeItemTest {
+    private Queue<Runnable> scheduled;
+    private Album rootAlbum;
+
+    @BeforeEach
+    void setUp() {
+        scheduled = new ArrayDeque<>();
+        rootAlbum = new Album("All Sound Clips");
+    }
+
+    @Test
+    void childrenAreCreatedWhenFirstNeeded() {
+        Album musicAlbum = addChild(rootAlbum, "Music");
+        addChild(musicAlbum, "Classical Music");
+        AlbumTreeItem rootItem = new AlbumTreeItem(rootAlbum, scheduled::add);
+
+        assertFalse(rootItem.isLeaf(), "An album with child albums should not be a leaf");
+        List<TreeItem<Album>> children = rootItem.getChildren();
+        assertEquals(1, children.size());
+        assertEquals(musicAlbum, children.get(0).getValue());
+        assertTrue(new AlbumTreeItem(new Album("Empty"), scheduled::add).isLeaf());
+    }
+
+    @Test
+    void loadedItemFollowsChildAlbums() {
+        AlbumTreeItem rootItem = new AlbumTreeItem(rootAlbum, scheduled::add);
+        rootItem.setExpanded(true);
+        rootItem.getChildren();
+
+        Album musicAlbum = addChild(rootAlbum, "Music");
+        Album rockAlbum = addChild(rootAlbum, "Rock");
+        runScheduled();
+        assertEquals(List.of(musicAlbum, rockAlbum), values(rootItem));
+
+        rootAlbum.removeChildAlbum(musicAlbum);
+        runScheduled();
+        assertEquals(List.of(rockAlbum), values(rootItem));
+    }
+
+    @Test
+    void collapsingReleasesChildren() {
+        AlbumTreeItem rootItem = new AlbumTreeItem(rootAlbum, scheduled::add);
+        Album musicAlbum = addChild(rootAlbum, "Music");
+        rootItem.setExpanded(true);
+        assertEquals(List.of(musicAlbum), values(rootItem));
+
+        rootItem.setExpanded(false);
+        Album rockAlbum = addChild(rootAlbum, "Rock");
+        runScheduled();
+        addChild(musicAlbum, "Jazz");
+        assertTrue(scheduled.isEmpty(), "A node dropped by its parent should not observe its album");
+
+        rootItem.setExpanded(true);
+        assertEquals(List.of(musicAlbum, rockAlbum), values(rootItem));
+    }
+
+    @Test
+    void collapsedItemRedrawsWhenItGainsOrLosesChildren() {
+        AlbumTreeItem rootItem = new AlbumTreeItem(rootAlbum, scheduled::add);
+        int[] redraws = new int[1];
+        rootItem.addEventHandler(TreeItem.valueChangedEvent(), event -> redraws[0]++);
+        assertTrue(rootItem.isLeaf());
+
+        Album musicAlbum = addChild(rootAlbum, "Music");
+        runScheduled();
+        assertFalse(rootItem.isLeaf(), "Has a child album now");
+        assertEquals(1, redraws[0], "Redrawn to show the disclosure arrow");
+
+        rootAlbum.removeChildAlbum(musicAlbum);
+        runScheduled();
+        assertTrue(rootItem.isLeaf(), "No child albums again");
+        assertEquals(2, redraws[0], "Redrawn to hide the disclosure arrow");
+    }
+
+    @Test
+    void childReadAndReportedIsAddedOnce() {
+        AlbumTreeItem rootItem = new AlbumTreeItem(rootAlbum, scheduled::add);
+        rootItem.setExpanded(true);
+        rootItem.getChildren();
+
+        // Reported to the item, but also present when it loads again
+        Album musicAlbum = addChild(rootAlbum, "Music");
+        rootItem.setExpanded(false);
+        rootItem.setExpanded(true);
+        rootItem.getChildren();
+        runScheduled();
+
+        assertEquals(List.of(musicAlbum), values(rootItem));
+    }
+
+    private static Album addChild(Album parent, String name) {
+        Album album = new Album(name, parent);
+        parent.addChildAlbum(album);
+        return album;
+    }
+
+    private void runScheduled() {
+        Runnable task;
+        while ((task = scheduled.poll()) != null) {
+            task.run();
+        }
+    }
+
+    private static List<Album> values(TreeItem<Album> item) {
+        return item.getChildren().stream().map(TreeItem::getValue).toList();
+    }
+}
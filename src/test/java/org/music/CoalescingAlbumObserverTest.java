@@ -0,0 +1,95 @@
+package org.music;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.music.model.Album;
+import org.music.model.SoundClip;
+import org.music.model.SoundClipChange;
+import org.music.view.CoalescingAlbumObserver;
+
+class CoalescingAlbumObserverTest {
+    private Queue<Runnable> scheduled;
+    private List<List<SoundClipChange>> dispatched;
+    private List<Album> deleted;
+    private CoalescingAlbumObserver observer;
+
+    @BeforeEach
+    void setUp() {
+        scheduled = new ArrayDeque<>();
+        dispatched = new ArrayList<>();
+        deleted = new ArrayList<>();
+        observer = new TestObserver();
+    }
+
+    @Test
+    void burstOfChangesIsDispatchedOnce() {
+        Album album = new Album("All Sound Clips");
+        album.addObserver(observer);
+
+        for (int i = 0; i < 100; i++) {
+            album.addSoundClip(new SoundClip(new File("clip" + i + ".wav")));
+        }
+
+        assertEquals(1, scheduled.size(), "Only one dispatch should be scheduled for a burst");
+        scheduled.poll().run();
+
+        assertEquals(1, dispatched.size(), "Changes should be delivered in one call");
+        assertEquals(100, dispatched.get(0).size(), "All changes should be delivered in order");
+        assertEquals(99, dispatched.get(0).get(99).getPosition(0));
+    }
+
+    @Test
+    void changesAfterDispatchAreScheduledAgain() {
+        Album album = new Album("All Sound Clips");
+        album.addObserver(observer);
+
+        album.addSoundClip(new SoundClip(new File("clip1.wav")));
+        scheduled.poll().run();
+        album.addSoundClip(new SoundClip(new File("clip2.wav")));
+
+        assertEquals(1, scheduled.size(), "A new change should schedule a new dispatch");
+        scheduled.poll().run();
+        assertEquals(2, dispatched.size());
+    }
+
+    @Test
+    void deletionIsDeliveredAfterChanges() {
+        Album root = new Album("All Sound Clips");
+        Album music = new Album("Music", root);
+        root.addChildAlbum(music);
+        music.addObserver(observer);
+
+        music.addSoundClip(new SoundClip(new File("clip1.wav")));
+        root.removeChildAlbum(music);
+        scheduled.poll().run();
+
+        assertEquals(1, dispatched.size(), "Changes before deletion should be delivered");
+        assertEquals(List.of(music), deleted);
+        assertTrue(scheduled.isEmpty());
+    }
+
+    private class TestObserver extends CoalescingAlbumObserver {
+        TestObserver() {
+            super(scheduled::add);
+        }
+
+        @Override
+        protected void onSoundClipsChanged(Album album, List<SoundClipChange> changes) {
+            dispatched.add(changes);
+        }
+
+        @Override
+        protected void onDeleted(Album album) {
+            deleted.add(album);
+        }
+    }
+}
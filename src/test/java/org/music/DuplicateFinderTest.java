@@ -0,0 +1,101 @@
+package org.music;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.music.model.DuplicateFinder;
+import org.music.model.DuplicateIndex;
+import org.music.model.SoundClip;
+
+class DuplicateFinderTest {
+
+    @TempDir
+    Path temp;
+
+    @Test
+    void groupsIdenticalFilesAcrossFolders() throws IOException {
+        byte[] song = randomBytes(100_000, 1);
+        SoundClip a = clip("rock/song.wav", song);
+        SoundClip b = clip("backup/song copy.wav", song);
+        SoundClip c = clip("backup/old/song.wav", song);
+        SoundClip other = clip("rock/other.wav", randomBytes(100_000, 2));
+
+        try (DuplicateFinder finder = new DuplicateFinder(2)) {
+            DuplicateIndex index = finder.find(List.of(a, b, c, other));
+
+            assertEquals(1, index.getGroups().size(), "Groups");
+            assertEquals(Set.of(a, b, c), new HashSet<>(index.getDuplicatesOf(b)), "Copies of the song");
+            assertFalse(index.hasDuplicates(other), "Other clip has no duplicates");
+            assertEquals(2, index.getRedundantCount(), "Redundant copies");
+
+            // The finder keeps its threads and buffers for the next find
+            assertEquals(index.getGroups(), finder.find(List.of(a, b, c, other)).getGroups(), "Found again");
+        }
+    }
+
+    @Test
+    void onlyReadsFilesThatCollide() throws IOException {
+        SoundClip a = clip("a.wav", randomBytes(50_000, 1));
+        SoundClip b = clip("b.wav", randomBytes(60_000, 2));
+        SoundClip c = clip("c.wav", randomBytes(70_000, 3));
+
+        // Same size and same ends as d, but a different middle
+        byte[] middle = randomBytes(80_000, 4);
+        SoundClip d = clip("d.wav", middle);
+        middle[40_000]++;
+        SoundClip e = clip("e.wav", middle);
+
+        // Same size, different start
+        SoundClip f = clip("f.wav", randomBytes(90_000, 5));
+        SoundClip g = clip("g.wav", randomBytes(90_000, 6));
+
+        DuplicateIndex index;
+        try (DuplicateFinder finder = new DuplicateFinder(2)) {
+            index = finder.find(List.of(a, b, c, d, e, f, g));
+        }
+
+        assertTrue(index.getGroups().isEmpty(), "No duplicates");
+        assertEquals(4, index.getPartiallyReadCount(), "Files with a size of their own aren't opened");
+        assertEquals(2, index.getFullyReadCount(), "Only the files with equal ends are read in full");
+    }
+
+    @Test
+    void smallFilesNeedNoFullRead() throws IOException {
+        SoundClip a = clip("a.wav", randomBytes(1000, 1));
+        SoundClip b = clip("b.wav", randomBytes(1000, 1));
+        SoundClip c = clip("c.wav", randomBytes(1000, 2));
+        SoundClip missing = new SoundClip(temp.resolve("missing.wav").toFile());
+
+        DuplicateIndex index;
+        try (DuplicateFinder finder = new DuplicateFinder(1)) {
+            index = finder.find(List.of(a, b, c, missing, a));
+        }
+
+        assertEquals(List.of(List.of(a, b)), index.getGroups(), "Groups");
+        assertEquals(0, index.getFullyReadCount(), "Full reads");
+        assertEquals(4, index.getCheckedCount(), "Clips checked");
+    }
+
+    private SoundClip clip(String name, byte[] content) throws IOException {
+        Path file = temp.resolve(name);
+        Files.createDirectories(file.getParent());
+        return new SoundClip(Files.write(file, content).toFile());
+    }
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+}
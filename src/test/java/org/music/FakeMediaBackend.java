@@ -0,0 +1,138 @@
+package org.music;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.music.model.MediaBackend;
+import org.music.model.SoundClip;
+
+/**
+ * A MediaBackend that plays nothing, and lets tests end tracks when they like.
+ * Opening a track can be made slow, like starting a decoder is.
+ */
+class FakeMediaBackend implements MediaBackend {
+
+    private final List<FakeTrack> tracks = new ArrayList<>();
+    private final long openMillis;
+
+    FakeMediaBackend() {
+        this(0);
+    }
+
+    FakeMediaBackend(long openMillis) {
+        this.openMillis = openMillis;
+    }
+
+    @Override
+    public Track open(SoundClip soundClip) {
+        if (openMillis > 0) {
+            try {
+                Thread.sleep(openMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return add(soundClip);
+    }
+
+    private synchronized Track add(SoundClip soundClip) {
+        if (soundClip.toString().startsWith("broken")) {
+            throw new IllegalArgumentException("Can't open " + soundClip);
+        }
+        FakeTrack track = new FakeTrack(soundClip);
+        tracks.add(track);
+        return track;
+    }
+
+    /**
+     * @return the tracks opened so far, in order.
+     */
+    synchronized List<FakeTrack> getTracks() {
+        return new ArrayList<>(tracks);
+    }
+
+    synchronized FakeTrack getTrack(int i) {
+        return i < tracks.size() ? tracks.get(i) : null;
+    }
+
+    static class FakeTrack implements Track {
+        final SoundClip soundClip;
+        final Thread openedOn = Thread.currentThread();
+        private volatile boolean playing;
+        private volatile boolean disposed;
+        private volatile long playedNanos; // when play was first called, 0 before
+        private volatile long endedNanos; // when end was called, 0 before
+        private volatile Runnable onEndOfMedia = () -> { };
+        private volatile Runnable onPlaying = () -> { };
+
+        FakeTrack(SoundClip soundClip) {
+            this.soundClip = soundClip;
+        }
+
+        @Override
+        public void play() {
+            if (playedNanos == 0) {
+                playedNanos = System.nanoTime();
+            }
+            if (!playing) {
+                playing = true;
+                onPlaying.run();
+            }
+        }
+
+        @Override
+        public void pause() {
+            playing = false;
+        }
+
+        @Override
+        public void dispose() {
+            playing = false;
+            disposed = true;
+        }
+
+        @Override
+        public void setOnEndOfMedia(Runnable onEndOfMedia) {
+            this.onEndOfMedia = onEndOfMedia;
+        }
+
+        @Override
+        public void setOnError(Runnable onError) {
+        }
+
+        @Override
+        public void setOnReady(Runnable onReady) {
+            onReady.run(); // ready once opened
+        }
+
+        @Override
+        public void setOnPlaying(Runnable onPlaying) {
+            this.onPlaying = onPlaying;
+        }
+
+        boolean isPlaying() {
+            return playing;
+        }
+
+        boolean isDisposed() {
+            return disposed;
+        }
+
+        long getPlayedNanos() {
+            return playedNanos;
+        }
+
+        long getEndedNanos() {
+            return endedNanos;
+        }
+
+        /**
+         * Plays the track to its end.
+         */
+        void end() {
+            endedNanos = System.nanoTime();
+            playing = false;
+            onEndOfMedia.run();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package org.music;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.BooleanSupplier;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.music.model.Album;
+import org.music.model.LibraryWatcher;
+import org.music.model.SoundClip;
+import org.music.model.SoundClipScanner;
+
+class LibraryWatcherTest {
+
+    @TempDir
+    Path library;
+
+    private Album root;
+    private LibraryWatcher watcher;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        Files.createDirectories(library.resolve("folder"));
+        Files.createFile(library.resolve("folder").resolve("old.wav"));
+
+        root = new Album("All Sound Clips");
+        root.addSoundClips(new SoundClipScanner(1).scan(library.toString()));
+        watcher = new LibraryWatcher(library, root, 50, null);
+        watcher.start();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        watcher.close();
+    }
+
+    @Test
+    void addsNewFiles() throws IOException {
+        Path file = Files.createFile(library.resolve("folder").resolve("new.wav"));
+        Files.createFile(library.resolve("folder").resolve("cover.jpg"));
+
+        await(() -> root.containsSoundClip(clip(file)));
+        assertTrue(root.containsSoundClip(clip(library.resolve("folder").resolve("old.wav"))));
+    }
+
+    @Test
+    void removesDeletedFiles() throws IOException {
+        Path file = library.resolve("folder").resolve("old.wav");
+        Files.delete(file);
+
+        await(() -> !root.containsSoundClip(clip(file)));
+    }
+
+    @Test
+    void followsRenames() throws IOException {
+        Path from = library.resolve("folder").resolve("old.wav");
+        Path to = library.resolve("folder").resolve("renamed.wav");
+        Files.move(from, to);
+
+        await(() -> root.containsSoundClip(clip(to)) && !root.containsSoundClip(clip(from)));
+    }
+
+    @Test
+    void watchesNewAndDeletedFolders() throws IOException {
+        Path folder = Files.createDirectories(library.resolve("new folder").resolve("nested"));
+        Path file = Files.createFile(folder.resolve("nested.wav"));
+        await(() -> root.containsSoundClip(clip(file)));
+
+        Path later = Files.createFile(folder.resolve("later.wav"));
+        await(() -> root.containsSoundClip(clip(later)));
+
+        Files.delete(file);
+        Files.delete(later);
+        Files.delete(folder);
+        await(() -> root.getSoundClipCount() == 1);
+        assertFalse(root.containsSoundClip(clip(later)));
+    }
+
+    @Test
+    void catchesUpWithChangesMadeBeforeItStarted() throws IOException {
+        watcher.close();
+        Path created = Files.createFile(library.resolve("folder").resolve("created.wav"));
+        Path nested = Files.createFile(Files.createDirectories(library.resolve("new folder")).resolve("nested.wav"));
+        Path deleted = library.resolve("folder").resolve("old.wav");
+        Files.delete(deleted);
+
+        watcher = new LibraryWatcher(library, root, 50, null);
+        watcher.start();
+
+        assertTrue(root.containsSoundClip(clip(created)), "Created after the scan");
+        assertTrue(root.containsSoundClip(clip(nested)), "Created after the scan, in a new folder");
+        assertFalse(root.containsSoundClip(clip(deleted)), "Deleted after the scan");
+
+        Path later = Files.createFile(library.resolve("new folder").resolve("later.wav"));
+        await(() -> root.containsSoundClip(clip(later)));
+    }
+
+    private static SoundClip clip(Path file) {
+        return new SoundClip(file.toFile());
+    }
+
+    private static void await(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("Library change was not applied in time");
+            }
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package org.music;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.music.metrics.Counter;
+import org.music.metrics.Histogram;
+import org.music.metrics.Log;
+import org.music.metrics.Metrics;
+import org.music.metrics.MetricsSnapshot;
+import org.music.metrics.Timer;
+import org.music.model.Album;
+import org.music.model.SoundClip;
+
+class MetricsTest {
+
+    @AfterEach
+    void resetLog() {
+        Log.setLevel(Log.Level.INFO);
+        Log.setSink(Log.CONSOLE);
+    }
+
+    @Test
+    void snapshotHoldsCountersTimersAndGauges() {
+        Counter counter = Metrics.counter("test.counter");
+        Timer timer = Metrics.timer("test.timer");
+        Metrics.gauge("test.gauge", () -> 42);
+        MetricsSnapshot before = Metrics.snapshot();
+
+        counter.add(10);
+        counter.increment();
+        timer.record(100);
+        timer.record(300);
+        MetricsSnapshot after = Metrics.snapshot();
+
+        assertEquals(11, after.get("test.counter") - before.get("test.counter"), "Counted");
+        assertEquals(2, after.get("test.timer.count") - before.get("test.timer.count"), "Timed");
+        assertTrue(after.get("test.timer.maxNanos") >= 300, "Longest time");
+        assertEquals(42, after.get("test.gauge"), "Gauge");
+        assertTrue(after.ratePerSecond("test.counter", before) > 0, "Rate");
+        Metrics.removeGauge("test.gauge");
+    }
+
+    @Test
+    void histogramPercentilesWithinBucketError() {
+        Histogram histogram = Metrics.histogram("test.histogram");
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        histogram.record(-5); // as 0
+
+        assertEquals(1001, histogram.getCount());
+        assertEquals(1_000_000, histogram.getMax());
+        assertEquals(0, histogram.getPercentile(0), "Lowest value");
+        assertEquals(500_000, histogram.getPercentile(50), 500_000 * 0.07, "Median");
+        assertEquals(990_000, histogram.getPercentile(99), 990_000 * 0.07, "99th percentile");
+        assertEquals(1_000_000, histogram.getPercentile(100), "Never above the largest value");
+
+        MetricsSnapshot snapshot = Metrics.snapshot();
+        assertEquals(1001, snapshot.get("test.histogram.count"));
+        assertEquals(histogram.getPercentile(90), snapshot.get("test.histogram.p90"));
+    }
+
+    @Test
+    void albumMutationsAreCounted() {
+        MetricsSnapshot before = Metrics.snapshot();
+
+        Album root = new Album("root");
+        Album child = new Album("child", root);
+        root.addChildAlbum(child);
+        child.addSoundClips(List.of(new SoundClip(new File("/m/a.wav")),
+                new SoundClip(new File("/m/b.wav"))));
+        root.removeSoundClip(new SoundClip(new File("/m/a.wav")));
+        MetricsSnapshot after = Metrics.snapshot();
+
+        assertEquals(3, after.get("album.mutations") - before.get("album.mutations"), "Mutations");
+        assertEquals(4, after.get("album.clipsAdded") - before.get("album.clipsAdded"), "Added to child and root");
+        assertEquals(2, after.get("album.clipsRemoved") - before.get("album.clipsRemoved"), "Removed from both");
+    }
+
+    @Test
+    void logIsAsyncAndLevelGated() throws InterruptedException {
+        List<String> written = Collections.synchronizedList(new ArrayList<>());
+        Log.setSink((level, message, thrown) -> written.add(level + " " + message));
+        AtomicInteger formatted = new AtomicInteger();
+        Object expensive = new Object() {
+            @Override
+            public String toString() {
+                formatted.incrementAndGet();
+                return "expensive";
+            }
+        };
+
+        Log.setLevel(Log.Level.WARN);
+        Log.debug("Debug %s", expensive);
+        Log.info("Info %s", expensive);
+        Log.warn("Warning %s", expensive);
+        assertTrue(Log.flush(5000), "Flushed");
+
+        assertEquals(List.of("WARN Warning expensive"), written, "Only the warning is written");
+        assertEquals(1, formatted.get(), "Disabled messages aren't formatted");
+    }
+
+    @Test
+    void disabledMessagesAllocateNothing() {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean,
+                "Needs per-thread allocation counts");
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        File file = new File("clip.wav");
+        Log.setLevel(Log.Level.WARN);
+
+        // Few enough calls that the JIT doesn't get to optimize the arrays away
+        long before = threads.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < 5_000; i++) {
+            Log.info("Now playing %s", file);
+            Log.debug("Loading %s from %s as %s", file, file, file);
+        }
+        long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+
+        // An argument array per call would be over 200 KB
+        assertTrue(allocated < 20_000, "Allocated " + allocated + " bytes");
+    }
+}
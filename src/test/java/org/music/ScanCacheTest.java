@@ -0,0 +1,116 @@
+package org.music;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.music.model.ScanCache;
+import org.music.model.SoundClip;
+import org.music.model.SoundClipScanner;
+
+class ScanCacheTest {
+
+    @TempDir
+    Path temp;
+
+    private Path library;
+    private Path cacheFile;
+    private SoundClipScanner scanner;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        library = temp.resolve("library");
+        cacheFile = temp.resolve("cache").resolve("scan-cache.bin");
+        scanner = new SoundClipScanner(2);
+
+        for (int i = 0; i < 3; i++) {
+            Path folder = Files.createDirectories(library.resolve("folder" + i));
+            Files.createFile(folder.resolve("clip" + i + ".wav"));
+        }
+        Files.createFile(library.resolve("top.wav"));
+        makeOld(library);
+    }
+
+    @Test
+    void unchangedLibraryIsTakenFromCache() throws IOException {
+        Set<SoundClip> cold = scan(ScanCache.load(cacheFile, library.toString()), true);
+
+        ScanCache cache = ScanCache.load(cacheFile, library.toString());
+        assertEquals(4, cache.getFolderCount());
+        Set<SoundClip> warm = scan(cache, false);
+
+        assertEquals(cold, warm);
+        assertEquals(4, cache.getReusedFolderCount(), "No folder should be listed again");
+    }
+
+    @Test
+    void changedFolderIsListedAgain() throws IOException {
+        Set<SoundClip> cold = scan(ScanCache.load(cacheFile, library.toString()), true);
+
+        Path folder = library.resolve("folder1");
+        Files.createFile(folder.resolve("new.wav"));
+        Files.delete(folder.resolve("clip1.wav"));
+        Files.setLastModifiedTime(folder, FileTime.fromMillis(System.currentTimeMillis() - 60_000));
+
+        ScanCache cache = ScanCache.load(cacheFile, library.toString());
+        Set<SoundClip> warm = scan(cache, false);
+
+        assertEquals(3, cache.getReusedFolderCount(), "Only the changed folder should be listed");
+        assertEquals(cold.size(), warm.size());
+        assertEquals(new HashSet<>(scanner.scan(library.toString())), warm);
+    }
+
+    @Test
+    void corruptCacheFallsBackToFullScan() throws IOException {
+        Set<SoundClip> cold = scan(ScanCache.load(cacheFile, library.toString()), true);
+
+        byte[] bytes = Files.readAllBytes(cacheFile);
+        bytes[bytes.length / 2] ^= 0x5A;
+        Files.write(cacheFile, bytes);
+
+        ScanCache cache = ScanCache.load(cacheFile, library.toString());
+        assertEquals(0, cache.getFolderCount(), "A corrupt cache should be ignored");
+        assertEquals(cold, scan(cache, false));
+        assertEquals(0, cache.getReusedFolderCount());
+
+        Files.write(cacheFile, new byte[] {1, 2, 3});
+        assertEquals(0, ScanCache.load(cacheFile, library.toString()).getFolderCount(),
+                "A truncated cache should be ignored");
+    }
+
+    @Test
+    void cacheForAnotherLibraryIsIgnored() throws IOException {
+        scan(ScanCache.load(cacheFile, library.toString()), true);
+
+        assertEquals(0, ScanCache.load(cacheFile, temp.toString()).getFolderCount());
+    }
+
+    private Set<SoundClip> scan(ScanCache cache, boolean save) throws IOException {
+        Set<SoundClip> clips = new HashSet<>();
+        scanner.scan(library.toString(), 100, clips::addAll, cache);
+        if (save) {
+            cache.save(cacheFile);
+        }
+        return clips;
+    }
+
+    // Folders modified in the last few seconds are never trusted, so age the whole tree
+    private static void makeOld(Path folder) throws IOException {
+        try (var entries = Files.list(folder)) {
+            for (Path entry : (Iterable<Path>) entries::iterator) {
+                if (Files.isDirectory(entry)) {
+                    makeOld(entry);
+                }
+            }
+        }
+        Files.setLastModifiedTime(folder, FileTime.fromMillis(System.currentTimeMillis() - 120_000));
+    }
+}
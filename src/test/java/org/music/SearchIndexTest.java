@@ -0,0 +1,139 @@
+package org.music;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.music.model.Album;
+import org.music.model.SearchIndex;
+import org.music.model.SoundClip;
+
+class SearchIndexTest {
+    private Album rootAlbum;
+    private SoundClip drumsKick;
+    private SoundClip drumsSnare;
+    private SoundClip hydraKick;
+    private SoundClip drumbeat;
+
+    @BeforeEach
+    void setUp() {
+        rootAlbum = new Album("All Sound Clips");
+        drumsKick = new SoundClip(new File("/library/Drums/kick.wav"));
+        drumsSnare = new SoundClip(new File("/library/Drums/Snare 01.wav"));
+        hydraKick = new SoundClip(new File("/library/Hydra/kick.wav"));
+        drumbeat = new SoundClip(new File("/library/Pads/Drumbeat 01.wav"));
+        rootAlbum.addSoundClips(List.of(drumsKick, drumsSnare, hydraKick, drumbeat));
+    }
+
+    @Test
+    void matchesFileNamesAndFolders() {
+        SearchIndex index = new SearchIndex(rootAlbum);
+
+        assertEquals(Set.of(drumsKick, hydraKick), search(index, "kick"), "Word in file name");
+        assertEquals(Set.of(drumsKick, drumsSnare, drumbeat), search(index, "dr"), "Short words start a word");
+        assertEquals(Set.of(drumbeat), search(index, "beat"), "Longer words match anywhere");
+        assertEquals(Set.of(drumsKick), search(index, "drums KICK"), "Every word must match");
+        assertEquals(Set.of(drumsSnare), search(index, "snare-01"), "Punctuation is ignored");
+        assertEquals(Set.of(drumsSnare, drumbeat), search(index, "01"), "Digits are words too");
+        assertEquals(Set.of(), search(index, "cymbal"), "No match");
+        assertEquals(4, search(index, " ").size(), "No words matches everything");
+    }
+
+    @Test
+    void onlyIndexesFoldersBelowTheLibrary() {
+        Album album = new Album("All Sound Clips");
+        SoundClip kick = new SoundClip(new File("/home/alice/music/library/Drums/kick.wav"));
+        SoundClip hat = new SoundClip(new File("/home/alice/music/library/Drums/Acoustic/hat.wav"));
+        SoundClip top = new SoundClip(new File("/home/alice/music/library/music.wav"));
+        SoundClip outside = new SoundClip(new File("/home/alice/Drums/snare.wav"));
+        album.addSoundClips(List.of(kick, hat, top, outside));
+        SearchIndex index = new SearchIndex(album, new File("/home/alice/music/library"));
+
+        assertEquals(Set.of(), search(index, "alice"), "Folders above the library");
+        assertEquals(Set.of(), search(index, "library"), "The library folder itself");
+        assertEquals(Set.of(top), search(index, "music"), "File names still match");
+        assertEquals(Set.of(kick, hat), search(index, "drums"), "Folders below the library");
+        assertEquals(Set.of(hat), search(index, "drums acoustic"), "Nested folders");
+        assertEquals(Set.of(outside), search(index, "snare"), "Clips outside by file name");
+    }
+
+    @Test
+    void followsAlbumChanges() {
+        SearchIndex index = new SearchIndex(rootAlbum);
+        SoundClip hat = new SoundClip(new File("/library/Drums/hihat.wav"));
+
+        rootAlbum.addSoundClip(hat);
+        assertEquals(Set.of(hat), search(index, "hihat"), "Added clip");
+
+        rootAlbum.removeSoundClip(drumsKick);
+        assertEquals(Set.of(hydraKick), search(index, "kick"), "Removed clip");
+
+        rootAlbum.addSoundClip(drumsKick);
+        assertEquals(Set.of(drumsKick, hydraKick), search(index, "kick"), "Clip added back");
+
+        index.close();
+        rootAlbum.removeSoundClip(hat);
+        assertEquals(Set.of(hat), search(index, "hihat"), "Closed index no longer follows the album");
+    }
+
+    @Test
+    void removedClipsAreCompactedAway() {
+        SearchIndex index = new SearchIndex(rootAlbum);
+        List<SoundClip> many = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            many.add(new SoundClip(new File("/library/Loops/loop " + i + ".wav")));
+        }
+
+        rootAlbum.addSoundClips(many);
+        long full = index.estimatedBytes();
+        rootAlbum.removeSoundClips(many);
+        rootAlbum.addSoundClip(many.get(42));
+
+        assertEquals(Set.of(many.get(42)), search(index, "loop"), "Only the clip added back");
+        assertEquals(5, index.size(), "Clips in the index");
+        assertTrue(index.estimatedBytes() < full, "Index shrinks after compaction");
+    }
+
+    @Test
+    void searchesWithinScope() {
+        SearchIndex index = new SearchIndex(rootAlbum);
+        Album kicks = new Album("Kicks", rootAlbum);
+        rootAlbum.addChildAlbum(kicks);
+        kicks.addSoundClip(hydraKick);
+
+        assertEquals(List.of(hydraKick), index.search("kick", kicks, 10), "Only clips in scope");
+        assertEquals(List.of(), index.search("snare", kicks, 10), "Match outside scope");
+    }
+
+    @Test
+    void streamsResultsUntilStopped() {
+        SearchIndex index = new SearchIndex(rootAlbum);
+        List<List<SoundClip>> batches = new ArrayList<>();
+
+        int found = index.search("", null, 3, soundClips -> {
+            batches.add(soundClips);
+            return true;
+        });
+        assertEquals(4, found, "All clips");
+        assertEquals(List.of(3, 1), batches.stream().map(List::size).toList(), "Batch sizes");
+
+        batches.clear();
+        found = index.search("", null, 1, soundClips -> {
+            batches.add(soundClips);
+            return batches.size() < 2;
+        });
+        assertEquals(2, found, "Stopped after the second batch");
+        assertEquals(2, index.search("", null, 2).size(), "Limited results");
+    }
+
+    private static Set<SoundClip> search(SearchIndex index, String query) {
+        return new HashSet<>(index.search(query, null, Integer.MAX_VALUE));
+    }
+}
@@ -0,0 +1,144 @@
+package org.music;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.music.model.SoundClip;
+import org.music.model.SoundClipHandoffQueue;
+import org.music.model.SoundClipHandoffQueue.BackpressurePolicy;
+
+class SoundClipHandoffQueueTest {
+
+    @Test
+    void fullQueueFollowsPolicy() throws InterruptedException {
+        SoundClipHandoffQueue reject = new SoundClipHandoffQueue(2, BackpressurePolicy.REJECT);
+        assertTrue(reject.offer(batch(0)));
+        assertTrue(reject.offer(batch(1)));
+        assertFalse(reject.offer(batch(2)), "Rejected when full");
+        assertEquals(List.of(batch(0), batch(1)), reject.drain(), "Rejected batch not queued");
+
+        SoundClipHandoffQueue dropOldest = new SoundClipHandoffQueue(2, BackpressurePolicy.DROP_OLDEST);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(dropOldest.offer(batch(i)), "Never rejected");
+        }
+        assertEquals(List.of(batch(3), batch(4)), dropOldest.drain(), "Newest batches kept");
+
+        SoundClipHandoffQueue block = new SoundClipHandoffQueue(1, BackpressurePolicy.BLOCK);
+        block.put(batch(0));
+        assertFalse(block.offer(batch(1)), "offer doesn't wait");
+        Thread producer = new Thread(() -> {
+            try {
+                block.put(batch(2));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        producer.start();
+        Thread.sleep(50);
+        assertTrue(producer.isAlive(), "put waits for room");
+        assertEquals(batch(0), block.take());
+        producer.join(5000);
+        assertEquals(batch(2), block.take(), "Waiting batch added once there was room");
+    }
+
+    @Test
+    void drainWaitsWithTimeout() throws InterruptedException {
+        SoundClipHandoffQueue queue = new SoundClipHandoffQueue();
+
+        long start = System.nanoTime();
+        assertTrue(queue.drain(50, TimeUnit.MILLISECONDS).isEmpty(), "Nothing before the timeout");
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50), "Waited for the timeout");
+
+        CountDownLatch waiting = new CountDownLatch(1);
+        Thread producer = new Thread(() -> {
+            try {
+                waiting.await();
+                Thread.sleep(20);
+                queue.put(batch(0));
+                queue.put(batch(1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        producer.start();
+        waiting.countDown();
+        List<List<SoundClip>> drained = new ArrayList<>(queue.drain(5, TimeUnit.SECONDS));
+        producer.join(5000);
+        drained.addAll(queue.drain(0, TimeUnit.SECONDS));
+        assertEquals(List.of(batch(0), batch(1)), drained, "Woken by the first batch");
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    void wakeUpEndsDrainWithoutBatches() throws InterruptedException {
+        SoundClipHandoffQueue queue = new SoundClipHandoffQueue();
+        queue.wakeUp();
+        assertEquals(List.of(), queue.drain(), "Woken before draining");
+
+        Thread waker = new Thread(() -> {
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            queue.wakeUp();
+        });
+        waker.start();
+        assertEquals(List.of(), queue.drain(), "Woken while draining");
+        waker.join(5000);
+
+        queue.offer(batch(0));
+        assertEquals(List.of(batch(0)), queue.drain(), "Batches still drained");
+    }
+
+    @Test
+    void manyProducersLoseNothing() throws InterruptedException {
+        SoundClipHandoffQueue queue = new SoundClipHandoffQueue(16, BackpressurePolicy.BLOCK);
+        int producers = 4;
+        int batches = 5000;
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            int producer = p;
+            Thread thread = new Thread(() -> {
+                try {
+                    for (int i = 0; i < batches; i++) {
+                        queue.put(batch(producer * batches + i));
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+
+        int[] next = new int[producers]; // the next batch expected from each producer
+        int received = 0;
+        while (received < producers * batches) {
+            List<List<SoundClip>> drained = queue.drain(5, TimeUnit.SECONDS);
+            assertFalse(drained.isEmpty(), "Batches lost");
+            for (List<SoundClip> batch : drained) {
+                int n = Integer.parseInt(batch.get(0).toString().replace(".wav", ""));
+                int producer = n / batches;
+                assertEquals(next[producer]++, n % batches, "Batches of one producer stay in order");
+                received++;
+            }
+        }
+        for (Thread thread : threads) {
+            thread.join(5000);
+        }
+        assertEquals(0, queue.size(), "Everything taken");
+    }
+
+    private static List<SoundClip> batch(int n) {
+        return List.of(new SoundClip(new File("/queue/" + n + ".wav")));
+    }
+}
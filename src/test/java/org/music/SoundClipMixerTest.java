@@ -0,0 +1,204 @@
+package org.music;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import javax.sound.sampled.AudioFormat;
+
+import org.junit.jupiter.api.Test;
+import org.music.metrics.Metrics;
+import org.music.model.AudioSink;
+import org.music.model.PcmCache;
+import org.music.model.SoundClipMixer;
+
+class SoundClipMixerTest {
+    private static final AudioFormat FORMAT = PcmCache.DEFAULT_FORMAT;
+
+    private final SoundClipMixer mixer = new SoundClipMixer(new PcmCache(), 4, 8);
+
+    @Test
+    void mixesVoicesWithTheirGain() {
+        SoundClipMixer.Voice loud = mixer.play(pcm(6, 1000), 1f);
+        SoundClipMixer.Voice quiet = mixer.play(pcm(2, 2000), 0.5f);
+        assertEquals(2, mixer.getVoiceCount());
+
+        short[] out = render(6);
+        for (int i = 0; i < 4; i++) {
+            assertEquals(2000, out[i], "Both voices at sample " + i);
+        }
+        for (int i = 4; i < 12; i++) {
+            assertEquals(1000, out[i], "One voice at sample " + i);
+        }
+        assertTrue(quiet.isDone());
+        assertTrue(loud.isDone());
+        assertEquals(0, mixer.getVoiceCount(), "Slots of ended voices emptied");
+
+        SoundClipMixer.Voice voice = mixer.play(pcm(8, 1000), 1f);
+        assertEquals(1000, render(4)[0]);
+        voice.setGain(2f);
+        assertEquals(2000, render(2)[0], "Gain changed");
+        voice.stop();
+        assertEquals(0, render(2)[0], "Stopped");
+    }
+
+    @Test
+    void clipsToSampleRange() {
+        mixer.play(pcm(4, 30000), 1f);
+        mixer.play(pcm(4, 30000), 1f);
+        mixer.play(pcm(4, -30000), 0f);
+        assertEquals(Short.MAX_VALUE, render(4)[0]);
+
+        mixer.play(pcm(4, -30000), 1f);
+        mixer.play(pcm(4, -30000), 1f);
+        assertEquals(Short.MIN_VALUE, render(4)[0]);
+    }
+
+    @Test
+    void neverWrapsAroundAtTheHighestGain() {
+        // Enough voices for the sum to pass the range of an int
+        SoundClipMixer wide = new SoundClipMixer(new PcmCache(), 4, 20_000);
+        ByteBuffer loud = pcm(4, Short.MAX_VALUE);
+        for (int i = 0; i < 20_000; i++) {
+            wide.play(loud, SoundClipMixer.MAX_GAIN);
+        }
+        byte[] out = new byte[4 * FORMAT.getFrameSize()];
+        wide.render(out, 0, 4);
+        assertEquals(Short.MAX_VALUE, ByteBuffer.wrap(out).order(ByteOrder.LITTLE_ENDIAN).getShort(0));
+
+        assertThrows(IllegalArgumentException.class, () -> mixer.play(pcm(4, 100), SoundClipMixer.MAX_GAIN * 2));
+        SoundClipMixer.Voice voice = mixer.play(pcm(4, 100), 1f);
+        assertThrows(IllegalArgumentException.class, () -> voice.setGain(Float.POSITIVE_INFINITY));
+    }
+
+    @Test
+    void playsUpToMaxVoicesFromManyThreads() throws InterruptedException {
+        List<Thread> threads = new ArrayList<>();
+        List<SoundClipMixer.Voice> played = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            threads.add(Thread.ofPlatform().start(() -> {
+                SoundClipMixer.Voice voice = mixer.play(pcm(4, 100), 1f);
+                synchronized (played) {
+                    played.add(voice);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(8, played.stream().filter(v -> v != null).count(), "Voices beyond the most dropped");
+        assertEquals(8, mixer.getVoiceCount());
+        assertEquals(800, render(4)[0]);
+        assertNotNull(mixer.play(pcm(4, 100), 1f), "Room once voices ended");
+        for (int i = 0; i < 7; i++) {
+            mixer.play(pcm(4, 100), 1f);
+        }
+        assertNull(mixer.play(pcm(4, 100), 1f));
+    }
+
+    @Test
+    void startedMixerPlaysThroughSink() throws Exception {
+        RecordingSink sink = new RecordingSink();
+        mixer.start(sink);
+        mixer.play(pcm(16, 1234), 1f);
+        await(() -> sink.contains((short) 1234));
+        mixer.close();
+        assertTrue(sink.closed, "Sink closed with the mixer");
+    }
+
+    @Test
+    void waitingWithNothingPlayingIsNoUnderrun() throws Exception {
+        long before = Metrics.counter("mixer.underruns").get();
+        RecordingSink sink = new RecordingSink();
+        mixer.start(sink);
+        await(() -> sink.size() > 64 * FORMAT.getFrameSize());
+        mixer.close();
+
+        assertEquals(before, Metrics.counter("mixer.underruns").get());
+    }
+
+    // Decoded audio of frames frames, every sample value.
+    private static ByteBuffer pcm(int frames, int value) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(frames * FORMAT.getFrameSize()).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            buffer.putShort((short) value);
+        }
+        return buffer.flip();
+    }
+
+    private short[] render(int frames) {
+        byte[] out = new byte[frames * FORMAT.getFrameSize()];
+        mixer.render(out, 0, frames);
+        short[] samples = new short[frames * FORMAT.getChannels()];
+        ByteBuffer.wrap(out).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().get(samples);
+        return samples;
+    }
+
+    private static void await(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Timed out");
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+        }
+    }
+
+    // Records what is written, taking a while for each block like a line does.
+    private static class RecordingSink implements AudioSink {
+        private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        volatile boolean closed;
+
+        @Override
+        public AudioFormat getFormat() {
+            return FORMAT;
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) {
+            synchronized (this) {
+                written.write(buffer, offset, length);
+            }
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+
+        synchronized int size() {
+            return written.size();
+        }
+
+        synchronized boolean contains(short sample) {
+            ByteBuffer bytes = ByteBuffer.wrap(written.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+            while (bytes.remaining() >= 2) {
+                if (bytes.getShort() == sample) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package org.music;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.music.FakeMediaBackend.FakeTrack;
+import org.music.metrics.Metrics;
+import org.music.metrics.MetricsSnapshot;
+import org.music.model.SoundClip;
+import org.music.model.SoundClipHandoffQueue;
+import org.music.model.SoundClipPlayer;
+
+class SoundClipPlayerTest {
+    private static final long OPEN_MILLIS = 30;
+
+    private SoundClipHandoffQueue queue;
+    private FakeMediaBackend backend;
+    private SoundClipPlayer player;
+    private SoundClip clip1;
+    private SoundClip clip2;
+    private SoundClip clip3;
+
+    @BeforeEach
+    void setUp() {
+        queue = new SoundClipHandoffQueue();
+        backend = new FakeMediaBackend();
+        player = new SoundClipPlayer(queue, backend);
+        clip1 = new SoundClip(new File("/player/clip1.wav"));
+        clip2 = new SoundClip(new File("/player/clip2.wav"));
+        clip3 = new SoundClip(new File("/player/clip3.wav"));
+    }
+
+    @AfterEach
+    void tearDown() {
+        player.stop();
+    }
+
+    @Test
+    void playsClipsInOrder() {
+        player.start();
+        assertEquals(SoundClipPlayer.State.IDLE, player.getState());
+
+        queue.offer(List.of(clip1, new SoundClip(new File("/player/broken.wav")), clip2));
+        await(() -> backend.getTrack(0) != null && backend.getTrack(0).isPlaying());
+        assertEquals(clip1, player.getCurrentClip());
+        assertEquals(SoundClipPlayer.State.PLAYING, player.getState());
+
+        backend.getTrack(0).end();
+        assertTrue(backend.getTrack(0).isDisposed(), "Ended track disposed");
+        await(() -> backend.getTrack(1) != null && backend.getTrack(1).isPlaying());
+        assertEquals(clip2, backend.getTrack(1).soundClip, "Clip that can't be opened is skipped");
+
+        backend.getTrack(1).end();
+        assertEquals(SoundClipPlayer.State.IDLE, player.getState());
+        assertNull(player.getCurrentClip());
+    }
+
+    @Test
+    void transportControls() {
+        player.start(Thread.ofPlatform());
+        queue.offer(List.of(clip1, clip2, clip3));
+        await(() -> backend.getTrack(0) != null);
+
+        player.pause();
+        assertFalse(backend.getTrack(0).isPlaying(), "Paused");
+        assertEquals(SoundClipPlayer.State.PAUSED, player.getState());
+        player.resume();
+        assertTrue(backend.getTrack(0).isPlaying(), "Resumed");
+
+        player.skip();
+        assertTrue(backend.getTrack(0).isDisposed(), "Skipped track disposed");
+        await(() -> backend.getTrack(1) != null && backend.getTrack(1).isPlaying()); // as soon as it is open
+        assertEquals(List.of(clip3), player.getPlaylist());
+
+        // A skipped track that ends late must not move the playlist on
+        backend.getTrack(0).end();
+        assertEquals(clip2, player.getCurrentClip());
+
+        player.clear();
+        assertTrue(backend.getTrack(1).isDisposed(), "Cleared track disposed");
+        assertEquals(List.of(), player.getPlaylist());
+        assertEquals(SoundClipPlayer.State.IDLE, player.getState());
+    }
+
+    @Test
+    void stopEndsThreadAndLeavesQueueAlone() throws InterruptedException {
+        player.start();
+        queue.offer(List.of(clip1, clip2));
+        await(() -> backend.getTrack(0) != null);
+
+        player.stop();
+        assertEquals(SoundClipPlayer.State.STOPPED, player.getState());
+        assertTrue(backend.getTrack(0).isDisposed(), "Current track disposed");
+
+        queue.offer(List.of(clip3));
+        Thread.sleep(50);
+        assertEquals(1, backend.getTracks().size(), "Nothing played after stopping");
+        assertEquals(List.of(List.of(clip3)), queue.drain(), "Clips after stopping stay in the queue");
+        player.stop(); // stopping twice is harmless
+    }
+
+    @Test
+    void preloadedClipStartsWithoutGap() {
+        useSlowBackend();
+        player.setGapMillis(0);
+        player.setPreloadCount(2);
+        player.start();
+        queue.offer(List.of(clip1, clip2, clip3));
+        await(() -> backend.getTracks().size() == 3);
+        assertEquals(List.of(clip2, clip3), player.getPlaylist());
+
+        FakeTrack first = backend.getTrack(0);
+        first.end();
+        FakeTrack second = backend.getTrack(1);
+        assertTrue(second.isPlaying(), "Preloaded clip swapped in at end of media");
+        long gap = second.getPlayedNanos() - first.getEndedNanos();
+        assertTrue(gap < TimeUnit.MILLISECONDS.toNanos(OPEN_MILLIS), "Gap of " + gap + " ns");
+
+        player.setPreloadCount(0);
+        await(() -> backend.getTrack(2).isDisposed()); // no longer preloaded, even if still being opened
+        assertEquals(List.of(clip3), player.getPlaylist());
+
+        player.clear();
+        for (FakeTrack track : backend.getTracks()) {
+            assertTrue(track.isDisposed(), "Every track disposed");
+        }
+    }
+
+    @Test
+    void gapWithoutPreloading() {
+        MetricsSnapshot before = Metrics.snapshot();
+        useSlowBackend();
+        player.setGapMillis(0);
+        player.start();
+        queue.offer(List.of(clip1, clip2, clip3));
+        await(() -> backend.getTrack(0) != null && backend.getTrack(0).isPlaying());
+
+        // The next clip is only opened once the current one has ended
+        FakeTrack first = backend.getTrack(0);
+        first.end();
+        await(() -> backend.getTrack(1) != null && backend.getTrack(1).isPlaying());
+        FakeTrack second = backend.getTrack(1);
+        assertEquals("sound-clip-player", second.openedOn.getName(), "Opened by the player, not at end of media");
+        long gap = second.getPlayedNanos() - first.getEndedNanos();
+        assertTrue(gap >= TimeUnit.MILLISECONDS.toNanos(OPEN_MILLIS), "Gap of " + gap + " ns");
+
+        player.setGapMillis(100);
+        second.end();
+        await(() -> backend.getTrack(2) != null && backend.getTrack(2).isPlaying());
+        gap = backend.getTrack(2).getPlayedNanos() - second.getEndedNanos();
+        assertTrue(gap >= TimeUnit.MILLISECONDS.toNanos(100), "Gap of " + gap + " ns");
+
+        // Every stage of starting the clips was timed
+        MetricsSnapshot after = Metrics.snapshot();
+        assertEquals(3, after.get("playback.queued.count") - before.get("playback.queued.count"), "Queued");
+        assertEquals(3, after.get("playback.opened.count") - before.get("playback.opened.count"), "Opened");
+        assertEquals(3, after.get("playback.ready.count") - before.get("playback.ready.count"), "Ready");
+        assertEquals(3, after.get("playback.started.count") - before.get("playback.started.count"), "Started");
+        assertEquals(2, after.get("playback.gap.count") - before.get("playback.gap.count"), "Gaps");
+        assertTrue(after.get("playback.gap.max") >= TimeUnit.MILLISECONDS.toNanos(100), "Longest gap");
+        assertTrue(after.get("playback.opened.max") >= TimeUnit.MILLISECONDS.toNanos(OPEN_MILLIS), "Slow open");
+    }
+
+    // Plays through a backend that takes OPEN_MILLIS to open a track.
+    private void useSlowBackend() {
+        backend = new FakeMediaBackend(OPEN_MILLIS);
+        player = new SoundClipPlayer(queue, backend);
+    }
+
+    private static void await(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Timed out");
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+        }
+    }
+}
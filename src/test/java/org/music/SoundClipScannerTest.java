@@ -0,0 +1,106 @@
+package org.music;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.music.model.ScanListener;
+import org.music.model.SoundClip;
+import org.music.model.SoundClipLoader;
+import org.music.model.SoundClipScanner;
+
+class SoundClipScannerTest {
+
+    @TempDir
+    Path library;
+
+    @Test
+    void findsSameClipsAsLoader() throws IOException {
+        for (int i = 0; i < 5; i++) {
+            Path folder = Files.createDirectories(library.resolve("artist" + i).resolve("album" + i));
+            Files.createFile(folder.resolve("track" + i + ".wav"));
+            Files.createFile(folder.resolve("TRACK" + i + ".WAV"));
+            Files.createFile(folder.resolve("cover" + i + ".jpg"));
+            Files.createFile(library.resolve("artist" + i).resolve("intro.wav"));
+        }
+        Files.createFile(library.resolve("top.wav"));
+
+        Set<SoundClip> expected = SoundClipLoader.loadSoundClips(library.toString());
+
+        assertEquals(16, expected.size());
+        assertEquals(expected, new SoundClipScanner(1).scan(library.toString()));
+        assertEquals(expected, new SoundClipScanner(4).scan(library.toString()));
+    }
+
+    @Test
+    void streamsClipsInBatches() throws IOException {
+        for (int i = 0; i < 10; i++) {
+            Path folder = Files.createDirectories(library.resolve("folder" + i));
+            for (int j = 0; j < 7; j++) {
+                Files.createFile(folder.resolve("clip" + j + ".wav"));
+            }
+        }
+
+        List<List<SoundClip>> batches = new ArrayList<>();
+        int[] totals = new int[2];
+        new SoundClipScanner(4).scan(library.toString(), 16, new ScanListener() {
+            @Override
+            public void onSoundClipsFound(List<SoundClip> soundClips) {
+                batches.add(soundClips);
+            }
+
+            @Override
+            public void onScanFinished(int soundClipCount, int folderCount) {
+                totals[0] = soundClipCount;
+                totals[1] = folderCount;
+            }
+        });
+
+        Set<SoundClip> streamed = new HashSet<>();
+        for (List<SoundClip> batch : batches) {
+            assertTrue(batch.size() <= 16, "Batches should not exceed the batch size");
+            streamed.addAll(batch);
+        }
+        assertEquals(5, batches.size());
+        assertEquals(70, streamed.size());
+        assertEquals(70, totals[0]);
+        assertEquals(11, totals[1], "The library folder itself should be counted");
+    }
+
+    @Test
+    void followsSymbolicLinksWithoutLooping(@TempDir Path elsewhere) throws IOException {
+        Path linked = Files.createDirectories(elsewhere.resolve("linked"));
+        Files.createFile(linked.resolve("linked.wav"));
+        Path folder = Files.createDirectories(library.resolve("folder"));
+        Files.createFile(folder.resolve("own.wav"));
+        Files.createSymbolicLink(folder.resolve("link"), linked);
+        Files.createSymbolicLink(linked.resolve("loop"), library);
+        Path libraryLink = Files.createSymbolicLink(elsewhere.resolve("library"), library);
+
+        Set<SoundClip> expected = Set.of(
+                new SoundClip(libraryLink.resolve("folder").resolve("own.wav").toFile()),
+                new SoundClip(libraryLink.resolve("folder").resolve("link").resolve("linked.wav").toFile()));
+        assertEquals(expected, new SoundClipScanner(1).scan(libraryLink.toString()));
+        assertEquals(expected, new SoundClipScanner(4).scan(libraryLink.toString()));
+    }
+
+    @Test
+    void missingFolderGivesEmptySet() {
+        assertTrue(new SoundClipScanner().scan(library.resolve("missing").toString()).isEmpty());
+    }
+
+    @Test
+    void rejectsInvalidParallelism() {
+        assertThrows(IllegalArgumentException.class, () -> new SoundClipScanner(0));
+    }
+}
@@ -0,0 +1,55 @@
+package org.music;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.music.model.SoundClip;
+
+class SoundClipTest {
+
+    @Test
+    void clipsForTheSamePathAreEqual() {
+        SoundClip a = new SoundClip(new File("/music/rock/song.wav"));
+        SoundClip b = new SoundClip(new File("/music/rock", "song.wav"));
+        SoundClip other = new SoundClip(new File("/music/jazz/song.wav"));
+
+        assertEquals(a, b, "Same path");
+        assertEquals(a.hashCode(), b.hashCode(), "Same hash code");
+        assertEquals(a.getId(), b.getId(), "Same id");
+        assertNotEquals(a, other, "Same name in another folder");
+    }
+
+    @Test
+    void filesAreRebuiltFromTheTable() {
+        for (String path : List.of("/music/rock/song.wav", "/top.wav", "relative/clip.wav", "clip.wav",
+                "/music/räksmörgås/åäö ♫.wav")) {
+            File file = new File(path);
+            SoundClip clip = new SoundClip(file);
+            assertEquals(file, clip.getFile(), "File of " + path);
+            assertEquals(file.getName(), clip.toString(), "Name of " + path);
+        }
+    }
+
+    @Test
+    void manyClipsGetDistinctIds() {
+        // Enough clips and name bytes to fill several pages of the table
+        Set<Integer> ids = new HashSet<>();
+        for (int folder = 0; folder < 50; folder++) {
+            for (int i = 0; i < 200; i++) {
+                String path = "/many/folder" + folder + "/a fairly long clip name number " + i + ".wav";
+                SoundClip clip = new SoundClip(new File(path));
+                ids.add(clip.getId());
+                assertEquals(path, clip.getFile().getPath(), "Path");
+            }
+        }
+        assertEquals(10_000, ids.size(), "Distinct ids");
+        assertEquals(new SoundClip(new File("/many/folder7/a fairly long clip name number 7.wav")).getFile(),
+                new File("/many/folder7/a fairly long clip name number 7.wav"), "Looked up again");
+    }
+}
@@ -0,0 +1,232 @@
+package org.music;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.BooleanSupplier;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.music.metrics.Metrics;
+import org.music.metrics.MetricsSnapshot;
+import org.music.model.AudioSink;
+import org.music.model.NullAudioSink;
+import org.music.model.PcmCache;
+import org.music.model.SoundClip;
+import org.music.model.TriggerPlayer;
+import org.music.model.WavFileAudioSink;
+
+class TriggerPlayerTest {
+    private static final AudioFormat FORMAT = PcmCache.DEFAULT_FORMAT;
+
+    @TempDir
+    Path temp;
+
+    @Test
+    void cacheDropsClipsUsedLongestAgo() throws IOException {
+        PcmCache cache = new PcmCache(FORMAT, 3 * 4000);
+        SoundClip a = writeWav("a.wav", FORMAT, 1000, 1);
+        SoundClip b = writeWav("b.wav", FORMAT, 1000, 2);
+        SoundClip c = writeWav("c.wav", FORMAT, 1000, 3);
+        SoundClip d = writeWav("d.wav", FORMAT, 1000, 4);
+        SoundClip large = writeWav("large.wav", FORMAT, 4000, 5);
+
+        ByteBuffer buffer = cache.get(a);
+        assertEquals(4000, buffer.remaining(), "Decoded size");
+        assertEquals(1, buffer.get(0), "Decoded audio");
+        cache.get(b);
+        cache.get(c);
+        cache.get(a); // a is now used more recently than b
+        cache.get(d);
+
+        assertTrue(cache.contains(a) && cache.contains(c) && cache.contains(d));
+        assertFalse(cache.contains(b), "Clip used longest ago dropped");
+        assertEquals(3 * 4000, cache.getBytes());
+
+        assertEquals(16000, cache.get(large).remaining());
+        assertFalse(cache.contains(large), "Clip larger than the cache not kept");
+        assertEquals(3, cache.size());
+    }
+
+    @Test
+    void cacheCountsTheAudioOfClipsCutShort() throws IOException {
+        PcmCache cache = new PcmCache(FORMAT, PcmCache.DEFAULT_MAX_BYTES);
+        SoundClip clip = writeWav("short.wav", FORMAT, 1000, 1);
+        // The header still says 1000 frames, but only 500 are left
+        try (SeekableByteChannel channel = Files.newByteChannel(clip.getFile().toPath(), StandardOpenOption.WRITE)) {
+            channel.truncate(44 + 500 * FORMAT.getFrameSize());
+        }
+
+        assertEquals(2000, cache.get(clip).remaining(), "Decoded size");
+        assertEquals(2000, cache.getBytes(), "Counted by the audio, not the buffer allocated");
+    }
+
+    @Test
+    void cacheConvertsToItsFormat() throws IOException {
+        PcmCache cache = new PcmCache(FORMAT, PcmCache.DEFAULT_MAX_BYTES);
+        SoundClip mono = writeWav("mono.wav", new AudioFormat(22050f, 16, 1, true, false), 1000, 0);
+
+        // Twice the sample rate and twice the channels
+        int bytes = cache.get(mono).remaining();
+        assertEquals(0, bytes % FORMAT.getFrameSize(), "Whole frames");
+        assertTrue(Math.abs(bytes - 2000 * FORMAT.getFrameSize()) <= 64 * FORMAT.getFrameSize(), bytes + " bytes");
+    }
+
+    @Test
+    void playsTriggeredClipThroughFileSink() throws Exception {
+        PcmCache cache = new PcmCache();
+        SoundClip clip = writeWav("clip.wav", FORMAT, 1000, 7);
+        SoundClip broken = new SoundClip(Files.writeString(temp.resolve("broken.wav"), "not audio").toFile());
+        Path out = temp.resolve("out.wav");
+
+        TriggerPlayer player = new TriggerPlayer(cache, new WavFileAudioSink(out, FORMAT));
+        player.start();
+        player.trigger(broken); // nothing to play, and no harm done
+        player.trigger(clip);
+        await(() -> size(out) == 44 + 4000);
+        player.close();
+
+        assertTrue(player.getLastLatencyNanos() >= 0, "Latency reported");
+        try (AudioInputStream in = AudioSystem.getAudioInputStream(out.toFile())) {
+            assertTrue(in.getFormat().matches(FORMAT), "Recorded format");
+            byte[] expected = new byte[4000];
+            Arrays.fill(expected, (byte) 7);
+            assertArrayEquals(expected, in.readAllBytes(), "Recorded audio");
+        } catch (UnsupportedAudioFileException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    @Test
+    void triggerCutsOffClipPlaying() throws Exception {
+        PcmCache cache = new PcmCache();
+        SoundClip first = writeWav("first.wav", FORMAT, 44100, 1);
+        SoundClip second = writeWav("second.wav", FORMAT, 1000, 2);
+        PacedSink sink = new PacedSink();
+        MetricsSnapshot before = Metrics.snapshot();
+
+        TriggerPlayer player = new TriggerPlayer(cache, sink);
+        player.start();
+        player.trigger(first);
+        await(() -> sink.size() > 0);
+        player.trigger(second);
+        await(() -> sink.endsWith((byte) 2, 4000));
+        player.close();
+
+        assertTrue(sink.size() < 44100 * 4 + 4000, "First clip cut off");
+        assertTrue(sink.flushes >= 2, "Line flushed on each trigger");
+        assertTrue(sink.closed, "Sink closed with the player");
+
+        // A clip played from the cache doesn't wait for the disk
+        NullAudioSink counting = new NullAudioSink(FORMAT);
+        TriggerPlayer again = new TriggerPlayer(cache, counting);
+        again.start();
+        again.trigger(second);
+        await(() -> counting.getBytesWritten() == 4000);
+        again.close();
+        assertTrue(again.getLastLatencyNanos() >= 0);
+
+        MetricsSnapshot after = Metrics.snapshot();
+        assertEquals(2, after.get("trigger.missLatency.count") - before.get("trigger.missLatency.count"),
+                "Clips decoded when triggered");
+        assertEquals(1, after.get("trigger.latency.count") - before.get("trigger.latency.count"),
+                "Clips played from the cache");
+    }
+
+    private SoundClip writeWav(String name, AudioFormat format, int frames, int value) throws IOException {
+        byte[] data = new byte[frames * format.getFrameSize()];
+        Arrays.fill(data, (byte) value);
+        Path file = temp.resolve(name);
+        AudioInputStream in = new AudioInputStream(new ByteArrayInputStream(data), format, frames);
+        AudioSystem.write(in, AudioFileFormat.Type.WAVE, file.toFile());
+        return new SoundClip(file.toFile());
+    }
+
+    private static long size(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private static void await(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Timed out");
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+        }
+    }
+
+    // Records what is written, taking a while for each block like a line does.
+    private static class PacedSink implements AudioSink {
+        private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        volatile int flushes;
+        volatile boolean closed;
+
+        @Override
+        public AudioFormat getFormat() {
+            return FORMAT;
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) {
+            synchronized (this) {
+                written.write(buffer, offset, length);
+            }
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void flush() {
+            flushes++;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+
+        synchronized int size() {
+            return written.size();
+        }
+
+        synchronized boolean endsWith(byte value, int length) {
+            byte[] bytes = written.toByteArray();
+            if (bytes.length < length) {
+                return false;
+            }
+            for (int i = bytes.length - length; i < bytes.length; i++) {
+                if (bytes[i] != value) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
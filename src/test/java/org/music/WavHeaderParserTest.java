@@ -0,0 +1,107 @@
+package org.music;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.music.model.AudioMetadata;
+import org.music.model.MetadataExtractor;
+import org.music.model.SoundClip;
+import org.music.model.WavHeaderParser;
+
+class WavHeaderParserTest {
+
+    @TempDir
+    Path temp;
+
+    @Test
+    void readsFormatAndDuration() throws IOException {
+        // Two seconds of 16 bit stereo at 44.1 kHz
+        Path file = writeWav(temp.resolve("clip.wav"), 2, 44100, 16, 44100 * 4 * 2, 0);
+
+        AudioMetadata metadata = WavHeaderParser.parse(file);
+
+        assertEquals(1, metadata.getFormatTag(), "PCM format");
+        assertEquals(2, metadata.getChannels(), "Channels");
+        assertEquals(44100, metadata.getSampleRate(), "Sample rate");
+        assertEquals(16, metadata.getBitsPerSample(), "Bits per sample");
+        assertEquals(44100 * 2, metadata.getFrameCount(), "Frames");
+        assertEquals(2000, metadata.getDurationMillis(), "Duration");
+    }
+
+    @Test
+    void skipsChunksBeforeData() throws IOException {
+        // An odd sized chunk larger than the first mapped window sits between fmt and data
+        Path file = writeWav(temp.resolve("clip.wav"), 1, 8000, 8, 8000, 10001);
+
+        AudioMetadata metadata = WavHeaderParser.parse(file);
+
+        assertEquals(1, metadata.getChannels(), "Channels");
+        assertEquals(1000, metadata.getDurationMillis(), "Duration");
+    }
+
+    @Test
+    void rejectsFilesThatAreNotWAV() throws IOException {
+        Path empty = Files.createFile(temp.resolve("empty.wav"));
+        Path text = Files.writeString(temp.resolve("text.wav"), "RIFF but not really a wave file");
+
+        assertThrows(IOException.class, () -> WavHeaderParser.parse(empty), "Empty file");
+        assertThrows(IOException.class, () -> WavHeaderParser.parse(text), "Text file");
+        assertNull(new SoundClip(text.toFile()).getMetadata(), "No metadata for a broken clip");
+    }
+
+    @Test
+    void extractsAlbumMetadataInParallel() throws Exception {
+        List<SoundClip> clips = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            clips.add(new SoundClip(writeWav(temp.resolve("clip" + i + ".wav"), 1, 22050, 16, 2 * i, 0).toFile()));
+        }
+        clips.add(new SoundClip(Files.createFile(temp.resolve("broken.wav")).toFile()));
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            int readable = MetadataExtractor.extract(clips, executor).get();
+            assertEquals(200, readable, "Readable clips");
+        } finally {
+            executor.shutdown();
+        }
+
+        for (SoundClip clip : clips) {
+            assertTrue(clip.isMetadataLoaded(), "Loaded " + clip);
+        }
+        assertNotNull(clips.get(7).getMetadata(), "Metadata of a good clip");
+        assertEquals(7, clips.get(7).getMetadata().getFrameCount(), "Frames of clip7");
+    }
+
+    // Writes a PCM WAV file with dataLength bytes of silence, and a chunk of
+    // junkLength bytes between the fmt and data chunks if junkLength > 0.
+    static Path writeWav(Path file, int channels, int sampleRate, int bits, int dataLength, int junkLength)
+            throws IOException {
+        int blockAlign = channels * bits / 8;
+        int junk = junkLength > 0 ? 8 + junkLength + (junkLength & 1) : 0;
+        ByteBuffer buffer = ByteBuffer.allocate(12 + 24 + junk + 8 + dataLength).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put("RIFF".getBytes()).putInt(buffer.capacity() - 8).put("WAVE".getBytes());
+        buffer.put("fmt ".getBytes()).putInt(16).putShort((short) 1).putShort((short) channels)
+                .putInt(sampleRate).putInt(sampleRate * blockAlign).putShort((short) blockAlign)
+                .putShort((short) bits);
+        if (junkLength > 0) {
+            buffer.put("LIST".getBytes()).putInt(junkLength).position(buffer.position() + junkLength + (junkLength & 1));
+        }
+        buffer.put("data".getBytes()).putInt(dataLength);
+        return Files.write(file, buffer.array());
+    }
+}